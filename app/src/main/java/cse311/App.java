@@ -5,43 +5,165 @@ package cse311;
 
 import java.io.IOException;
 import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 
 public class App {
+    private static final String USAGE = "Usage: App [--mode interpreter|basic_block|jit] [--harts N]"
+            + " [--max-instructions N] [--timeout-ms N] [--uart-out FILE] [--quiet]"
+            + " [--profile FILE] [--profile-interval N] program.elf";
+
     public String getGreeting() {
         return "Hello World!";
     }
 
+    // Collapsed stacks of all harts into one file, hart n's prefixed with "hart n;" when there are several
+    private static void writeProfiles(RV32iComputer computer, SymbolTable symbols, Path file, boolean quiet)
+            throws IOException {
+        int harts = computer.getHartCount();
+        try (Writer out = Files.newBufferedWriter(file)) {
+            for (int i = 0; i < harts; i++) {
+                computer.getHart(i).getProfiler().writeCollapsed(out, symbols, harts > 1 ? "hart " + i + ";" : "");
+            }
+        }
+        if (!quiet) {
+            for (int i = 0; i < harts; i++) {
+                System.err.println("Hart " + i + ":");
+                computer.getHart(i).getProfiler().printSummary(System.err, symbols, 20);
+            }
+        }
+    }
+
     public static void main(String[] args) {
-        SimpleMemory memory = new SimpleMemory(128 * 1024 * 1024);
-        MemoryManager memoryManager = new MemoryManager(memory);
-        RV32iCpu cpu = new RV32iCpu(memoryManager);
-        ElfLoader elfLoader = new ElfLoader(memoryManager);
+        ExecutionMode mode = ExecutionMode.INTERPRETER;
+        int harts = 1;
+        long maxInstructions = 0;
+        long timeoutMs = 0;
+        String uartOut = null;
+        boolean quiet = false;
+        String profileOut = null;
+        int profileInterval = 1000;
+        String elfFile = null;
 
         try {
-            // Load ELF file
-            elfLoader.loadElf(args[0]);
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--mode":
+                        mode = ExecutionMode.valueOf(args[++i].toUpperCase());
+                        break;
+                    case "--harts":
+                        harts = Integer.parseInt(args[++i]);
+                        break;
+                    case "--max-instructions":
+                        maxInstructions = Long.parseLong(args[++i]);
+                        break;
+                    case "--timeout-ms":
+                        timeoutMs = Long.parseLong(args[++i]);
+                        break;
+                    case "--uart-out":
+                        uartOut = args[++i];
+                        break;
+                    case "--quiet":
+                        quiet = true;
+                        break;
+                    case "--profile":
+                        profileOut = args[++i];
+                        break;
+                    case "--profile-interval":
+                        profileInterval = Integer.parseInt(args[++i]);
+                        break;
+                    default:
+                        if (args[i].startsWith("--") || elfFile != null) {
+                            throw new IllegalArgumentException("Unexpected argument: " + args[i]);
+                        }
+                        elfFile = args[i];
+                }
+            }
+            if (elfFile == null) {
+                throw new IllegalArgumentException("No ELF file given");
+            }
+        } catch (RuntimeException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
 
-            // Set CPU's program counter to ELF entry point
-            // cpu.setPC(elfLoader.getEntryPoint());
+        try {
+            UartSink sink = uartOut != null ? UartSink.file(Paths.get(uartOut)) : UartSink.stdout();
+            Memory memory = new PagedMemory(128 * 1024 * 1024);
+            MemoryManager memoryManager = new MemoryManager(memory, new Uart(Uart.DEFAULT_RX_CAPACITY, sink));
+            RV32iComputer computer = new RV32iComputer(memoryManager, harts);
+            computer.setExecutionMode(mode);
+            ElfLoader elfLoader = new ElfLoader(memoryManager);
+
+            // Load ELF file
+            elfLoader.loadElf(elfFile);
 
-            // Start the CPU
             int entryPoint = elfLoader.getEntryPoint();
             PrintStream output = new PrintStream(System.out, false);
-            output.println("Entry Point: " + entryPoint);
-            // Optional: Print memory map for debugging
-            output.println(memoryManager.getMemoryMap());
-            output.flush();
+            if (!quiet) {
+                output.println("Entry Point: " + entryPoint);
+                // Optional: Print memory map for debugging
+                output.println(memoryManager.getMemoryMap());
+                output.flush();
+            }
+
+            // Feed stdin to the UART without keeping the JVM alive once the guest is done
+            Thread input = new Thread(() -> new InputThread().getInput(memoryManager), "uart-input");
+            input.setDaemon(true);
+            input.start();
+
+            if (profileOut != null) {
+                for (int i = 0; i < harts; i++) {
+                    computer.getHart(i).setProfiler(new Profiler(profileInterval));
+                }
+            }
+
+            // Run the guest to completion or until a limit is hit
+            computer.setProgramCounterEntryPoint(entryPoint);
+            RunResult[] results = computer.run(maxInstructions, timeoutMs * 1_000_000L);
+            sink.close();
 
-            // Start the CPU
-            cpu.setProgramCounterEntryPoint(entryPoint);
-            cpu.turnOn();
+            if (profileOut != null) {
+                writeProfiles(computer, elfLoader.getSymbols(), Paths.get(profileOut), quiet);
+            }
 
-            // Optional: Print CPU state after execution
-            // System.out.println(cpu.getState());
+            // The machine's outcome is that of the hart that ended it, or of hart 0
+            RunResult result = results[0];
+            for (int i = 0; i < results.length; i++) {
+                RunResult hart = results[i];
+                if (!quiet) {
+                    System.err.printf("Hart %d halted: %s, exit code %d, %d instructions in %.3f ms%n",
+                            i, hart.getHaltReason(), hart.getExitCode(), hart.getInstructionsRetired(),
+                            hart.getElapsedNanos() / 1e6);
+                }
+                if (hart.getFault() != null) {
+                    hart.getFault().printStackTrace();
+                }
+                if (result.getHaltReason() == RunResult.HaltReason.STOPPED
+                        && hart.getHaltReason() != RunResult.HaltReason.STOPPED) {
+                    result = hart;
+                }
+            }
+            switch (result.getHaltReason()) {
+                case EXITED:
+                    System.exit(result.getExitCode());
+                    break;
+                case FAULT:
+                    System.exit(3);
+                    break;
+                default:
+                    System.exit(4);
+                    break;
+            }
 
         } catch (Exception e) {
             System.err.println("Error running program: " + e.getMessage());
             e.printStackTrace();
+            System.exit(1);
         }
 
     }
@@ -0,0 +1,150 @@
+package cse311;
+
+/**
+ * A straight-line run of guest instructions that ends at a BRANCH, JAL, JALR
+ * or SYSTEM instruction, or at a page boundary. Successor blocks are linked
+ * directly once seen, so a hot loop goes from block to block without another
+ * cache lookup.
+ */
+final class BasicBlock {
+    final int startPc;
+    final int endPc; // address right after the last instruction
+    private final PredecodedInstruction[] instructions;
+    private final BlockOperation[] operations;
+    // Instructions covered by each operation, 2 for a fused pair
+    private final byte[] spans;
+    // Added to the CPU's event counters each time the block completes
+    final int loads;
+    final int stores;
+    final boolean endsWithBranch;
+
+    // JIT state: how often the block ran and the translated leading instructions
+    int executions;
+    private BlockOperation compiled;
+    private int compiledOperations;
+
+    // Cleared when the code under the block is overwritten or flushed
+    boolean valid = true;
+
+    // Chained successors; taken also serves as a one-entry cache for JALR targets
+    BasicBlock fallthrough;
+    BasicBlock taken;
+
+    BasicBlock(int startPc, int endPc, PredecodedInstruction[] instructions, BlockOperation[] operations,
+            byte[] spans) {
+        this.startPc = startPc;
+        this.endPc = endPc;
+        this.instructions = instructions;
+        this.operations = operations;
+        this.spans = spans;
+        int loads = 0;
+        int stores = 0;
+        for (PredecodedInstruction instruction : instructions) {
+            if (instruction.event == PredecodedInstruction.EVENT_LOAD) {
+                loads++;
+            } else if (instruction.event == PredecodedInstruction.EVENT_STORE) {
+                stores++;
+            }
+        }
+        this.loads = loads;
+        this.stores = stores;
+        this.endsWithBranch = instructions[instructions.length - 1].event == PredecodedInstruction.EVENT_BRANCH;
+    }
+
+    // Instructions, not operations: a fused pair retires two
+    int length() {
+        return instructions.length;
+    }
+
+    PredecodedInstruction[] instructions() {
+        return instructions;
+    }
+
+    boolean isCompiled() {
+        return compiled != null;
+    }
+
+    /**
+     * Replaces the first {@code length} operations with translated code.
+     */
+    void install(BlockOperation compiled, int length) {
+        int operations = 0;
+        for (int covered = 0; covered < length; operations++) {
+            covered += spans[operations];
+        }
+        this.compiledOperations = operations;
+        this.compiled = compiled;
+    }
+
+    void run(RV32iCpu cpu) {
+        BlockOperation[] ops = operations;
+        // Control transfers at the end of the block overwrite this
+        cpu.pc = endPc;
+        int i = 0;
+        try {
+            if (compiled != null) {
+                // Translated code keeps pc and x[] exact on its own, also when it faults
+                compiled.execute(cpu);
+                i = compiledOperations;
+            }
+            for (; i < ops.length; i++) {
+                ops[i].execute(cpu);
+            }
+        } catch (RuntimeException e) {
+            int completed;
+            if (compiled != null && i == 0) {
+                // The faulting instruction is the one ending at pc
+                completed = 0;
+                int pc = startPc + instructions[0].size;
+                while (pc != cpu.pc && completed < instructions.length - 1) {
+                    completed++;
+                    pc += instructions[completed].size;
+                }
+            } else {
+                // Leave pc just past the faulting instruction, as the interpreter does.
+                // Only the second half of a fused pair can fault.
+                int last = 0;
+                for (int j = 0; j <= i; j++) {
+                    last += spans[j];
+                }
+                int pc = startPc;
+                for (int j = 0; j < last; j++) {
+                    pc += instructions[j].size;
+                }
+                cpu.pc = pc;
+                completed = last - 1;
+            }
+            retirePrefix(cpu, completed);
+            throw e;
+        }
+    }
+
+    // Counts the instructions that ran before a fault, as the interpreter
+    // would have; none of them is the block's closing branch
+    private void retirePrefix(RV32iCpu cpu, int completed) {
+        cpu.instructionsRetired += completed;
+        for (int j = 0; j < completed; j++) {
+            cpu.events[instructions[j].event]++;
+        }
+    }
+
+    BasicBlock successor(int pc) {
+        BasicBlock next = fallthrough;
+        if (next != null && next.startPc == pc && next.valid) {
+            return next;
+        }
+        next = taken;
+        if (next != null && next.startPc == pc && next.valid) {
+            return next;
+        }
+        return null;
+    }
+
+    void link(BasicBlock next) {
+        if (next.startPc == endPc) {
+            fallthrough = next;
+        } else {
+            taken = next;
+        }
+    }
+}
@@ -0,0 +1,450 @@
+package cse311;
+
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+
+/**
+ * Executes guest code as cached basic blocks. Blocks are built from the CPU's
+ * pre-decoded instructions, with every instruction bound to its operands once
+ * up front, and are chained to their successors so that a hot loop keeps
+ * running inside {@link #execute()}. In {@link ExecutionMode#JIT} blocks
+ * that run often enough are handed to the {@link JitCompiler}.
+ */
+final class BlockEngine implements CodeWriteListener {
+    private static final int MAX_BLOCK_LENGTH = 64;
+    // Blocks run per call before control returns to the CPU loop
+    private static final int MAX_CHAINED_BLOCKS = 1024;
+
+    private final RV32iCpu cpu;
+    private final CodeCache<BasicBlock> blocks = new CodeCache<>();
+
+    BlockEngine(RV32iCpu cpu) {
+        this.cpu = cpu;
+    }
+
+    // Returns after MAX_CHAINED_BLOCKS blocks, once retireLimit instructions
+    // have retired or when an interrupt is waiting to be taken
+    void execute(long retireLimit) throws MemoryAccessException {
+        boolean jit = cpu.getExecutionMode() == ExecutionMode.JIT;
+        Profiler profiler = cpu.profiler;
+        if (cpu.interruptRequested) {
+            cpu.takeInterrupt();
+        }
+        BasicBlock block = lookup(cpu.pc);
+        for (int n = 1;; n++) {
+            if (jit && ++block.executions == JitCompiler.HOT_THRESHOLD) {
+                JitCompiler.compile(block);
+            }
+            block.run(cpu);
+            retire(block);
+            if (profiler != null) {
+                profiler.block(block, cpu.pc);
+            }
+            if (!cpu.isRunning() || cpu.isIdleRequested() || n == MAX_CHAINED_BLOCKS
+                    || cpu.instructionsRetired >= retireLimit || cpu.interruptRequested) {
+                return;
+            }
+            int pc = cpu.pc;
+            BasicBlock next = block.successor(pc);
+            if (next == null) {
+                next = lookup(pc);
+                block.link(next);
+            }
+            // Same rule as the interpreter: only an instruction jumping to itself counts
+            if (next == block && block.length() == 1 && cpu.checkIdleLoop()) {
+                return;
+            }
+            block = next;
+        }
+    }
+
+    // Counters are updated once per block instead of once per instruction
+    private void retire(BasicBlock block) {
+        long[] events = cpu.events;
+        cpu.instructionsRetired += block.length();
+        events[PredecodedInstruction.EVENT_LOAD] += block.loads;
+        events[PredecodedInstruction.EVENT_STORE] += block.stores;
+        if (block.endsWithBranch && cpu.pc != block.endPc) {
+            events[PredecodedInstruction.EVENT_BRANCH]++;
+        }
+    }
+
+    private BasicBlock lookup(int pc) throws MemoryAccessException {
+        BasicBlock block = blocks.get(pc);
+        if (block == null) {
+            block = build(pc);
+            blocks.put(pc, block);
+        }
+        return block;
+    }
+
+    private BasicBlock build(int startPc) throws MemoryAccessException {
+        PredecodedInstruction[] instructions = new PredecodedInstruction[MAX_BLOCK_LENGTH];
+        BlockOperation[] ops = new BlockOperation[MAX_BLOCK_LENGTH];
+        byte[] spans = new byte[MAX_BLOCK_LENGTH];
+        int count = 0;
+        int opCount = 0;
+        int pc = startPc;
+        while (true) {
+            PredecodedInstruction instruction = cpu.predecodedAt(pc);
+            instructions[count] = instruction;
+            BlockOperation fused = count > 0 && spans[opCount - 1] == 1
+                    ? fuse(instructions[count - 1], instruction, pc)
+                    : null;
+            if (fused != null) {
+                ops[opCount - 1] = fused;
+                spans[opCount - 1] = 2;
+            } else {
+                ops[opCount] = PredecodedInstruction.isCsr(instruction.kind)
+                        ? counted(instructions, count)
+                        : bind(instruction, pc);
+                spans[opCount++] = 1;
+            }
+            count++;
+            pc += instruction.size;
+            if (endsBlock(instruction.kind) || count == MAX_BLOCK_LENGTH
+                    || (pc >>> CodeCache.PAGE_SHIFT) != (startPc >>> CodeCache.PAGE_SHIFT)) {
+                break;
+            }
+        }
+        return new BasicBlock(startPc, pc, Arrays.copyOf(instructions, count), Arrays.copyOf(ops, opCount),
+                Arrays.copyOf(spans, opCount));
+    }
+
+    private static boolean endsBlock(int kind) {
+        switch (kind) {
+            case PredecodedInstruction.BEQ:
+            case PredecodedInstruction.BNE:
+            case PredecodedInstruction.BLT:
+            case PredecodedInstruction.BGE:
+            case PredecodedInstruction.BLTU:
+            case PredecodedInstruction.BGEU:
+            case PredecodedInstruction.JAL:
+            case PredecodedInstruction.JALR:
+            case PredecodedInstruction.ECALL:
+            case PredecodedInstruction.EBREAK:
+            case PredecodedInstruction.FENCE_I:
+            case PredecodedInstruction.WFI:
+            case PredecodedInstruction.MRET:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // A CSR instruction may read the counters, which have to include the
+    // instructions of this block that ran before it
+    private static BlockOperation counted(PredecodedInstruction[] instructions, int index) {
+        PredecodedInstruction instruction = instructions[index];
+        int loads = 0;
+        int stores = 0;
+        for (int i = 0; i < index; i++) {
+            if (instructions[i].event == PredecodedInstruction.EVENT_LOAD) {
+                loads++;
+            } else if (instructions[i].event == PredecodedInstruction.EVENT_STORE) {
+                stores++;
+            }
+        }
+        final int loadsBefore = loads;
+        final int storesBefore = stores;
+        return cpu -> cpu.executeCounted(instruction, index, loadsBefore, storesBefore);
+    }
+
+    /**
+     * Fuses an instruction with the one before it when the pair is a common
+     * compiler idiom: lui/auipc + addi (a 32-bit constant or address),
+     * auipc + jalr (far call), auipc + load (PC-relative load), slli +
+     * srli/srai (zero or sign extension) and slt* + beqz/bnez. Returns null
+     * for any other pair. The first instruction of every pair cannot fault
+     * and writes its result before the second one runs, so a fault in the
+     * fused operation leaves the same state as in the interpreter. Every
+     * kind involved is also supported by the {@link JitCompiler}, so a
+     * compiled prefix never ends inside a pair.
+     */
+    private static BlockOperation fuse(PredecodedInstruction first, PredecodedInstruction second, int address) {
+        final int rd = first.rd;
+        final int rs1 = first.rs1;
+        final int rs2 = first.rs2;
+        final int imm = first.imm;
+        final int rd2 = second.rd;
+        final int imm2 = second.imm;
+        final int next = address + second.size;
+        switch (first.kind) {
+            case PredecodedInstruction.LUI:
+            case PredecodedInstruction.AUIPC:
+                if (second.rs1 != rd) {
+                    return null;
+                }
+                switch (second.kind) {
+                    case PredecodedInstruction.ADDI:
+                        final int sum = imm + imm2;
+                        return cpu -> {
+                            cpu.x[rd] = imm;
+                            cpu.x[rd2] = sum;
+                        };
+                    case PredecodedInstruction.JALR:
+                        final int target = (imm + imm2) & ~1;
+                        if (rd2 == 0) {
+                            return cpu -> {
+                                cpu.x[rd] = imm;
+                                cpu.pc = target;
+                            };
+                        }
+                        return cpu -> {
+                            cpu.x[rd] = imm;
+                            cpu.x[rd2] = next;
+                            cpu.pc = target;
+                        };
+                    case PredecodedInstruction.LB:
+                    case PredecodedInstruction.LH:
+                    case PredecodedInstruction.LW:
+                    case PredecodedInstruction.LBU:
+                    case PredecodedInstruction.LHU:
+                        final int loadKind = second.kind;
+                        final int loadAddress = imm + imm2;
+                        if (rd2 == 0) {
+                            return cpu -> {
+                                cpu.x[rd] = imm;
+                                cpu.load(loadKind, loadAddress);
+                            };
+                        }
+                        return cpu -> {
+                            cpu.x[rd] = imm;
+                            cpu.x[rd2] = cpu.load(loadKind, loadAddress);
+                        };
+                    default:
+                        return null;
+                }
+            case PredecodedInstruction.SLLI:
+                if (second.rs1 != rd) {
+                    return null;
+                }
+                if (second.kind == PredecodedInstruction.SRLI) {
+                    return cpu -> {
+                        int shifted = cpu.x[rs1] << imm;
+                        cpu.x[rd] = shifted;
+                        cpu.x[rd2] = shifted >>> imm2;
+                    };
+                }
+                if (second.kind == PredecodedInstruction.SRAI) {
+                    return cpu -> {
+                        int shifted = cpu.x[rs1] << imm;
+                        cpu.x[rd] = shifted;
+                        cpu.x[rd2] = shifted >> imm2;
+                    };
+                }
+                return null;
+            case PredecodedInstruction.SLT:
+            case PredecodedInstruction.SLTU:
+            case PredecodedInstruction.SLTI:
+            case PredecodedInstruction.SLTIU:
+                // beqz/bnez on the result, in either operand order
+                if (second.kind != PredecodedInstruction.BEQ && second.kind != PredecodedInstruction.BNE
+                        || !(second.rs1 == rd && second.rs2 == 0 || second.rs1 == 0 && second.rs2 == rd)) {
+                    return null;
+                }
+                final boolean takenWhenSet = second.kind == PredecodedInstruction.BNE;
+                switch (first.kind) {
+                    case PredecodedInstruction.SLT:
+                        return cpu -> {
+                            boolean set = cpu.x[rs1] < cpu.x[rs2];
+                            cpu.x[rd] = set ? 1 : 0;
+                            cpu.pc = set == takenWhenSet ? imm2 : next;
+                        };
+                    case PredecodedInstruction.SLTU:
+                        return cpu -> {
+                            boolean set = Integer.compareUnsigned(cpu.x[rs1], cpu.x[rs2]) < 0;
+                            cpu.x[rd] = set ? 1 : 0;
+                            cpu.pc = set == takenWhenSet ? imm2 : next;
+                        };
+                    case PredecodedInstruction.SLTI:
+                        return cpu -> {
+                            boolean set = cpu.x[rs1] < imm;
+                            cpu.x[rd] = set ? 1 : 0;
+                            cpu.pc = set == takenWhenSet ? imm2 : next;
+                        };
+                    default:
+                        return cpu -> {
+                            boolean set = Integer.compareUnsigned(cpu.x[rs1], imm) < 0;
+                            cpu.x[rd] = set ? 1 : 0;
+                            cpu.pc = set == takenWhenSet ? imm2 : next;
+                        };
+                }
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Turns one instruction into an operation with its operands captured.
+     * Instructions without a specialised form fall back to the interpreter.
+     */
+    private static BlockOperation bind(PredecodedInstruction instruction, int address) {
+        final int rd = instruction.rd;
+        final int rs1 = instruction.rs1;
+        final int rs2 = instruction.rs2;
+        final int imm = instruction.imm;
+        final int next = address + instruction.size;
+        switch (instruction.kind) {
+            case PredecodedInstruction.NOP:
+                return cpu -> {
+                };
+            case PredecodedInstruction.FENCE:
+                return cpu -> VarHandle.fullFence();
+            case PredecodedInstruction.ADD:
+                return cpu -> cpu.x[rd] = cpu.x[rs1] + cpu.x[rs2];
+            case PredecodedInstruction.SUB:
+                return cpu -> cpu.x[rd] = cpu.x[rs1] - cpu.x[rs2];
+            case PredecodedInstruction.SLL:
+                return cpu -> cpu.x[rd] = cpu.x[rs1] << (cpu.x[rs2] & 0x1F);
+            case PredecodedInstruction.SLT:
+                return cpu -> cpu.x[rd] = (cpu.x[rs1] < cpu.x[rs2]) ? 1 : 0;
+            case PredecodedInstruction.SLTU:
+                return cpu -> cpu.x[rd] = (Integer.compareUnsigned(cpu.x[rs1], cpu.x[rs2]) < 0) ? 1 : 0;
+            case PredecodedInstruction.XOR:
+                return cpu -> cpu.x[rd] = cpu.x[rs1] ^ cpu.x[rs2];
+            case PredecodedInstruction.SRL:
+                return cpu -> cpu.x[rd] = cpu.x[rs1] >>> (cpu.x[rs2] & 0x1F);
+            case PredecodedInstruction.SRA:
+                return cpu -> cpu.x[rd] = cpu.x[rs1] >> (cpu.x[rs2] & 0x1F);
+            case PredecodedInstruction.OR:
+                return cpu -> cpu.x[rd] = cpu.x[rs1] | cpu.x[rs2];
+            case PredecodedInstruction.AND:
+                return cpu -> cpu.x[rd] = cpu.x[rs1] & cpu.x[rs2];
+            case PredecodedInstruction.MUL:
+                return cpu -> cpu.x[rd] = cpu.x[rs1] * cpu.x[rs2];
+            case PredecodedInstruction.MULH:
+                return cpu -> cpu.x[rd] = RV32iCpu.mulh(cpu.x[rs1], cpu.x[rs2]);
+            case PredecodedInstruction.MULHSU:
+                return cpu -> cpu.x[rd] = RV32iCpu.mulhsu(cpu.x[rs1], cpu.x[rs2]);
+            case PredecodedInstruction.MULHU:
+                return cpu -> cpu.x[rd] = RV32iCpu.mulhu(cpu.x[rs1], cpu.x[rs2]);
+            case PredecodedInstruction.DIV:
+                return cpu -> cpu.x[rd] = RV32iCpu.div(cpu.x[rs1], cpu.x[rs2]);
+            case PredecodedInstruction.DIVU:
+                return cpu -> cpu.x[rd] = RV32iCpu.divu(cpu.x[rs1], cpu.x[rs2]);
+            case PredecodedInstruction.REM:
+                return cpu -> cpu.x[rd] = RV32iCpu.rem(cpu.x[rs1], cpu.x[rs2]);
+            case PredecodedInstruction.REMU:
+                return cpu -> cpu.x[rd] = RV32iCpu.remu(cpu.x[rs1], cpu.x[rs2]);
+            case PredecodedInstruction.ANDN:
+                return cpu -> cpu.x[rd] = cpu.x[rs1] & ~cpu.x[rs2];
+            case PredecodedInstruction.ORN:
+                return cpu -> cpu.x[rd] = cpu.x[rs1] | ~cpu.x[rs2];
+            case PredecodedInstruction.XNOR:
+                return cpu -> cpu.x[rd] = ~(cpu.x[rs1] ^ cpu.x[rs2]);
+            case PredecodedInstruction.MIN:
+                return cpu -> cpu.x[rd] = Math.min(cpu.x[rs1], cpu.x[rs2]);
+            case PredecodedInstruction.MINU:
+                return cpu -> cpu.x[rd] = RV32iCpu.minu(cpu.x[rs1], cpu.x[rs2]);
+            case PredecodedInstruction.MAX:
+                return cpu -> cpu.x[rd] = Math.max(cpu.x[rs1], cpu.x[rs2]);
+            case PredecodedInstruction.MAXU:
+                return cpu -> cpu.x[rd] = RV32iCpu.maxu(cpu.x[rs1], cpu.x[rs2]);
+            case PredecodedInstruction.ROL:
+                return cpu -> cpu.x[rd] = Integer.rotateLeft(cpu.x[rs1], cpu.x[rs2]);
+            case PredecodedInstruction.ROR:
+                return cpu -> cpu.x[rd] = Integer.rotateRight(cpu.x[rs1], cpu.x[rs2]);
+            case PredecodedInstruction.RORI:
+                return cpu -> cpu.x[rd] = Integer.rotateRight(cpu.x[rs1], imm);
+            case PredecodedInstruction.CLZ:
+                return cpu -> cpu.x[rd] = Integer.numberOfLeadingZeros(cpu.x[rs1]);
+            case PredecodedInstruction.CTZ:
+                return cpu -> cpu.x[rd] = Integer.numberOfTrailingZeros(cpu.x[rs1]);
+            case PredecodedInstruction.CPOP:
+                return cpu -> cpu.x[rd] = Integer.bitCount(cpu.x[rs1]);
+            case PredecodedInstruction.SEXT_B:
+                return cpu -> cpu.x[rd] = (byte) cpu.x[rs1];
+            case PredecodedInstruction.SEXT_H:
+                return cpu -> cpu.x[rd] = (short) cpu.x[rs1];
+            case PredecodedInstruction.ZEXT_H:
+                return cpu -> cpu.x[rd] = cpu.x[rs1] & 0xFFFF;
+            case PredecodedInstruction.ORC_B:
+                return cpu -> cpu.x[rd] = RV32iCpu.orcB(cpu.x[rs1]);
+            case PredecodedInstruction.REV8:
+                return cpu -> cpu.x[rd] = Integer.reverseBytes(cpu.x[rs1]);
+            case PredecodedInstruction.ADDI:
+                return cpu -> cpu.x[rd] = cpu.x[rs1] + imm;
+            case PredecodedInstruction.SLTI:
+                return cpu -> cpu.x[rd] = (cpu.x[rs1] < imm) ? 1 : 0;
+            case PredecodedInstruction.SLTIU:
+                return cpu -> cpu.x[rd] = (Integer.compareUnsigned(cpu.x[rs1], imm) < 0) ? 1 : 0;
+            case PredecodedInstruction.XORI:
+                return cpu -> cpu.x[rd] = cpu.x[rs1] ^ imm;
+            case PredecodedInstruction.ORI:
+                return cpu -> cpu.x[rd] = cpu.x[rs1] | imm;
+            case PredecodedInstruction.ANDI:
+                return cpu -> cpu.x[rd] = cpu.x[rs1] & imm;
+            case PredecodedInstruction.SLLI:
+                return cpu -> cpu.x[rd] = cpu.x[rs1] << imm;
+            case PredecodedInstruction.SRLI:
+                return cpu -> cpu.x[rd] = cpu.x[rs1] >>> imm;
+            case PredecodedInstruction.SRAI:
+                return cpu -> cpu.x[rd] = cpu.x[rs1] >> imm;
+            case PredecodedInstruction.LUI:
+            case PredecodedInstruction.AUIPC:
+                return cpu -> cpu.x[rd] = imm;
+            case PredecodedInstruction.LB:
+            case PredecodedInstruction.LH:
+            case PredecodedInstruction.LW:
+            case PredecodedInstruction.LBU:
+            case PredecodedInstruction.LHU:
+                final int loadKind = instruction.kind;
+                if (rd == 0) {
+                    return cpu -> cpu.load(loadKind, cpu.x[rs1] + imm);
+                }
+                return cpu -> cpu.x[rd] = cpu.load(loadKind, cpu.x[rs1] + imm);
+            case PredecodedInstruction.SB:
+            case PredecodedInstruction.SH:
+            case PredecodedInstruction.SW:
+                final int storeKind = instruction.kind;
+                return cpu -> cpu.store(storeKind, cpu.x[rs1] + imm, cpu.x[rs2]);
+            case PredecodedInstruction.BEQ:
+                return cpu -> cpu.pc = (cpu.x[rs1] == cpu.x[rs2]) ? imm : next;
+            case PredecodedInstruction.BNE:
+                return cpu -> cpu.pc = (cpu.x[rs1] != cpu.x[rs2]) ? imm : next;
+            case PredecodedInstruction.BLT:
+                return cpu -> cpu.pc = (cpu.x[rs1] < cpu.x[rs2]) ? imm : next;
+            case PredecodedInstruction.BGE:
+                return cpu -> cpu.pc = (cpu.x[rs1] >= cpu.x[rs2]) ? imm : next;
+            case PredecodedInstruction.BLTU:
+                return cpu -> cpu.pc = (Integer.compareUnsigned(cpu.x[rs1], cpu.x[rs2]) < 0) ? imm : next;
+            case PredecodedInstruction.BGEU:
+                return cpu -> cpu.pc = (Integer.compareUnsigned(cpu.x[rs1], cpu.x[rs2]) >= 0) ? imm : next;
+            case PredecodedInstruction.JAL:
+                if (rd == 0) {
+                    return cpu -> cpu.pc = imm;
+                }
+                return cpu -> {
+                    cpu.x[rd] = next;
+                    cpu.pc = imm;
+                };
+            case PredecodedInstruction.JALR:
+                if (rd == 0) {
+                    return cpu -> cpu.pc = (cpu.x[rs1] + imm) & ~1;
+                }
+                return cpu -> {
+                    int target = (cpu.x[rs1] + imm) & ~1;
+                    cpu.x[rd] = next;
+                    cpu.pc = target;
+                };
+            default:
+                // pc already points past the instruction, as execute() expects
+                return cpu -> cpu.executeInstruction(instruction);
+        }
+    }
+
+    boolean isCompiled(int pc) {
+        BasicBlock block = blocks.get(pc);
+        return block != null && block.isCompiled();
+    }
+
+    @Override
+    public void codeWritten(int page) {
+        blocks.removePage(page, block -> block.valid = false);
+    }
+
+    void flush() {
+        blocks.clear(block -> block.valid = false);
+    }
+}
@@ -0,0 +1,9 @@
+package cse311;
+
+/**
+ * A single guest instruction with its operands already bound in.
+ */
+@FunctionalInterface
+interface BlockOperation {
+    void execute(RV32iCpu cpu);
+}
@@ -0,0 +1,81 @@
+package cse311;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded FIFO of bytes for exactly one producer thread and one consumer
+ * thread. Neither side takes a lock: each index is written by one thread only
+ * and published through a volatile store. A producer that finds the buffer
+ * full parks until the consumer makes room.
+ */
+final class ByteRingBuffer {
+    private final byte[] buffer;
+    private final int mask;
+
+    // head is advanced by the consumer, tail by the producer
+    private volatile long head;
+    private volatile long tail;
+    private volatile Thread waitingProducer;
+
+    ByteRingBuffer(int capacity) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+        }
+        buffer = new byte[capacity];
+        mask = capacity - 1;
+    }
+
+    int capacity() {
+        return buffer.length;
+    }
+
+    boolean isEmpty() {
+        return head == tail;
+    }
+
+    int size() {
+        return (int) (tail - head);
+    }
+
+    // Producer side
+
+    boolean offer(byte value) {
+        long t = tail;
+        if (t - head == buffer.length) {
+            return false;
+        }
+        buffer[(int) t & mask] = value;
+        tail = t + 1;
+        return true;
+    }
+
+    void put(byte value) throws InterruptedException {
+        while (!offer(value)) {
+            waitingProducer = Thread.currentThread();
+            // Re-check after publishing ourselves so a concurrent poll cannot miss us
+            if (size() == buffer.length) {
+                LockSupport.park(this);
+            }
+            waitingProducer = null;
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    // Consumer side, returns -1 when empty
+
+    int poll() {
+        long h = head;
+        if (h == tail) {
+            return -1;
+        }
+        int value = buffer[(int) h & mask] & 0xFF;
+        head = h + 1;
+        Thread producer = waitingProducer;
+        if (producer != null) {
+            LockSupport.unpark(producer);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,322 @@
+package cse311;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Just enough of a class file writer for {@link JitCompiler}: one class with
+ * a no-argument constructor plus instance methods made of straight-line code
+ * and forward branches. Classes are written as version 49 so the JVM infers
+ * types itself and no StackMapTable has to be produced.
+ */
+final class ClassFileWriter {
+    private static final int VERSION = 49;
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_FINAL = 0x0010;
+    private static final int ACC_SUPER = 0x0020;
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+    private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+    private final DataOutputStream poolOut = new DataOutputStream(pool);
+    private final Map<String, Integer> poolIndex = new HashMap<>();
+    private int poolCount = 1;
+
+    private final int thisClass;
+    private final int superClass;
+    private final int[] interfaces;
+    private final List<byte[]> methods = new ArrayList<>();
+
+    ClassFileWriter(String name, String superName, String... interfaceNames) {
+        thisClass = classRef(name);
+        superClass = classRef(superName);
+        interfaces = new int[interfaceNames.length];
+        for (int i = 0; i < interfaceNames.length; i++) {
+            interfaces[i] = classRef(interfaceNames[i]);
+        }
+        // public <init>() { super(); }
+        Code init = new Code();
+        init.aload(0);
+        init.invokespecial(superName, "<init>", "()V");
+        init.op(Code.RETURN);
+        addMethod("<init>", "()V", init, 1, 1);
+    }
+
+    // Constant pool
+
+    private int constant(String key, int tag, Writer body) {
+        Integer index = poolIndex.get(key);
+        if (index != null) {
+            return index;
+        }
+        try {
+            poolOut.writeByte(tag);
+            body.write(poolOut);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        poolIndex.put(key, poolCount);
+        return poolCount++;
+    }
+
+    int utf8(String value) {
+        return constant("U" + value, CONSTANT_UTF8, out -> out.writeUTF(value));
+    }
+
+    int integer(int value) {
+        return constant("I" + value, CONSTANT_INTEGER, out -> out.writeInt(value));
+    }
+
+    int classRef(String internalName) {
+        int name = utf8(internalName);
+        return constant("C" + internalName, CONSTANT_CLASS, out -> out.writeShort(name));
+    }
+
+    private int nameAndType(String name, String descriptor) {
+        int n = utf8(name);
+        int d = utf8(descriptor);
+        return constant("N" + name + ":" + descriptor, CONSTANT_NAME_AND_TYPE, out -> {
+            out.writeShort(n);
+            out.writeShort(d);
+        });
+    }
+
+    int fieldRef(String owner, String name, String descriptor) {
+        int c = classRef(owner);
+        int nt = nameAndType(name, descriptor);
+        return constant("F" + owner + "." + name + ":" + descriptor, CONSTANT_FIELDREF, out -> {
+            out.writeShort(c);
+            out.writeShort(nt);
+        });
+    }
+
+    int methodRef(String owner, String name, String descriptor) {
+        int c = classRef(owner);
+        int nt = nameAndType(name, descriptor);
+        return constant("M" + owner + "." + name + ":" + descriptor, CONSTANT_METHODREF, out -> {
+            out.writeShort(c);
+            out.writeShort(nt);
+        });
+    }
+
+    private interface Writer {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    // Methods
+
+    Code newCode() {
+        return new Code();
+    }
+
+    void addMethod(String name, String descriptor, Code code, int maxStack, int maxLocals) {
+        byte[] bytecode = code.toByteArray();
+        ByteArrayOutputStream method = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(method);
+        try {
+            out.writeShort(ACC_PUBLIC);
+            out.writeShort(utf8(name));
+            out.writeShort(utf8(descriptor));
+            out.writeShort(1); // attributes
+            out.writeShort(utf8("Code"));
+            out.writeInt(12 + bytecode.length);
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(bytecode.length);
+            out.write(bytecode);
+            out.writeShort(0); // exception table
+            out.writeShort(0); // attributes
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        methods.add(method.toByteArray());
+    }
+
+    byte[] toByteArray() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(VERSION);
+            out.writeShort(poolCount);
+            pool.writeTo(out);
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(interfaces.length);
+            for (int i : interfaces) {
+                out.writeShort(i);
+            }
+            out.writeShort(0); // fields
+            out.writeShort(methods.size());
+            for (byte[] method : methods) {
+                out.write(method);
+            }
+            out.writeShort(0); // attributes
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Bytecode of one method. Branch targets are {@link Label}s that may be
+     * placed after the jump that uses them.
+     */
+    final class Code {
+        static final int ICONST_0 = 0x03;
+        static final int ILOAD = 0x15;
+        static final int ALOAD = 0x19;
+        static final int ISTORE = 0x36;
+        static final int ASTORE = 0x3A;
+        static final int IALOAD = 0x2E;
+        static final int IASTORE = 0x4F;
+        static final int POP = 0x57;
+        static final int IADD = 0x60;
+        static final int ISUB = 0x64;
+        static final int IMUL = 0x68;
+        static final int ISHL = 0x78;
+        static final int ISHR = 0x7A;
+        static final int IUSHR = 0x7C;
+        static final int IAND = 0x7E;
+        static final int IOR = 0x80;
+        static final int IXOR = 0x82;
+        static final int I2B = 0x91;
+        static final int I2S = 0x93;
+        static final int IF_ICMPEQ = 0x9F;
+        static final int IF_ICMPNE = 0xA0;
+        static final int IF_ICMPLT = 0xA1;
+        static final int IF_ICMPGE = 0xA2;
+        static final int GOTO = 0xA7;
+        static final int RETURN = 0xB1;
+        private static final int BIPUSH = 0x10;
+        private static final int SIPUSH = 0x11;
+        private static final int LDC_W = 0x13;
+        private static final int GETFIELD = 0xB4;
+        private static final int PUTFIELD = 0xB5;
+        private static final int INVOKEVIRTUAL = 0xB6;
+        private static final int INVOKESPECIAL = 0xB7;
+        private static final int INVOKESTATIC = 0xB8;
+
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final List<Label> labels = new ArrayList<>();
+
+        int position() {
+            return bytes.size();
+        }
+
+        void op(int opcode) {
+            bytes.write(opcode);
+        }
+
+        private void u2(int value) {
+            bytes.write(value >>> 8);
+            bytes.write(value);
+        }
+
+        void iconst(int value) {
+            if (value >= -1 && value <= 5) {
+                op(ICONST_0 + value);
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                op(BIPUSH);
+                bytes.write(value);
+            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                op(SIPUSH);
+                u2(value);
+            } else {
+                op(LDC_W);
+                u2(integer(value));
+            }
+        }
+
+        private void local(int opcode, int index) {
+            op(opcode);
+            bytes.write(index);
+        }
+
+        void iload(int index) {
+            local(ILOAD, index);
+        }
+
+        void istore(int index) {
+            local(ISTORE, index);
+        }
+
+        void aload(int index) {
+            local(ALOAD, index);
+        }
+
+        void astore(int index) {
+            local(ASTORE, index);
+        }
+
+        void getfield(String owner, String name, String descriptor) {
+            op(GETFIELD);
+            u2(fieldRef(owner, name, descriptor));
+        }
+
+        void putfield(String owner, String name, String descriptor) {
+            op(PUTFIELD);
+            u2(fieldRef(owner, name, descriptor));
+        }
+
+        void invokevirtual(String owner, String name, String descriptor) {
+            op(INVOKEVIRTUAL);
+            u2(methodRef(owner, name, descriptor));
+        }
+
+        void invokespecial(String owner, String name, String descriptor) {
+            op(INVOKESPECIAL);
+            u2(methodRef(owner, name, descriptor));
+        }
+
+        void invokestatic(String owner, String name, String descriptor) {
+            op(INVOKESTATIC);
+            u2(methodRef(owner, name, descriptor));
+        }
+
+        void jump(int opcode, Label target) {
+            target.uses.add(position());
+            op(opcode);
+            u2(0);
+        }
+
+        void place(Label label) {
+            label.position = position();
+        }
+
+        Label newLabel() {
+            Label label = new Label();
+            labels.add(label);
+            return label;
+        }
+
+        byte[] toByteArray() {
+            byte[] code = bytes.toByteArray();
+            for (Label label : labels) {
+                for (int use : label.uses) {
+                    int offset = label.position - use;
+                    code[use + 1] = (byte) (offset >>> 8);
+                    code[use + 2] = (byte) offset;
+                }
+            }
+            return code;
+        }
+    }
+
+    static final class Label {
+        private int position = -1;
+        private final List<Integer> uses = new ArrayList<>();
+    }
+}
@@ -0,0 +1,117 @@
+package cse311;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Core-local interruptor with the usual SiFive layout: msip for hart n at
+ * 4n, mtimecmp at 0x4000 + 8n and the shared mtime at 0xBFF8. mtime counts
+ * at {@link #TIMEBASE_HZ}. The timer interrupt is raised from a timer thread
+ * at the mtimecmp deadline rather than polled by the harts.
+ */
+public class Clint implements Device {
+    static final int MSIP = 0x0;
+    static final int MTIMECMP = 0x4000;
+    static final int MTIME = 0xBFF8;
+
+    // mtime and the time CSR run at a fixed 10 MHz, independent of how fast the guest executes
+    public static final long TIMEBASE_HZ = 10_000_000L;
+    private static final long NANOS_PER_TICK = 1_000_000_000L / TIMEBASE_HZ;
+
+    // One daemon thread for all machines, started with the first future deadline
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "clint-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final long epoch = System.nanoTime();
+    private long timeOffset;
+    private final Map<Integer, Hart> harts = new ConcurrentHashMap<>();
+
+    private static final class Hart {
+        final RV32iCpu cpu;
+        long mtimecmp = -1; // never, until the guest sets it
+        boolean msip;
+        ScheduledFuture<?> deadline;
+
+        Hart(RV32iCpu cpu) {
+            this.cpu = cpu;
+        }
+    }
+
+    void attach(RV32iCpu cpu) {
+        harts.put(cpu.getHartId(), new Hart(cpu));
+    }
+
+    public synchronized long getTime() {
+        return (System.nanoTime() - epoch) / NANOS_PER_TICK + timeOffset;
+    }
+
+    @Override
+    public synchronized int read(int offset, int size) {
+        if (offset == MTIME || offset == MTIME + 4) {
+            return (int) (getTime() >>> (offset - MTIME) * 8);
+        }
+        Hart hart;
+        if (offset >= MTIMECMP) {
+            hart = harts.get((offset - MTIMECMP) >> 3);
+            return hart == null ? 0 : (int) (hart.mtimecmp >>> (offset & 4) * 8);
+        }
+        hart = harts.get(offset >> 2);
+        return hart != null && hart.msip ? 1 : 0;
+    }
+
+    @Override
+    public synchronized void write(int offset, int size, int value) {
+        if (offset == MTIME || offset == MTIME + 4) {
+            int shift = (offset - MTIME) * 8;
+            long time = getTime() & ~(0xFFFFFFFFL << shift) | Integer.toUnsignedLong(value) << shift;
+            timeOffset += time - getTime();
+            for (Hart hart : harts.values()) {
+                updateTimer(hart);
+            }
+            return;
+        }
+        Hart hart;
+        if (offset >= MTIMECMP) {
+            hart = harts.get((offset - MTIMECMP) >> 3);
+            if (hart != null) {
+                int shift = (offset & 4) * 8;
+                hart.mtimecmp = hart.mtimecmp & ~(0xFFFFFFFFL << shift) | Integer.toUnsignedLong(value) << shift;
+                updateTimer(hart);
+            }
+            return;
+        }
+        hart = harts.get(offset >> 2);
+        if (hart != null) {
+            hart.msip = (value & 1) != 0;
+            if (hart.msip) {
+                hart.cpu.raiseInterrupt(RV32iCpu.MIP_MSIP);
+            } else {
+                hart.cpu.clearInterrupt(RV32iCpu.MIP_MSIP);
+            }
+        }
+    }
+
+    // The timer interrupt is pending while mtime >= mtimecmp (both unsigned)
+    private synchronized void updateTimer(Hart hart) {
+        if (hart.deadline != null) {
+            hart.deadline.cancel(false);
+            hart.deadline = null;
+        }
+        long ticks = hart.mtimecmp - getTime();
+        if (Long.compareUnsigned(getTime(), hart.mtimecmp) >= 0) {
+            hart.cpu.raiseInterrupt(RV32iCpu.MIP_MTIP);
+            return;
+        }
+        hart.cpu.clearInterrupt(RV32iCpu.MIP_MTIP);
+        if (ticks > 0 && ticks < Long.MAX_VALUE / NANOS_PER_TICK) {
+            hart.deadline = TIMER.schedule(() -> updateTimer(hart), ticks * NANOS_PER_TICK, TimeUnit.NANOSECONDS);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package cse311;
+
+import java.util.function.Consumer;
+
+/**
+ * Maps guest PCs to cached code objects (pre-decoded instructions, basic
+ * blocks). Entries are grouped per 4 KB page so a store into code can drop
+ * exactly the page it touched.
+ */
+final class CodeCache<T> {
+    static final int PAGE_SHIFT = 12;
+    private static final int SLOT_SHIFT = 1; // instructions are 2-byte aligned with RV32C
+    private static final int SLOTS_PER_PAGE = 1 << (PAGE_SHIFT - SLOT_SHIFT);
+    private static final int DIRECTORY_BITS = 10;
+
+    // Two-level directory over the 1M possible pages, allocated on demand
+    private final Object[][][] directory = new Object[1 << DIRECTORY_BITS][][];
+
+    // Most recently used page, hit by almost every lookup
+    private int lastPage = -1;
+    private Object[] lastSlots;
+
+    @SuppressWarnings("unchecked")
+    T get(int pc) {
+        int page = pc >>> PAGE_SHIFT;
+        Object[] slots;
+        if (page == lastPage) {
+            slots = lastSlots;
+        } else {
+            slots = lookupPage(page);
+            if (slots == null) {
+                return null;
+            }
+            lastPage = page;
+            lastSlots = slots;
+        }
+        return (T) slots[(pc & 0xFFF) >>> SLOT_SHIFT];
+    }
+
+    void put(int pc, T value) {
+        int page = pc >>> PAGE_SHIFT;
+        Object[][] table = directory[page >>> DIRECTORY_BITS];
+        if (table == null) {
+            table = new Object[1 << DIRECTORY_BITS][];
+            directory[page >>> DIRECTORY_BITS] = table;
+        }
+        Object[] slots = table[page & ((1 << DIRECTORY_BITS) - 1)];
+        if (slots == null) {
+            slots = new Object[SLOTS_PER_PAGE];
+            table[page & ((1 << DIRECTORY_BITS) - 1)] = slots;
+        }
+        slots[(pc & 0xFFF) >>> SLOT_SHIFT] = value;
+    }
+
+    private Object[] lookupPage(int page) {
+        Object[][] table = directory[page >>> DIRECTORY_BITS];
+        if (table == null) {
+            return null;
+        }
+        return table[page & ((1 << DIRECTORY_BITS) - 1)];
+    }
+
+    /**
+     * Drops every entry of the page, handing each one to the callback first.
+     */
+    @SuppressWarnings("unchecked")
+    void removePage(int page, Consumer<T> onRemove) {
+        Object[][] table = directory[page >>> DIRECTORY_BITS];
+        if (table == null) {
+            return;
+        }
+        Object[] slots = table[page & ((1 << DIRECTORY_BITS) - 1)];
+        if (slots == null) {
+            return;
+        }
+        if (onRemove != null) {
+            for (Object slot : slots) {
+                if (slot != null) {
+                    onRemove.accept((T) slot);
+                }
+            }
+        }
+        table[page & ((1 << DIRECTORY_BITS) - 1)] = null;
+        if (page == lastPage) {
+            lastPage = -1;
+            lastSlots = null;
+        }
+    }
+
+    /**
+     * Drops every entry, handing each one to the callback first.
+     */
+    @SuppressWarnings("unchecked")
+    void clear(Consumer<T> onRemove) {
+        for (int i = 0; i < directory.length; i++) {
+            Object[][] table = directory[i];
+            if (table != null && onRemove != null) {
+                for (Object[] slots : table) {
+                    if (slots == null) {
+                        continue;
+                    }
+                    for (Object slot : slots) {
+                        if (slot != null) {
+                            onRemove.accept((T) slot);
+                        }
+                    }
+                }
+            }
+            directory[i] = null;
+        }
+        lastPage = -1;
+        lastSlots = null;
+    }
+}
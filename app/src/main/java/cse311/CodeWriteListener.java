@@ -0,0 +1,10 @@
+package cse311;
+
+/**
+ * Notified by {@link MemoryManager} when a store lands on a page that was
+ * previously marked as holding decoded code, once for each guest page the
+ * code was fetched through.
+ */
+public interface CodeWriteListener {
+    void codeWritten(int page);
+}
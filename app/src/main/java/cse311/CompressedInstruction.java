@@ -0,0 +1,206 @@
+package cse311;
+
+/**
+ * RV32C: expands a 16-bit compressed instruction into the 32-bit
+ * instruction it stands for, so that it goes through the normal decoder
+ * once and executes exactly like its expansion. Covers the RV32 subset of
+ * C, including the F and D loads and stores.
+ */
+final class CompressedInstruction {
+    // Anything that does not expand becomes this, which decodes as ILLEGAL
+    static final int ILLEGAL = 0;
+
+    private static final int OP_IMM = 0b0010011;
+    private static final int OP = 0b0110011;
+    private static final int LOAD = 0b0000011;
+    private static final int STORE = 0b0100011;
+    private static final int LOAD_FP = 0b0000111;
+    private static final int STORE_FP = 0b0100111;
+
+    private CompressedInstruction() {
+    }
+
+    static boolean isCompressed(int lowHalf) {
+        return (lowHalf & 0b11) != 0b11;
+    }
+
+    static int expand(int c) {
+        int func3 = (c >>> 13) & 0x7;
+        switch (c & 0b11) {
+            case 0b00:
+                return quadrant0(c, func3);
+            case 0b01:
+                return quadrant1(c, func3);
+            case 0b10:
+                return quadrant2(c, func3);
+            default:
+                return ILLEGAL;
+        }
+    }
+
+    private static int quadrant0(int c, int func3) {
+        int rdPrime = 8 + ((c >>> 2) & 0x7);
+        int rs1Prime = 8 + ((c >>> 7) & 0x7);
+        // Offsets of the word and doubleword loads and stores
+        int wordOffset = bits(c, 12, 10) << 3 | bit(c, 6) << 2 | bit(c, 5) << 6;
+        int doubleOffset = bits(c, 12, 10) << 3 | bits(c, 6, 5) << 6;
+        switch (func3) {
+            case 0b000: { // C.ADDI4SPN
+                int imm = bits(c, 12, 11) << 4 | bits(c, 10, 7) << 6 | bit(c, 6) << 2 | bit(c, 5) << 3;
+                return imm == 0 ? ILLEGAL : iType(imm, 2, 0b000, rdPrime, OP_IMM);
+            }
+            case 0b001: // C.FLD
+                return iType(doubleOffset, rs1Prime, 0b011, rdPrime, LOAD_FP);
+            case 0b010: // C.LW
+                return iType(wordOffset, rs1Prime, 0b010, rdPrime, LOAD);
+            case 0b011: // C.FLW
+                return iType(wordOffset, rs1Prime, 0b010, rdPrime, LOAD_FP);
+            case 0b101: // C.FSD
+                return sType(doubleOffset, rdPrime, rs1Prime, 0b011, STORE_FP);
+            case 0b110: // C.SW
+                return sType(wordOffset, rdPrime, rs1Prime, 0b010, STORE);
+            case 0b111: // C.FSW
+                return sType(wordOffset, rdPrime, rs1Prime, 0b010, STORE_FP);
+            default:
+                return ILLEGAL;
+        }
+    }
+
+    private static int quadrant1(int c, int func3) {
+        int rd = (c >>> 7) & 0x1F;
+        int rdPrime = 8 + ((c >>> 7) & 0x7);
+        // The 6-bit signed immediate of C.ADDI, C.LI and C.ANDI
+        int imm = signExtend(bit(c, 12) << 5 | bits(c, 6, 2), 6);
+        switch (func3) {
+            case 0b000: // C.ADDI, C.NOP
+                return iType(imm, rd, 0b000, rd, OP_IMM);
+            case 0b001: // C.JAL
+                return jType(jumpOffset(c), 1);
+            case 0b010: // C.LI
+                return iType(imm, 0, 0b000, rd, OP_IMM);
+            case 0b011:
+                if (rd == 2) { // C.ADDI16SP
+                    int offset = signExtend(bit(c, 12) << 9 | bit(c, 6) << 4 | bit(c, 5) << 6 | bits(c, 4, 3) << 7
+                            | bit(c, 2) << 5, 10);
+                    return offset == 0 ? ILLEGAL : iType(offset, 2, 0b000, 2, OP_IMM);
+                }
+                // C.LUI
+                return imm == 0 ? ILLEGAL : imm << 12 | rd << 7 | 0b0110111;
+            case 0b100:
+                switch (bits(c, 11, 10)) {
+                    case 0b00: // C.SRLI, shamt[5] must be zero on RV32
+                        return bit(c, 12) != 0 ? ILLEGAL : iType(bits(c, 6, 2), rdPrime, 0b101, rdPrime, OP_IMM);
+                    case 0b01: // C.SRAI
+                        return bit(c, 12) != 0 ? ILLEGAL
+                                : iType(0x400 | bits(c, 6, 2), rdPrime, 0b101, rdPrime, OP_IMM);
+                    case 0b10: // C.ANDI
+                        return iType(imm, rdPrime, 0b111, rdPrime, OP_IMM);
+                    default:
+                        if (bit(c, 12) != 0) {
+                            return ILLEGAL; // RV64 only
+                        }
+                        int rs2Prime = 8 + ((c >>> 2) & 0x7);
+                        switch (bits(c, 6, 5)) {
+                            case 0b00: // C.SUB
+                                return rType(0b0100000, rs2Prime, rdPrime, 0b000, rdPrime);
+                            case 0b01: // C.XOR
+                                return rType(0, rs2Prime, rdPrime, 0b100, rdPrime);
+                            case 0b10: // C.OR
+                                return rType(0, rs2Prime, rdPrime, 0b110, rdPrime);
+                            default: // C.AND
+                                return rType(0, rs2Prime, rdPrime, 0b111, rdPrime);
+                        }
+                }
+            case 0b101: // C.J
+                return jType(jumpOffset(c), 0);
+            case 0b110: // C.BEQZ
+            case 0b111: { // C.BNEZ
+                int offset = signExtend(bit(c, 12) << 8 | bits(c, 11, 10) << 3 | bits(c, 6, 5) << 6
+                        | bits(c, 4, 3) << 1 | bit(c, 2) << 5, 9);
+                return bType(offset, 0, rdPrime, func3 == 0b110 ? 0b000 : 0b001);
+            }
+            default:
+                return ILLEGAL;
+        }
+    }
+
+    private static int quadrant2(int c, int func3) {
+        int rd = (c >>> 7) & 0x1F;
+        int rs2 = (c >>> 2) & 0x1F;
+        // Stack-relative offsets of the loads and stores
+        int wordLoadOffset = bit(c, 12) << 5 | bits(c, 6, 4) << 2 | bits(c, 3, 2) << 6;
+        int doubleLoadOffset = bit(c, 12) << 5 | bits(c, 6, 5) << 3 | bits(c, 4, 2) << 6;
+        int wordStoreOffset = bits(c, 12, 9) << 2 | bits(c, 8, 7) << 6;
+        int doubleStoreOffset = bits(c, 12, 10) << 3 | bits(c, 9, 7) << 6;
+        switch (func3) {
+            case 0b000: // C.SLLI
+                return bit(c, 12) != 0 ? ILLEGAL : iType(rs2, rd, 0b001, rd, OP_IMM);
+            case 0b001: // C.FLDSP
+                return iType(doubleLoadOffset, 2, 0b011, rd, LOAD_FP);
+            case 0b010: // C.LWSP
+                return rd == 0 ? ILLEGAL : iType(wordLoadOffset, 2, 0b010, rd, LOAD);
+            case 0b011: // C.FLWSP
+                return iType(wordLoadOffset, 2, 0b010, rd, LOAD_FP);
+            case 0b100:
+                if (bit(c, 12) == 0) {
+                    if (rs2 == 0) { // C.JR
+                        return rd == 0 ? ILLEGAL : iType(0, rd, 0b000, 0, 0b1100111);
+                    }
+                    return rType(0, rs2, 0, 0b000, rd); // C.MV
+                }
+                if (rs2 == 0) {
+                    // C.EBREAK, C.JALR
+                    return rd == 0 ? 0x00100073 : iType(0, rd, 0b000, 1, 0b1100111);
+                }
+                return rType(0, rs2, rd, 0b000, rd); // C.ADD
+            case 0b101: // C.FSDSP
+                return sType(doubleStoreOffset, rs2, 2, 0b011, STORE_FP);
+            case 0b110: // C.SWSP
+                return sType(wordStoreOffset, rs2, 2, 0b010, STORE);
+            default: // C.FSWSP
+                return sType(wordStoreOffset, rs2, 2, 0b010, STORE_FP);
+        }
+    }
+
+    // C.J and C.JAL: offset[11|4|9:8|10|6|7|3:1|5] in bits 12:2
+    private static int jumpOffset(int c) {
+        return signExtend(bit(c, 12) << 11 | bit(c, 11) << 4 | bits(c, 10, 9) << 8 | bit(c, 8) << 10
+                | bit(c, 7) << 6 | bit(c, 6) << 7 | bits(c, 5, 3) << 1 | bit(c, 2) << 5, 12);
+    }
+
+    private static int bit(int value, int position) {
+        return (value >>> position) & 1;
+    }
+
+    private static int bits(int value, int high, int low) {
+        return (value >>> low) & ((1 << (high - low + 1)) - 1);
+    }
+
+    private static int signExtend(int value, int width) {
+        return value << (32 - width) >> (32 - width);
+    }
+
+    // 32-bit encodings of the expansions
+
+    private static int rType(int func7, int rs2, int rs1, int func3, int rd) {
+        return func7 << 25 | rs2 << 20 | rs1 << 15 | func3 << 12 | rd << 7 | OP;
+    }
+
+    private static int iType(int imm, int rs1, int func3, int rd, int opcode) {
+        return imm << 20 | rs1 << 15 | func3 << 12 | rd << 7 | opcode;
+    }
+
+    private static int sType(int imm, int rs2, int rs1, int func3, int opcode) {
+        return (imm >> 5) << 25 | rs2 << 20 | rs1 << 15 | func3 << 12 | (imm & 0x1F) << 7 | opcode;
+    }
+
+    private static int bType(int imm, int rs2, int rs1, int func3) {
+        return ((imm >> 12) & 1) << 31 | ((imm >> 5) & 0x3F) << 25 | rs2 << 20 | rs1 << 15 | func3 << 12
+                | ((imm >> 1) & 0xF) << 8 | ((imm >> 11) & 1) << 7 | 0b1100011;
+    }
+
+    private static int jType(int imm, int rd) {
+        return ((imm >> 20) & 1) << 31 | ((imm >> 1) & 0x3FF) << 21 | ((imm >> 11) & 1) << 20
+                | ((imm >> 12) & 0xFF) << 12 | rd << 7 | 0b1101111;
+    }
+}
@@ -0,0 +1,12 @@
+package cse311;
+
+/**
+ * A memory-mapped peripheral. {@link MemoryManager} routes every guest access
+ * inside a device's registered range here, passing the offset from the start
+ * of that range and the access size in bytes.
+ */
+public interface Device {
+    int read(int offset, int size) throws MemoryAccessException;
+
+    void write(int offset, int size, int value) throws MemoryAccessException;
+}
@@ -3,12 +3,19 @@ package cse311;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 public class ElfLoader {
     private byte[] elfData;
     private MemoryManager memory;
+    private List<Section> sections = new ArrayList<>();
+    private SymbolTable symbols = SymbolTable.EMPTY;
 
     // ELF Header Constants
     private static final byte[] ELF_MAGIC = { 0x7f, 0x45, 0x4c, 0x46 }; // "\177ELF"
@@ -21,13 +28,20 @@ public class ElfLoader {
 
     // Section Header Types
     private static final int SHT_PROGBITS = 1;
+    private static final int SHT_SYMTAB = 2;
     private static final int SHT_NOBITS = 8;
+    private static final int SHDR_SIZE = 40;
 
     // Program Header Flags
     private static final int PF_X = 1;
     private static final int PF_W = 2;
     private static final int PF_R = 4;
 
+    // Symbol types worth naming an address after
+    private static final int STT_NOTYPE = 0;
+    private static final int STT_OBJECT = 1;
+    private static final int STT_FUNC = 2;
+
     public ElfLoader(MemoryManager memory) {
         this.memory = memory;
     }
@@ -40,6 +54,8 @@ public class ElfLoader {
         }
 
         loadProgramSegments();
+        sections = readSections();
+        symbols = readSymbols();
     }
 
     private boolean validateElfHeader() {
@@ -84,6 +100,9 @@ public class ElfLoader {
         int programHeaderEntrySize = buffer.getShort();
         int programHeaderEntryCount = buffer.getShort();
 
+        // Flags of every page a segment touches; a page two segments share gets both
+        Map<Integer, Integer> pageFlags = new TreeMap<>();
+
         // Process each program header
         for (int i = 0; i < programHeaderEntryCount; i++) {
             int offset = programHeaderOffset + (i * programHeaderEntrySize);
@@ -102,57 +121,167 @@ public class ElfLoader {
             int flags = buffer.getInt();
             int alignment = buffer.getInt();
 
+            if (!inFile(offset_in_file, size_in_file) || Integer.compareUnsigned(size_in_file, size_in_mem) > 0) {
+                throw new ElfException(String.format("Segment at 0x%08X lies outside the file", virtual_addr));
+            }
             try {
-                loadSegment(offset_in_file, virtual_addr, size_in_file, size_in_mem, flags);
+                loadSegment(offset_in_file, virtual_addr, size_in_file, size_in_mem);
             } catch (MemoryAccessException e) {
                 throw new ElfException("Failed to load segment: " + e.getMessage());
             }
+            if (size_in_mem != 0) {
+                int last = (virtual_addr + size_in_mem - 1) >>> MemoryManager.PAGE_SHIFT;
+                for (int page = virtual_addr >>> MemoryManager.PAGE_SHIFT; page <= last; page++) {
+                    pageFlags.merge(page, flags, (a, b) -> a | b);
+                }
+            }
+        }
+
+        // Only once everything is in place, a read-only page may hold the start of the next segment
+        try {
+            for (Map.Entry<Integer, Integer> entry : pageFlags.entrySet()) {
+                protect(entry.getKey() << MemoryManager.PAGE_SHIFT, entry.getValue());
+            }
+        } catch (MemoryAccessException e) {
+            throw new ElfException("Failed to protect segment: " + e.getMessage());
         }
     }
 
-    private void loadSegment(int fileOffset, int virtualAddr, int sizeInFile,
-            int sizeInMem, int flags) throws MemoryAccessException {
-        int mappedAddr = mapAddress(virtualAddr);
+    // One bulk copy of the file bytes, one fill for the rest (.bss)
+    private void loadSegment(int fileOffset, int virtualAddr, int sizeInFile, int sizeInMem)
+            throws MemoryAccessException {
+        // Segments are written through the guest address, MemoryManager's page table places them
+        memory.write(virtualAddr, elfData, fileOffset, sizeInFile);
+        memory.fill(virtualAddr + sizeInFile, sizeInMem - sizeInFile, (byte) 0);
+    }
 
-        if (sizeInFile > 0) {
-            byte[] segmentData = new byte[sizeInFile];
-            System.arraycopy(elfData, fileOffset, segmentData, 0, sizeInFile);
+    private void protect(int page, int flags) throws MemoryAccessException {
+        boolean read = (flags & PF_R) != 0;
+        boolean write = (flags & PF_W) != 0;
+        boolean execute = (flags & PF_X) != 0;
+        memory.protect(page, MemoryManager.PAGE_SIZE, read, write, execute);
+    }
+
+    private boolean inFile(int offset, int size) {
+        return offset >= 0 && size >= 0 && offset <= elfData.length - size;
+    }
 
-            // Use writeByteToText for initial program loading
-            for (int i = 0; i < sizeInFile; i++) {
-                memory.writeByteToText(mappedAddr + i, segmentData[i]);
+    // All section headers, with names from the section header string table
+    private List<Section> readSections() throws ElfException {
+        ByteBuffer buffer = ByteBuffer.wrap(elfData).order(ByteOrder.LITTLE_ENDIAN);
+        int sectionHeaderOffset = buffer.getInt(32);
+        int sectionHeaderEntrySize = buffer.getShort(46) & 0xFFFF;
+        int sectionHeaderEntryCount = buffer.getShort(48) & 0xFFFF;
+        int nameSection = buffer.getShort(50) & 0xFFFF;
+        List<Section> result = new ArrayList<>();
+        if (sectionHeaderOffset == 0 || sectionHeaderEntryCount == 0) {
+            return result;
+        }
+        if (sectionHeaderEntrySize < SHDR_SIZE
+                || !inFile(sectionHeaderOffset, sectionHeaderEntrySize * sectionHeaderEntryCount)) {
+            throw new ElfException("Section headers lie outside the file");
+        }
+        for (int i = 0; i < sectionHeaderEntryCount; i++) {
+            int header = sectionHeaderOffset + i * sectionHeaderEntrySize;
+            Section section = new Section(buffer.getInt(header), buffer.getInt(header + 4), buffer.getInt(header + 12),
+                    buffer.getInt(header + 16), buffer.getInt(header + 20), buffer.getInt(header + 24));
+            if (section.type != SHT_NOBITS && !inFile(section.offset, section.size)) {
+                throw new ElfException("Section " + i + " lies outside the file");
+            }
+            result.add(section);
+        }
+        if (nameSection < result.size()) {
+            Section names = result.get(nameSection);
+            for (Section section : result) {
+                section.name = string(names, section.nameIndex);
             }
         }
+        return result;
+    }
 
-        // Zero-initialize remaining memory
-        for (int i = sizeInFile; i < sizeInMem; i++) {
-            memory.writeByteToText(mappedAddr + i, (byte) 0);
+    // The NUL-terminated string at index in a string table section
+    private String string(Section table, int index) {
+        if (index < 0 || index >= table.size) {
+            return "";
         }
+        int start = table.offset + index;
+        int end = start;
+        while (end < table.offset + table.size && elfData[end] != 0) {
+            end++;
+        }
+        return new String(elfData, start, end - start, StandardCharsets.UTF_8);
     }
 
-    private int mapAddress(int virtualAddr) {
-        // Special handling for UART addresses
-        if (virtualAddr >= MemoryManager.UART_BASE &&
-                virtualAddr < MemoryManager.UART_BASE + 0x1000) {
-            return virtualAddr; // Don't remap UART addresses
+    // .symtab with the names from its linked .strtab, empty if stripped
+    private SymbolTable readSymbols() {
+        ByteBuffer buffer = ByteBuffer.wrap(elfData).order(ByteOrder.LITTLE_ENDIAN);
+        for (Section table : sections) {
+            if (table.type != SHT_SYMTAB || table.link <= 0 || table.link >= sections.size()) {
+                continue;
+            }
+            Section strings = sections.get(table.link);
+
+            List<Integer> addresses = new ArrayList<>();
+            List<Integer> sizes = new ArrayList<>();
+            List<String> names = new ArrayList<>();
+            for (int entry = table.offset; entry + 16 <= table.offset + table.size; entry += 16) {
+                int name = buffer.getInt(entry);
+                int type = elfData[entry + 12] & 0xF;
+                int section = buffer.getShort(entry + 14) & 0xFFFF;
+                if (name == 0 || section == 0 || type != STT_FUNC && type != STT_OBJECT && type != STT_NOTYPE) {
+                    continue;
+                }
+                addresses.add(buffer.getInt(entry + 4));
+                sizes.add(buffer.getInt(entry + 8));
+                names.add(string(strings, name));
+            }
+            return new SymbolTable(addresses.stream().mapToInt(Integer::intValue).toArray(),
+                    sizes.stream().mapToInt(Integer::intValue).toArray(), names.toArray(new String[0]));
         }
+        return SymbolTable.EMPTY;
+    }
+
+    public SymbolTable getSymbols() {
+        return symbols;
+    }
 
-        // Convert negative addresses (like 0x80000000) to our memory layout
-        if (virtualAddr < 0) {
-            // Calculate offset from 0x80000000
-            long unsignedAddr = virtualAddr & 0xFFFFFFFFL; // Convert to unsigned long
-            int offset = (int) (unsignedAddr - 0x80000000L); // Calculate offset
-            return MemoryManager.TEXT_START + offset;
+    /**
+     * Load address of the named section, -1 if the file has no such section.
+     */
+    public int getSectionAddress(String name) {
+        for (Section section : sections) {
+            if (section.name.equals(name)) {
+                return section.address;
+            }
         }
-        return virtualAddr;
+        return -1;
     }
 
-    public int getEntryPoint() {
+    public int getEntryPoint() throws MemoryAccessException {
         ByteBuffer buffer = ByteBuffer.wrap(elfData).order(ByteOrder.LITTLE_ENDIAN);
         buffer.position(24);
         int entryPoint = buffer.getInt();
-        // Map the entry point address as well
-        return mapAddress(entryPoint);
+        memory.translate(entryPoint); // must lie in RAM
+        return entryPoint;
+    }
+    // One section header, the fields the loader uses
+    private static final class Section {
+        final int nameIndex;
+        final int type;
+        final int address;
+        final int offset;
+        final int size;
+        final int link;
+        String name = "";
+
+        Section(int nameIndex, int type, int address, int offset, int size, int link) {
+            this.nameIndex = nameIndex;
+            this.type = type;
+            this.address = address;
+            this.offset = offset;
+            this.size = size;
+            this.link = link;
+        }
     }
 }
 
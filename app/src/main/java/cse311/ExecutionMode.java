@@ -0,0 +1,13 @@
+package cse311;
+
+/**
+ * Selects how {@link RV32iCpu} runs guest code.
+ */
+public enum ExecutionMode {
+    // One pre-decoded instruction per dispatch
+    INTERPRETER,
+    // Cached, chained basic blocks of pre-bound operations
+    BASIC_BLOCK,
+    // Basic blocks, with hot ones translated to JVM bytecode
+    JIT
+}
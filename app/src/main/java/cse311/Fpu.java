@@ -0,0 +1,705 @@
+package cse311;
+
+import java.math.BigDecimal;
+
+/**
+ * The F and D extensions: 32 floating-point registers of 64 bits, with
+ * single-precision values NaN-boxed in the low half, and the rounding mode
+ * and accrued exception flags of fcsr.
+ *
+ * Arithmetic runs on Java float and double, which always round to nearest
+ * even. The other rounding modes and the inexact and underflow flags are
+ * derived from the sign of the rounding error, recovered exactly with an fma
+ * or TwoSum. In round-to-nearest with NX already raised there is nothing
+ * left to learn from the error, so that common case is a bare host operation.
+ *
+ * Reserved rounding modes in frm behave as round-to-nearest-even since the
+ * CPU has no illegal-instruction trap; mstatus.FS is not modelled.
+ */
+final class Fpu {
+    // fflags bits
+    static final int NX = 1;
+    static final int UF = 2;
+    static final int OF = 4;
+    static final int DZ = 8;
+    static final int NV = 16;
+
+    // Rounding modes, DYN in an instruction selects frm
+    static final int RNE = 0;
+    static final int RTZ = 1;
+    static final int RDN = 2;
+    static final int RUP = 3;
+    static final int RMM = 4;
+    static final int DYN = 7;
+
+    private static final long BOX = 0xFFFFFFFF00000000L;
+    private static final int CANONICAL_NAN_S = 0x7FC00000;
+    private static final long CANONICAL_NAN_D = 0x7FF8000000000000L;
+
+    final long[] f = new long[32];
+    int fflags;
+    int frm;
+
+    int getFcsr() {
+        return frm << 5 | fflags;
+    }
+
+    void setFcsr(int value) {
+        fflags = value & 0x1F;
+        frm = (value >>> 5) & 0x7;
+    }
+
+    // Single-precision bits of a register, anything not NaN-boxed reads as the canonical NaN
+    int getBitsS(int reg) {
+        long value = f[reg];
+        return (value & BOX) == BOX ? (int) value : CANONICAL_NAN_S;
+    }
+
+    void setBitsS(int reg, int bits) {
+        f[reg] = BOX | (bits & 0xFFFFFFFFL);
+    }
+
+    float getS(int reg) {
+        return Float.intBitsToFloat(getBitsS(reg));
+    }
+
+    double getD(int reg) {
+        return Double.longBitsToDouble(f[reg]);
+    }
+
+    // Arithmetic results, where every NaN becomes the canonical one
+    private void setS(int reg, float value) {
+        setBitsS(reg, value != value ? CANONICAL_NAN_S : Float.floatToRawIntBits(value));
+    }
+
+    private void setD(int reg, double value) {
+        f[reg] = value != value ? CANONICAL_NAN_D : Double.doubleToRawLongBits(value);
+    }
+
+    /**
+     * Register-to-register operations. For the fused multiply-adds imm holds
+     * rs3 << 3 | rm, for the others just rm.
+     */
+    void compute(int kind, int rd, int rs1, int rs2, int imm) {
+        switch (kind) {
+            case PredecodedInstruction.FMADD_S:
+            case PredecodedInstruction.FMSUB_S:
+            case PredecodedInstruction.FNMSUB_S:
+            case PredecodedInstruction.FNMADD_S:
+                setS(rd, fusedS(kind - PredecodedInstruction.FMADD_S, rs1, rs2, imm >>> 3, mode(imm & 0x7)));
+                break;
+            case PredecodedInstruction.FMADD_D:
+            case PredecodedInstruction.FMSUB_D:
+            case PredecodedInstruction.FNMSUB_D:
+            case PredecodedInstruction.FNMADD_D:
+                setD(rd, fusedD(kind - PredecodedInstruction.FMADD_D, rs1, rs2, imm >>> 3, mode(imm & 0x7)));
+                break;
+
+            case PredecodedInstruction.FADD_S:
+            case PredecodedInstruction.FSUB_S:
+            case PredecodedInstruction.FMUL_S:
+            case PredecodedInstruction.FDIV_S:
+                signalingS(getBitsS(rs1), getBitsS(rs2));
+                setS(rd, arithmeticS(kind - PredecodedInstruction.FADD_S, getS(rs1), getS(rs2), mode(imm)));
+                break;
+            case PredecodedInstruction.FSQRT_S:
+                signalingS(getBitsS(rs1), 0);
+                setS(rd, sqrtS(getS(rs1), mode(imm)));
+                break;
+            case PredecodedInstruction.FSGNJ_S:
+                setBitsS(rd, getBitsS(rs1) & 0x7FFFFFFF | getBitsS(rs2) & 0x80000000);
+                break;
+            case PredecodedInstruction.FSGNJN_S:
+                setBitsS(rd, getBitsS(rs1) & 0x7FFFFFFF | ~getBitsS(rs2) & 0x80000000);
+                break;
+            case PredecodedInstruction.FSGNJX_S:
+                setBitsS(rd, getBitsS(rs1) ^ getBitsS(rs2) & 0x80000000);
+                break;
+            case PredecodedInstruction.FMIN_S:
+            case PredecodedInstruction.FMAX_S:
+                setBitsS(rd, minMaxS(getBitsS(rs1), getBitsS(rs2), kind == PredecodedInstruction.FMAX_S));
+                break;
+
+            case PredecodedInstruction.FADD_D:
+            case PredecodedInstruction.FSUB_D:
+            case PredecodedInstruction.FMUL_D:
+            case PredecodedInstruction.FDIV_D:
+                signalingD(f[rs1], f[rs2]);
+                setD(rd, arithmeticD(kind - PredecodedInstruction.FADD_D, getD(rs1), getD(rs2), mode(imm)));
+                break;
+            case PredecodedInstruction.FSQRT_D:
+                signalingD(f[rs1], 0);
+                setD(rd, sqrtD(getD(rs1), mode(imm)));
+                break;
+            case PredecodedInstruction.FSGNJ_D:
+                f[rd] = f[rs1] & Long.MAX_VALUE | f[rs2] & Long.MIN_VALUE;
+                break;
+            case PredecodedInstruction.FSGNJN_D:
+                f[rd] = f[rs1] & Long.MAX_VALUE | ~f[rs2] & Long.MIN_VALUE;
+                break;
+            case PredecodedInstruction.FSGNJX_D:
+                f[rd] = f[rs1] ^ f[rs2] & Long.MIN_VALUE;
+                break;
+            case PredecodedInstruction.FMIN_D:
+            case PredecodedInstruction.FMAX_D:
+                f[rd] = minMaxD(f[rs1], f[rs2], kind == PredecodedInstruction.FMAX_D);
+                break;
+
+            case PredecodedInstruction.FCVT_S_D:
+                signalingD(f[rs1], 0);
+                double value = getD(rs1);
+                setS(rd, Double.isFinite(value) ? roundS(value, 0, mode(imm)) : (float) value);
+                break;
+            case PredecodedInstruction.FCVT_D_S:
+                signalingS(getBitsS(rs1), 0);
+                setD(rd, getS(rs1)); // exact
+                break;
+
+            default:
+                throw new IllegalArgumentException("Not a floating-point operation: " + kind);
+        }
+    }
+
+    /**
+     * Operations with an integer result: conversions, moves, comparisons and
+     * classification. imm holds the rounding mode of the conversions.
+     */
+    int toInteger(int kind, int rs1, int rs2, int imm) {
+        switch (kind) {
+            case PredecodedInstruction.FCVT_W_S:
+                return toInt(getS(rs1), mode(imm), false);
+            case PredecodedInstruction.FCVT_WU_S:
+                return toInt(getS(rs1), mode(imm), true);
+            case PredecodedInstruction.FMV_X_W:
+                return (int) f[rs1]; // the raw low half, boxed or not
+            case PredecodedInstruction.FEQ_S:
+                signalingS(getBitsS(rs1), getBitsS(rs2));
+                return getS(rs1) == getS(rs2) ? 1 : 0;
+            case PredecodedInstruction.FLT_S:
+            case PredecodedInstruction.FLE_S: {
+                float a = getS(rs1);
+                float b = getS(rs2);
+                if (a != a || b != b) {
+                    fflags |= NV;
+                    return 0;
+                }
+                return (kind == PredecodedInstruction.FLT_S ? a < b : a <= b) ? 1 : 0;
+            }
+            case PredecodedInstruction.FCLASS_S: {
+                int bits = getBitsS(rs1);
+                return classify(bits < 0, (bits >>> 23) & 0xFF, 0xFF, (bits & 0x7FFFFF) == 0, (bits & 0x400000) != 0);
+            }
+
+            case PredecodedInstruction.FCVT_W_D:
+                return toInt(getD(rs1), mode(imm), false);
+            case PredecodedInstruction.FCVT_WU_D:
+                return toInt(getD(rs1), mode(imm), true);
+            case PredecodedInstruction.FEQ_D:
+                signalingD(f[rs1], f[rs2]);
+                return getD(rs1) == getD(rs2) ? 1 : 0;
+            case PredecodedInstruction.FLT_D:
+            case PredecodedInstruction.FLE_D: {
+                double a = getD(rs1);
+                double b = getD(rs2);
+                if (a != a || b != b) {
+                    fflags |= NV;
+                    return 0;
+                }
+                return (kind == PredecodedInstruction.FLT_D ? a < b : a <= b) ? 1 : 0;
+            }
+            case PredecodedInstruction.FCLASS_D: {
+                long bits = f[rs1];
+                return classify(bits < 0, (int) (bits >>> 52) & 0x7FF, 0x7FF, (bits & 0xFFFFFFFFFFFFFL) == 0,
+                        (bits & 0x8000000000000L) != 0);
+            }
+
+            default:
+                throw new IllegalArgumentException("Not a floating-point operation: " + kind);
+        }
+    }
+
+    /**
+     * Operations taking an integer register: conversions to floating point
+     * and FMV.W.X. imm holds the rounding mode.
+     */
+    void fromInteger(int kind, int rd, int value, int imm) {
+        switch (kind) {
+            case PredecodedInstruction.FCVT_S_W:
+                setS(rd, roundS(value, 0, mode(imm)));
+                break;
+            case PredecodedInstruction.FCVT_S_WU:
+                setS(rd, roundS(Integer.toUnsignedLong(value), 0, mode(imm)));
+                break;
+            case PredecodedInstruction.FMV_W_X:
+                setBitsS(rd, value);
+                break;
+            case PredecodedInstruction.FCVT_D_W:
+                setD(rd, value); // exact
+                break;
+            case PredecodedInstruction.FCVT_D_WU:
+                setD(rd, Integer.toUnsignedLong(value));
+                break;
+            default:
+                throw new IllegalArgumentException("Not a floating-point operation: " + kind);
+        }
+    }
+
+    private int mode(int rm) {
+        int mode = rm == DYN ? frm : rm;
+        return mode <= RMM ? mode : RNE;
+    }
+
+    // Whether the exact rounding error is still needed for the result's mode and flags
+    private boolean needsError(int mode, boolean tiny) {
+        return mode != RNE || (fflags & NX) == 0 || tiny && (fflags & UF) == 0;
+    }
+
+    private void signalingS(int a, int b) {
+        if (isSignaling(a) || isSignaling(b)) {
+            fflags |= NV;
+        }
+    }
+
+    private void signalingD(long a, long b) {
+        if (isSignaling(a) || isSignaling(b)) {
+            fflags |= NV;
+        }
+    }
+
+    private static boolean isSignaling(int bits) {
+        return (bits & 0x7FC00000) == 0x7F800000 && (bits & 0x3FFFFF) != 0;
+    }
+
+    private static boolean isSignaling(long bits) {
+        return (bits & 0x7FF8000000000000L) == 0x7FF0000000000000L && (bits & 0x7FFFFFFFFFFFFL) != 0;
+    }
+
+    // Single precision
+
+    // op is 0..3 for add, sub, mul, div
+    private float arithmeticS(int op, float a, float b, int mode) {
+        float r;
+        switch (op) {
+            case 0:
+                r = a + b;
+                break;
+            case 1:
+                r = a - b;
+                break;
+            case 2:
+                r = a * b;
+                break;
+            default:
+                r = a / b;
+                break;
+        }
+        if (!Float.isFinite(a) || !Float.isFinite(b) || !Float.isFinite(r)) {
+            if (r != r) {
+                if (a == a && b == b) {
+                    fflags |= NV;
+                }
+            } else if (Float.isFinite(a) && Float.isFinite(b)) {
+                if (op == 3 && b == 0) {
+                    fflags |= DZ;
+                } else {
+                    return overflowS(r < 0, mode);
+                }
+            }
+            return r;
+        }
+        if (!needsError(mode, Math.abs(r) < Float.MIN_NORMAL)) {
+            return r;
+        }
+        // Redo the operation in double and round that with the error's sign in mind
+        double x = a;
+        double y = b;
+        switch (op) {
+            case 0:
+                return roundS(x + y, sumError(x, y, x + y), mode);
+            case 1:
+                return roundS(x - y, sumError(x, -y, x - y), mode);
+            case 2:
+                return roundS(x * y, 0, mode); // exact
+            default:
+                double q = x / y;
+                return roundS(q, quotientError(x, y, q), mode);
+        }
+    }
+
+    private float sqrtS(float a, int mode) {
+        float r = (float) Math.sqrt(a);
+        if (r != r) {
+            if (a == a) {
+                fflags |= NV;
+            }
+            return r;
+        }
+        if (!Float.isFinite(a) || !needsError(mode, false)) {
+            return r;
+        }
+        double x = a;
+        double root = Math.sqrt(x);
+        return roundS(root, Math.signum(Math.fma(-root, root, x)), mode);
+    }
+
+    // op is 0..3 for FMADD, FMSUB, FNMSUB, FNMADD
+    private float fusedS(int op, int rs1, int rs2, int rs3, int mode) {
+        int aBits = getBitsS(rs1);
+        int cBits = getBitsS(rs3);
+        signalingS(aBits, getBitsS(rs2));
+        signalingS(cBits, 0);
+        float a = Float.intBitsToFloat(aBits);
+        float b = getS(rs2);
+        float c = Float.intBitsToFloat(cBits);
+        if (op >= 2) {
+            a = -a;
+        }
+        if (op == 1 || op == 3) {
+            c = -c;
+        }
+        float r = Math.fma(a, b, c);
+        if (!Float.isFinite(a) || !Float.isFinite(b) || !Float.isFinite(c) || !Float.isFinite(r)) {
+            if (Float.isInfinite(a) && b == 0 || a == 0 && Float.isInfinite(b)) {
+                fflags |= NV;
+            } else if (r != r) {
+                if (a == a && b == b && c == c) {
+                    fflags |= NV;
+                }
+            } else if (Float.isFinite(a) && Float.isFinite(b) && Float.isFinite(c)) {
+                return overflowS(r < 0, mode);
+            }
+            return r;
+        }
+        if (!needsError(mode, Math.abs(r) < Float.MIN_NORMAL)) {
+            return r;
+        }
+        // The product of two floats is exact in double, only the sum rounds
+        double product = (double) a * b;
+        double sum = product + c;
+        return roundS(sum, sumError(product, c, sum), mode);
+    }
+
+    /**
+     * Rounds d to single precision. The exact result is d plus an error whose
+     * sign is that of err; err is zero when d is exact.
+     */
+    private float roundS(double d, double err, int mode) {
+        float r = (float) d;
+        if (Float.isInfinite(r)) {
+            return overflowS(d < 0, mode);
+        }
+        double rest = d - r; // exact
+        int sign;
+        boolean tie = false;
+        if (rest == 0) {
+            sign = (int) Math.signum(err);
+        } else {
+            float other = rest > 0 ? Math.nextUp(r) : Math.nextDown(r);
+            double half = ((double) other - r) / 2;
+            sign = rest > 0 ? 1 : -1;
+            if (rest == half) {
+                if (err == 0) {
+                    tie = true;
+                } else if (err > 0 == rest > 0) {
+                    // Past the midpoint once err is counted, the nearest is the other neighbour
+                    r = other;
+                    sign = -sign;
+                }
+            }
+        }
+        if (sign == 0) {
+            return r;
+        }
+        fflags |= NX;
+        boolean negative = Float.floatToRawIntBits(r) < 0;
+        switch (mode) {
+            case RTZ:
+                if (negative ? sign > 0 : sign < 0) {
+                    r = Math.nextAfter(r, 0.0);
+                }
+                break;
+            case RDN:
+                if (sign < 0) {
+                    r = Math.nextDown(r);
+                }
+                break;
+            case RUP:
+                if (sign > 0) {
+                    r = Math.nextUp(r);
+                }
+                break;
+            case RMM:
+                if (tie && (negative ? sign < 0 : sign > 0)) {
+                    r = Math.nextAfter(r, negative ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY);
+                }
+                break;
+            default: // RNE
+                break;
+        }
+        if (Float.isInfinite(r)) {
+            fflags |= OF;
+        } else if (Math.abs(r) < Float.MIN_NORMAL) {
+            fflags |= UF;
+        }
+        return r;
+    }
+
+    private float overflowS(boolean negative, int mode) {
+        fflags |= OF | NX;
+        boolean largest = mode == RTZ || mode == (negative ? RUP : RDN);
+        float r = largest ? Float.MAX_VALUE : Float.POSITIVE_INFINITY;
+        return negative ? -r : r;
+    }
+
+    private int minMaxS(int aBits, int bBits, boolean max) {
+        signalingS(aBits, bBits);
+        float a = Float.intBitsToFloat(aBits);
+        float b = Float.intBitsToFloat(bBits);
+        if (a != a) {
+            return b != b ? CANONICAL_NAN_S : bBits;
+        } else if (b != b) {
+            return aBits;
+        } else if (a == b) {
+            // Equal values differ at most in the sign of zero, -0 is the smaller
+            return max ? aBits & bBits : aBits | bBits;
+        }
+        return (a < b) != max ? aBits : bBits;
+    }
+
+    // Double precision
+
+    private double arithmeticD(int op, double a, double b, int mode) {
+        double r;
+        switch (op) {
+            case 0:
+                r = a + b;
+                break;
+            case 1:
+                r = a - b;
+                break;
+            case 2:
+                r = a * b;
+                break;
+            default:
+                r = a / b;
+                break;
+        }
+        if (!Double.isFinite(a) || !Double.isFinite(b) || !Double.isFinite(r)) {
+            if (r != r) {
+                if (a == a && b == b) {
+                    fflags |= NV;
+                }
+            } else if (Double.isFinite(a) && Double.isFinite(b)) {
+                if (op == 3 && b == 0) {
+                    fflags |= DZ;
+                } else {
+                    return overflowD(r < 0, mode);
+                }
+            }
+            return r;
+        }
+        if (!needsError(mode, Math.abs(r) < Double.MIN_NORMAL)) {
+            return r;
+        }
+        switch (op) {
+            case 0:
+                return roundD(r, sumError(a, b, r), true, mode);
+            case 1:
+                return roundD(r, sumError(a, -b, r), true, mode);
+            case 2:
+                return roundD(r, Math.fma(a, b, -r), true, mode);
+            default:
+                return roundD(r, quotientError(a, b, r), false, mode);
+        }
+    }
+
+    private double sqrtD(double a, int mode) {
+        double r = Math.sqrt(a);
+        if (r != r) {
+            if (a == a) {
+                fflags |= NV;
+            }
+            return r;
+        }
+        if (!Double.isFinite(a) || !needsError(mode, false)) {
+            return r;
+        }
+        return roundD(r, Math.signum(Math.fma(-r, r, a)), false, mode);
+    }
+
+    private double fusedD(int op, int rs1, int rs2, int rs3, int mode) {
+        signalingD(f[rs1], f[rs2]);
+        signalingD(f[rs3], 0);
+        double a = op >= 2 ? -getD(rs1) : getD(rs1);
+        double b = getD(rs2);
+        double c = op == 1 || op == 3 ? -getD(rs3) : getD(rs3);
+        double r = Math.fma(a, b, c);
+        if (!Double.isFinite(a) || !Double.isFinite(b) || !Double.isFinite(c) || !Double.isFinite(r)) {
+            if (Double.isInfinite(a) && b == 0 || a == 0 && Double.isInfinite(b)) {
+                fflags |= NV;
+            } else if (r != r) {
+                if (a == a && b == b && c == c) {
+                    fflags |= NV;
+                }
+            } else if (Double.isFinite(a) && Double.isFinite(b) && Double.isFinite(c)) {
+                return overflowD(r < 0, mode);
+            }
+            return r;
+        }
+        if (!needsError(mode, Math.abs(r) < Double.MIN_NORMAL)) {
+            return r;
+        }
+        // No cheap exact error for a fused result, so work it out in decimal
+        BigDecimal exact = new BigDecimal(a).multiply(new BigDecimal(b)).add(new BigDecimal(c));
+        BigDecimal err = exact.subtract(new BigDecimal(r));
+        if (err.signum() == 0) {
+            return r;
+        }
+        double other = err.signum() > 0 ? Math.nextUp(r) : Math.nextDown(r);
+        boolean tie = err.abs().multiply(BigDecimal.valueOf(2))
+                .compareTo(new BigDecimal(other).subtract(new BigDecimal(r)).abs()) == 0;
+        return adjustD(r, err.signum(), tie, mode);
+    }
+
+    /**
+     * Applies the rounding mode to r, the round-to-nearest-even result, given
+     * the error of r. With mayTie the error is exact and a halfway case can
+     * be told apart; otherwise only its sign is meaningful.
+     */
+    private double roundD(double r, double err, boolean mayTie, int mode) {
+        if (err == 0) {
+            return r;
+        }
+        boolean tie = false;
+        if (mayTie && mode == RMM) {
+            double other = err > 0 ? Math.nextUp(r) : Math.nextDown(r);
+            tie = Math.abs(err) * 2 == Math.abs(other - r);
+        }
+        return adjustD(r, err > 0 ? 1 : -1, tie, mode);
+    }
+
+    private double adjustD(double r, int sign, boolean tie, int mode) {
+        fflags |= NX;
+        boolean negative = Double.doubleToRawLongBits(r) < 0;
+        switch (mode) {
+            case RTZ:
+                if (negative ? sign > 0 : sign < 0) {
+                    r = Math.nextAfter(r, 0.0);
+                }
+                break;
+            case RDN:
+                if (sign < 0) {
+                    r = Math.nextDown(r);
+                }
+                break;
+            case RUP:
+                if (sign > 0) {
+                    r = Math.nextUp(r);
+                }
+                break;
+            case RMM:
+                if (tie && (negative ? sign < 0 : sign > 0)) {
+                    r = Math.nextAfter(r, negative ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY);
+                }
+                break;
+            default: // RNE
+                break;
+        }
+        if (Double.isInfinite(r)) {
+            fflags |= OF;
+        } else if (Math.abs(r) < Double.MIN_NORMAL) {
+            fflags |= UF;
+        }
+        return r;
+    }
+
+    private double overflowD(boolean negative, int mode) {
+        fflags |= OF | NX;
+        boolean largest = mode == RTZ || mode == (negative ? RUP : RDN);
+        double r = largest ? Double.MAX_VALUE : Double.POSITIVE_INFINITY;
+        return negative ? -r : r;
+    }
+
+    private long minMaxD(long aBits, long bBits, boolean max) {
+        signalingD(aBits, bBits);
+        double a = Double.longBitsToDouble(aBits);
+        double b = Double.longBitsToDouble(bBits);
+        if (a != a) {
+            return b != b ? CANONICAL_NAN_D : bBits;
+        } else if (b != b) {
+            return aBits;
+        } else if (a == b) {
+            return max ? aBits & bBits : aBits | bBits;
+        }
+        return (a < b) != max ? aBits : bBits;
+    }
+
+    // Shared helpers
+
+    // (a + b) - s for s = a + b rounded, exact by Knuth's TwoSum
+    private static double sumError(double a, double b, double s) {
+        double bv = s - a;
+        return (a - (s - bv)) + (b - bv);
+    }
+
+    // Has the sign of a / b - q: the residual a - q * b is exact in one fma
+    private static double quotientError(double a, double b, double q) {
+        return Math.signum(Math.fma(-q, b, a)) * Math.signum(b);
+    }
+
+    private int toInt(double value, int mode, boolean unsigned) {
+        if (value != value) {
+            fflags |= NV;
+            return unsigned ? -1 : Integer.MAX_VALUE;
+        }
+        double rounded;
+        switch (mode) {
+            case RTZ:
+                rounded = value < 0 ? Math.ceil(value) : Math.floor(value);
+                break;
+            case RDN:
+                rounded = Math.floor(value);
+                break;
+            case RUP:
+                rounded = Math.ceil(value);
+                break;
+            case RMM:
+                double magnitude = Math.abs(value);
+                double whole = Math.floor(magnitude);
+                rounded = Math.copySign(magnitude - whole >= 0.5 ? whole + 1 : whole, value);
+                break;
+            default:
+                rounded = Math.rint(value);
+                break;
+        }
+        long min = unsigned ? 0 : Integer.MIN_VALUE;
+        long max = unsigned ? 0xFFFFFFFFL : Integer.MAX_VALUE;
+        if (rounded < min) {
+            fflags |= NV;
+            return (int) min;
+        } else if (rounded > max) {
+            fflags |= NV;
+            return (int) max;
+        }
+        if (rounded != value) {
+            fflags |= NX;
+        }
+        return (int) (long) rounded;
+    }
+
+    private static int classify(boolean negative, int exponent, int maxExponent, boolean zeroFraction,
+            boolean quiet) {
+        if (exponent == maxExponent) {
+            if (zeroFraction) {
+                return negative ? 1 : 1 << 7; // infinities
+            }
+            return quiet ? 1 << 9 : 1 << 8;
+        } else if (exponent == 0) {
+            if (zeroFraction) {
+                return negative ? 1 << 3 : 1 << 4; // zeros
+            }
+            return negative ? 1 << 2 : 1 << 5; // subnormals
+        }
+        return negative ? 1 << 1 : 1 << 6;
+    }
+}
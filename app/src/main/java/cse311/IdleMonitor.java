@@ -0,0 +1,66 @@
+package cse311;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lets an idle guest sleep instead of spinning. Devices report polls that
+ * found nothing new; when the same poll keeps repeating from a tight loop the
+ * CPU is asked to go idle. The CPU thread then parks here until a device
+ * calls {@link #wake()} or the park times out.
+ */
+final class IdleMonitor {
+    // A poll loop is at most this many instructions long
+    private static final int POLL_LOOP_LENGTH = 16;
+    // Repeated empty polls before the guest counts as idle
+    private static final int POLLS_BEFORE_IDLE = 64;
+
+    private final RV32iCpu cpu;
+    private int lastPollPc;
+    private long lastPollRetired;
+    private int polls;
+
+    private volatile Thread sleeper;
+    private volatile boolean wakeup;
+
+    IdleMonitor(RV32iCpu cpu) {
+        this.cpu = cpu;
+    }
+
+    // Any hart's thread: a device register was read and had nothing new
+    void emptyPoll() {
+        if (!cpu.isCurrentHart()) {
+            return; // another hart polled
+        }
+        long retired = cpu.instructionsRetired;
+        if (cpu.pc == lastPollPc && retired - lastPollRetired <= POLL_LOOP_LENGTH) {
+            if (++polls == POLLS_BEFORE_IDLE) {
+                polls = 0;
+                cpu.requestIdle();
+            }
+        } else {
+            lastPollPc = cpu.pc;
+            polls = 0;
+        }
+        lastPollRetired = retired;
+    }
+
+    // Any thread: something the guest may be waiting for has happened
+    void wake() {
+        wakeup = true;
+        Thread thread = sleeper;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    // CPU thread: sleeps unless a wakeup arrived since the last park
+    void park(long timeoutNanos) {
+        sleeper = Thread.currentThread();
+        if (!wakeup) {
+            LockSupport.parkNanos(this, timeoutNanos);
+        }
+        sleeper = null;
+        wakeup = false;
+        polls = 0;
+    }
+}
@@ -7,9 +7,14 @@ public class InputThread {
 
     public void getInput(MemoryManager manager) {
         Scanner reader = new Scanner(System.in);
-        while (true) {
-            String input = reader.nextLine();
-            manager.getInput(input);
+        try {
+            while (reader.hasNextLine()) {
+                String input = reader.nextLine();
+                // Waits here while the guest has not drained earlier input
+                manager.getInput(input);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 
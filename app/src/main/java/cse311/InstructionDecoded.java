@@ -101,6 +101,37 @@ public class InstructionDecoded {
         this.imm_j = imm_j;
     }
 
+    /**
+     * Re-encodes the fields as a 32-bit instruction word, taking the
+     * immediate that belongs to the opcode's format.
+     */
+    int toWord() {
+        int fields = rs1 << 15 | func3 << 12 | opcode;
+        switch (opcode) {
+            case 0b0000011: // LOAD
+            case 0b0000111: // LOAD-FP
+            case 0b0001111: // MISC-MEM
+            case 0b0010011: // OP-IMM
+            case 0b1100111: // JALR
+            case 0b1110011: // SYSTEM
+                return imm_i << 20 | fields | rd << 7;
+            case 0b0100011: // STORE
+            case 0b0100111: // STORE-FP
+                return (imm_s >> 5) << 25 | rs2 << 20 | fields | (imm_s & 0x1F) << 7;
+            case 0b1100011: // BRANCH
+                return (imm_b >> 12 & 1) << 31 | (imm_b >> 5 & 0x3F) << 25 | rs2 << 20 | fields
+                        | (imm_b >> 1 & 0xF) << 8 | (imm_b >> 11 & 1) << 7;
+            case 0b0110111: // LUI
+            case 0b0010111: // AUIPC
+                return imm_u & 0xFFFFF000 | rd << 7 | opcode;
+            case 0b1101111: // JAL
+                return (imm_j >> 20 & 1) << 31 | (imm_j >> 1 & 0x3FF) << 21 | (imm_j >> 11 & 1) << 20
+                        | (imm_j >> 12 & 0xFF) << 12 | rd << 7 | opcode;
+            default: // R-type and R4-type
+                return func7 << 25 | rs2 << 20 | fields | rd << 7;
+        }
+    }
+
     @Override
     public String toString() {
         return "InstructionDecoded [opcode=" + opcode + ", rd=" + rd + ", rs1=" + rs1 + ", rs2=" + rs2 + ", func3="
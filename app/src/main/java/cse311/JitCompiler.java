@@ -0,0 +1,557 @@
+package cse311;
+
+import java.lang.invoke.MethodHandles;
+
+/**
+ * Translates hot basic blocks into JVM bytecode, loaded as hidden classes so
+ * HotSpot compiles the guest code down to native code. Guest registers live
+ * in JVM locals for the duration of a block and are written back to
+ * {@code x[]} before anything that can fault and when the block exits.
+ *
+ * Only the leading run of instructions the translator understands is
+ * compiled; SYSTEM instructions and anything after them stay on the bound
+ * interpreter operations of the block.
+ */
+final class JitCompiler {
+    static final int HOT_THRESHOLD = 1000;
+
+    // A rejected translation is a translator bug; reported for the first block only
+    private static volatile boolean rejectionReported;
+
+    private static final String CLASS_NAME = "cse311/JitBlock";
+    private static final String CPU = "cse311/RV32iCpu";
+    private static final String INTEGER = "java/lang/Integer";
+    private static final String MATH = "java/lang/Math";
+    private static final String FPU = "cse311/Fpu";
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    // Locals of the generated execute(RV32iCpu) method
+    private static final int LOCAL_CPU = 1;
+    private static final int LOCAL_X = 2;
+    private static final int LOCAL_REG_BASE = 2; // x1..x31 in locals 3..33
+    private static final int LOCAL_TEMP = 34;
+    private static final int MAX_LOCALS = 35;
+    private static final int MAX_STACK = 6;
+
+    private final ClassFileWriter writer;
+    private final ClassFileWriter.Code code;
+    private final boolean[] dirty = new boolean[32];
+
+    private JitCompiler() {
+        writer = new ClassFileWriter(CLASS_NAME, "java/lang/Object", "cse311/BlockOperation");
+        code = writer.newCode();
+    }
+
+    /**
+     * Compiles the block's leading supported instructions and installs the
+     * result on the block. Returns false if nothing could be translated.
+     */
+    static boolean compile(BasicBlock block) {
+        PredecodedInstruction[] instructions = block.instructions();
+        int count = 0;
+        while (count < instructions.length && isSupported(instructions[count].kind)) {
+            count++;
+        }
+        if (count == 0) {
+            return false;
+        }
+        byte[] bytes = new JitCompiler().translate(block, count);
+        BlockOperation compiled;
+        try {
+            MethodHandles.Lookup hidden = LOOKUP.defineHiddenClass(bytes, true);
+            compiled = (BlockOperation) hidden.lookupClass().getDeclaredConstructor().newInstance();
+        } catch (LinkageError | IllegalAccessException e) {
+            // The JVM refused the class: keep interpreting the block, and say so once
+            if (!rejectionReported) {
+                rejectionReported = true;
+                System.err.printf("JIT: block at 0x%08x rejected, interpreting it instead: %s%n", block.startPc, e);
+            }
+            return false;
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("JIT: cannot instantiate block at " + block.startPc, e);
+        }
+        block.install(compiled, count);
+        return true;
+    }
+
+    static boolean isSupported(int kind) {
+        switch (kind) {
+            case PredecodedInstruction.ECALL:
+            case PredecodedInstruction.EBREAK:
+            case PredecodedInstruction.FENCE:
+            case PredecodedInstruction.FENCE_I:
+            case PredecodedInstruction.ILLEGAL:
+                return false;
+            default:
+                // RV32I apart from SYSTEM, plus RV32M, Zbb, F and D
+                return kind <= PredecodedInstruction.EBREAK
+                        || kind >= PredecodedInstruction.MUL && kind <= PredecodedInstruction.FCVT_D_WU;
+        }
+    }
+
+    private byte[] translate(BasicBlock block, int count) {
+        PredecodedInstruction[] instructions = block.instructions();
+
+        // int[] x = cpu.x; then pull in every register read before it is written
+        code.aload(LOCAL_CPU);
+        code.getfield(CPU, "x", "[I");
+        code.astore(LOCAL_X);
+        boolean[] written = new boolean[32];
+        for (int i = 0; i < count; i++) {
+            PredecodedInstruction in = instructions[i];
+            for (int source : sources(in)) {
+                if (source != 0 && !written[source]) {
+                    written[source] = true;
+                    code.aload(LOCAL_X);
+                    code.iconst(source);
+                    code.op(ClassFileWriter.Code.IALOAD);
+                    code.istore(LOCAL_REG_BASE + source);
+                }
+            }
+            if (writesInteger(in.kind) && in.rd != 0) {
+                written[in.rd] = true;
+            }
+        }
+
+        boolean exited = false;
+        int address = block.startPc;
+        for (int i = 0; i < count; i++) {
+            exited = emit(instructions[i], address);
+            address += instructions[i].size;
+        }
+        if (!exited) {
+            // Fell off the compiled part: the remaining operations expect pc at the block end
+            writeBack();
+            setPc(block.endPc);
+            code.op(ClassFileWriter.Code.RETURN);
+        }
+        writer.addMethod("execute", "(L" + CPU + ";)V", code, MAX_STACK, MAX_LOCALS);
+        return writer.toByteArray();
+    }
+
+    private static int[] sources(PredecodedInstruction in) {
+        switch (in.kind) {
+            case PredecodedInstruction.LUI:
+            case PredecodedInstruction.AUIPC:
+            case PredecodedInstruction.JAL:
+            case PredecodedInstruction.NOP:
+                return new int[0];
+            case PredecodedInstruction.ADDI:
+            case PredecodedInstruction.SLTI:
+            case PredecodedInstruction.SLTIU:
+            case PredecodedInstruction.XORI:
+            case PredecodedInstruction.ORI:
+            case PredecodedInstruction.ANDI:
+            case PredecodedInstruction.SLLI:
+            case PredecodedInstruction.SRLI:
+            case PredecodedInstruction.SRAI:
+            case PredecodedInstruction.LB:
+            case PredecodedInstruction.LH:
+            case PredecodedInstruction.LW:
+            case PredecodedInstruction.LBU:
+            case PredecodedInstruction.LHU:
+            case PredecodedInstruction.JALR:
+                return new int[] { in.rs1 };
+            default:
+                if (in.kind >= PredecodedInstruction.FLW) {
+                    return readsInteger(in.kind) ? new int[] { in.rs1 } : new int[0];
+                }
+                return new int[] { in.rs1, in.rs2 };
+        }
+    }
+
+    private static boolean isFloatCompute(int kind) {
+        return kind >= PredecodedInstruction.FMADD_S && kind <= PredecodedInstruction.FCVT_D_S;
+    }
+
+    // FP loads and stores take their address from rs1, FCVT.*.W* and FMV.W.X their value
+    private static boolean readsInteger(int kind) {
+        return kind <= PredecodedInstruction.FSD || kind >= PredecodedInstruction.FCVT_S_W;
+    }
+
+    // Whether rd names an integer register, which FP loads and FP results do not
+    private static boolean writesInteger(int kind) {
+        return kind < PredecodedInstruction.FLW
+                || kind >= PredecodedInstruction.FCVT_W_S && kind < PredecodedInstruction.FCVT_S_W;
+    }
+
+    /**
+     * Emits one instruction; returns true if it ends the generated method.
+     */
+    private boolean emit(PredecodedInstruction in, int address) {
+        int next = address + in.size;
+        switch (in.kind) {
+            case PredecodedInstruction.NOP:
+                return false;
+            case PredecodedInstruction.ADD:
+                return binary(in, ClassFileWriter.Code.IADD);
+            case PredecodedInstruction.SUB:
+                return binary(in, ClassFileWriter.Code.ISUB);
+            case PredecodedInstruction.SLL: // JVM shifts mask the count to 5 bits like RV32I
+                return binary(in, ClassFileWriter.Code.ISHL);
+            case PredecodedInstruction.SRL:
+                return binary(in, ClassFileWriter.Code.IUSHR);
+            case PredecodedInstruction.SRA:
+                return binary(in, ClassFileWriter.Code.ISHR);
+            case PredecodedInstruction.XOR:
+                return binary(in, ClassFileWriter.Code.IXOR);
+            case PredecodedInstruction.OR:
+                return binary(in, ClassFileWriter.Code.IOR);
+            case PredecodedInstruction.AND:
+                return binary(in, ClassFileWriter.Code.IAND);
+            case PredecodedInstruction.MUL:
+                return binary(in, ClassFileWriter.Code.IMUL);
+            case PredecodedInstruction.MULH:
+                return call(in, CPU, "mulh");
+            case PredecodedInstruction.MULHSU:
+                return call(in, CPU, "mulhsu");
+            case PredecodedInstruction.MULHU:
+                return call(in, CPU, "mulhu");
+            case PredecodedInstruction.DIV:
+                return call(in, CPU, "div");
+            case PredecodedInstruction.DIVU:
+                return call(in, CPU, "divu");
+            case PredecodedInstruction.REM:
+                return call(in, CPU, "rem");
+            case PredecodedInstruction.REMU:
+                return call(in, CPU, "remu");
+
+            case PredecodedInstruction.ANDN:
+            case PredecodedInstruction.ORN:
+                readReg(in.rs1);
+                readReg(in.rs2);
+                code.iconst(-1);
+                code.op(ClassFileWriter.Code.IXOR);
+                code.op(in.kind == PredecodedInstruction.ANDN ? ClassFileWriter.Code.IAND : ClassFileWriter.Code.IOR);
+                writeReg(in.rd);
+                return false;
+            case PredecodedInstruction.XNOR:
+                readReg(in.rs1);
+                readReg(in.rs2);
+                code.op(ClassFileWriter.Code.IXOR);
+                code.iconst(-1);
+                code.op(ClassFileWriter.Code.IXOR);
+                writeReg(in.rd);
+                return false;
+            case PredecodedInstruction.MIN:
+                return call(in, MATH, "min");
+            case PredecodedInstruction.MINU:
+                return call(in, CPU, "minu");
+            case PredecodedInstruction.MAX:
+                return call(in, MATH, "max");
+            case PredecodedInstruction.MAXU:
+                return call(in, CPU, "maxu");
+            case PredecodedInstruction.ROL:
+                return call(in, INTEGER, "rotateLeft");
+            case PredecodedInstruction.ROR:
+                return call(in, INTEGER, "rotateRight");
+            case PredecodedInstruction.RORI:
+                readReg(in.rs1);
+                code.iconst(in.imm);
+                code.invokestatic(INTEGER, "rotateRight", "(II)I");
+                writeReg(in.rd);
+                return false;
+            case PredecodedInstruction.CLZ:
+                return unaryCall(in, INTEGER, "numberOfLeadingZeros");
+            case PredecodedInstruction.CTZ:
+                return unaryCall(in, INTEGER, "numberOfTrailingZeros");
+            case PredecodedInstruction.CPOP:
+                return unaryCall(in, INTEGER, "bitCount");
+            case PredecodedInstruction.REV8:
+                return unaryCall(in, INTEGER, "reverseBytes");
+            case PredecodedInstruction.ORC_B:
+                return unaryCall(in, CPU, "orcB");
+            case PredecodedInstruction.SEXT_B:
+                readReg(in.rs1);
+                code.op(ClassFileWriter.Code.I2B);
+                writeReg(in.rd);
+                return false;
+            case PredecodedInstruction.SEXT_H:
+                readReg(in.rs1);
+                code.op(ClassFileWriter.Code.I2S);
+                writeReg(in.rd);
+                return false;
+            case PredecodedInstruction.ZEXT_H:
+                readReg(in.rs1);
+                code.iconst(0xFFFF);
+                code.op(ClassFileWriter.Code.IAND);
+                writeReg(in.rd);
+                return false;
+            case PredecodedInstruction.SLT:
+                readReg(in.rs1);
+                readReg(in.rs2);
+                setIf(ClassFileWriter.Code.IF_ICMPLT, in.rd);
+                return false;
+            case PredecodedInstruction.SLTU:
+                readUnsigned(in.rs1);
+                readUnsigned(in.rs2);
+                setIf(ClassFileWriter.Code.IF_ICMPLT, in.rd);
+                return false;
+            case PredecodedInstruction.ADDI:
+                return immediate(in, ClassFileWriter.Code.IADD);
+            case PredecodedInstruction.XORI:
+                return immediate(in, ClassFileWriter.Code.IXOR);
+            case PredecodedInstruction.ORI:
+                return immediate(in, ClassFileWriter.Code.IOR);
+            case PredecodedInstruction.ANDI:
+                return immediate(in, ClassFileWriter.Code.IAND);
+            case PredecodedInstruction.SLLI:
+                return immediate(in, ClassFileWriter.Code.ISHL);
+            case PredecodedInstruction.SRLI:
+                return immediate(in, ClassFileWriter.Code.IUSHR);
+            case PredecodedInstruction.SRAI:
+                return immediate(in, ClassFileWriter.Code.ISHR);
+            case PredecodedInstruction.SLTI:
+                readReg(in.rs1);
+                code.iconst(in.imm);
+                setIf(ClassFileWriter.Code.IF_ICMPLT, in.rd);
+                return false;
+            case PredecodedInstruction.SLTIU:
+                readUnsigned(in.rs1);
+                code.iconst(in.imm ^ Integer.MIN_VALUE);
+                setIf(ClassFileWriter.Code.IF_ICMPLT, in.rd);
+                return false;
+            case PredecodedInstruction.LUI:
+            case PredecodedInstruction.AUIPC:
+                code.iconst(in.imm);
+                writeReg(in.rd);
+                return false;
+
+            case PredecodedInstruction.LB:
+            case PredecodedInstruction.LH:
+            case PredecodedInstruction.LW:
+            case PredecodedInstruction.LBU:
+            case PredecodedInstruction.LHU:
+                // x[rd] = cpu.load(kind, x[rs1] + imm)
+                beforeFaultingCall(next);
+                code.aload(LOCAL_CPU);
+                code.iconst(in.kind);
+                readReg(in.rs1);
+                code.iconst(in.imm);
+                code.op(ClassFileWriter.Code.IADD);
+                code.invokevirtual(CPU, "load", "(II)I");
+                if (in.rd == 0) {
+                    code.op(ClassFileWriter.Code.POP);
+                } else {
+                    writeReg(in.rd);
+                }
+                return false;
+
+            case PredecodedInstruction.SB:
+            case PredecodedInstruction.SH:
+            case PredecodedInstruction.SW:
+                // cpu.store(kind, x[rs1] + imm, x[rs2])
+                beforeFaultingCall(next);
+                code.aload(LOCAL_CPU);
+                code.iconst(in.kind);
+                readReg(in.rs1);
+                code.iconst(in.imm);
+                code.op(ClassFileWriter.Code.IADD);
+                readReg(in.rs2);
+                code.invokevirtual(CPU, "store", "(III)V");
+                return false;
+
+            case PredecodedInstruction.FLW:
+            case PredecodedInstruction.FLD:
+            case PredecodedInstruction.FSW:
+            case PredecodedInstruction.FSD:
+                // cpu.loadFloat(kind, rd, x[rs1] + imm) or cpu.storeFloat(kind, rs2, x[rs1] + imm)
+                boolean load = in.kind <= PredecodedInstruction.FLD;
+                beforeFaultingCall(next);
+                code.aload(LOCAL_CPU);
+                code.iconst(in.kind);
+                code.iconst(load ? in.rd : in.rs2);
+                readReg(in.rs1);
+                code.iconst(in.imm);
+                code.op(ClassFileWriter.Code.IADD);
+                code.invokevirtual(CPU, load ? "loadFloat" : "storeFloat", "(III)V");
+                return false;
+
+            case PredecodedInstruction.BEQ:
+                return branch(in, ClassFileWriter.Code.IF_ICMPEQ, false, next);
+            case PredecodedInstruction.BNE:
+                return branch(in, ClassFileWriter.Code.IF_ICMPNE, false, next);
+            case PredecodedInstruction.BLT:
+                return branch(in, ClassFileWriter.Code.IF_ICMPLT, false, next);
+            case PredecodedInstruction.BGE:
+                return branch(in, ClassFileWriter.Code.IF_ICMPGE, false, next);
+            case PredecodedInstruction.BLTU:
+                return branch(in, ClassFileWriter.Code.IF_ICMPLT, true, next);
+            case PredecodedInstruction.BGEU:
+                return branch(in, ClassFileWriter.Code.IF_ICMPGE, true, next);
+
+            case PredecodedInstruction.JAL:
+                if (in.rd != 0) {
+                    code.iconst(next);
+                    writeReg(in.rd);
+                }
+                writeBack();
+                setPc(in.imm);
+                code.op(ClassFileWriter.Code.RETURN);
+                return true;
+
+            case PredecodedInstruction.JALR:
+                // Target first, rd may be the same register as rs1
+                readReg(in.rs1);
+                code.iconst(in.imm);
+                code.op(ClassFileWriter.Code.IADD);
+                code.iconst(~1);
+                code.op(ClassFileWriter.Code.IAND);
+                code.istore(LOCAL_TEMP);
+                if (in.rd != 0) {
+                    code.iconst(next);
+                    writeReg(in.rd);
+                }
+                writeBack();
+                code.aload(LOCAL_CPU);
+                code.iload(LOCAL_TEMP);
+                code.putfield(CPU, "pc", "I");
+                code.op(ClassFileWriter.Code.RETURN);
+                return true;
+
+            default:
+                if (in.kind >= PredecodedInstruction.FMADD_S) {
+                    return floatOperation(in);
+                }
+                throw new IllegalArgumentException("Unsupported instruction kind " + in.kind);
+        }
+    }
+
+    private boolean binary(PredecodedInstruction in, int opcode) {
+        readReg(in.rs1);
+        readReg(in.rs2);
+        code.op(opcode);
+        writeReg(in.rd);
+        return false;
+    }
+
+    // Static (II)I method, a JDK intrinsic or a helper small enough to inline
+    private boolean call(PredecodedInstruction in, String owner, String name) {
+        readReg(in.rs1);
+        readReg(in.rs2);
+        code.invokestatic(owner, name, "(II)I");
+        writeReg(in.rd);
+        return false;
+    }
+
+    private boolean unaryCall(PredecodedInstruction in, String owner, String name) {
+        readReg(in.rs1);
+        code.invokestatic(owner, name, "(I)I");
+        writeReg(in.rd);
+        return false;
+    }
+
+    // FP register state stays in cpu.fpu, so these are plain calls with constant operands
+    private boolean floatOperation(PredecodedInstruction in) {
+        code.aload(LOCAL_CPU);
+        code.getfield(CPU, "fpu", "L" + FPU + ";");
+        code.iconst(in.kind);
+        if (isFloatCompute(in.kind)) {
+            code.iconst(in.rd);
+            code.iconst(in.rs1);
+            code.iconst(in.rs2);
+            code.iconst(in.imm);
+            code.invokevirtual(FPU, "compute", "(IIIII)V");
+        } else if (writesInteger(in.kind)) {
+            code.iconst(in.rs1);
+            code.iconst(in.rs2);
+            code.iconst(in.imm);
+            code.invokevirtual(FPU, "toInteger", "(IIII)I");
+            if (in.rd == 0) {
+                code.op(ClassFileWriter.Code.POP);
+            } else {
+                writeReg(in.rd);
+            }
+        } else {
+            code.iconst(in.rd);
+            readReg(in.rs1);
+            code.iconst(in.imm);
+            code.invokevirtual(FPU, "fromInteger", "(IIII)V");
+        }
+        return false;
+    }
+
+    private boolean immediate(PredecodedInstruction in, int opcode) {
+        readReg(in.rs1);
+        code.iconst(in.imm);
+        code.op(opcode);
+        writeReg(in.rd);
+        return false;
+    }
+
+    // Pushes 1 or 0 for the comparison of the two values on the stack, then stores it
+    private void setIf(int compare, int rd) {
+        ClassFileWriter.Label isTrue = code.newLabel();
+        ClassFileWriter.Label done = code.newLabel();
+        code.jump(compare, isTrue);
+        code.iconst(0);
+        code.jump(ClassFileWriter.Code.GOTO, done);
+        code.place(isTrue);
+        code.iconst(1);
+        code.place(done);
+        writeReg(rd);
+    }
+
+    private boolean branch(PredecodedInstruction in, int compare, boolean unsigned, int next) {
+        writeBack();
+        if (unsigned) {
+            readUnsigned(in.rs1);
+            readUnsigned(in.rs2);
+        } else {
+            readReg(in.rs1);
+            readReg(in.rs2);
+        }
+        ClassFileWriter.Label taken = code.newLabel();
+        code.jump(compare, taken);
+        setPc(next);
+        code.op(ClassFileWriter.Code.RETURN);
+        code.place(taken);
+        setPc(in.imm);
+        code.op(ClassFileWriter.Code.RETURN);
+        return true;
+    }
+
+    private void readReg(int reg) {
+        if (reg == 0) {
+            code.iconst(0);
+        } else {
+            code.iload(LOCAL_REG_BASE + reg);
+        }
+    }
+
+    // Flipping the sign bit turns an unsigned comparison into a signed one
+    private void readUnsigned(int reg) {
+        readReg(reg);
+        code.iconst(Integer.MIN_VALUE);
+        code.op(ClassFileWriter.Code.IXOR);
+    }
+
+    private void writeReg(int reg) {
+        code.istore(LOCAL_REG_BASE + reg);
+        dirty[reg] = true;
+    }
+
+    private void writeBack() {
+        for (int reg = 1; reg < 32; reg++) {
+            if (dirty[reg]) {
+                code.aload(LOCAL_X);
+                code.iconst(reg);
+                code.iload(LOCAL_REG_BASE + reg);
+                code.op(ClassFileWriter.Code.IASTORE);
+                dirty[reg] = false;
+            }
+        }
+    }
+
+    private void setPc(int value) {
+        code.aload(LOCAL_CPU);
+        code.iconst(value);
+        code.putfield(CPU, "pc", "I");
+    }
+
+    // Makes the architectural state exact in case the following call faults
+    private void beforeFaultingCall(int next) {
+        writeBack();
+        setPc(next);
+    }
+}
@@ -0,0 +1,58 @@
+package cse311;
+
+/**
+ * Backing store for guest memory as seen by {@link MemoryManager}.
+ */
+public interface Memory {
+    byte readByte(int address) throws MemoryAccessException;
+
+    short readHalfWord(int address) throws MemoryAccessException;
+
+    int readWord(int address) throws MemoryAccessException;
+
+    void writeByte(int address, byte value) throws MemoryAccessException;
+
+    void writeHalfWord(int address, short value) throws MemoryAccessException;
+
+    void writeWord(int address, int value) throws MemoryAccessException;
+
+    /**
+     * Atomically replaces the word at an aligned address if it equals
+     * expected, with volatile semantics. Returns the value found there.
+     */
+    int compareAndExchangeWord(int address, int expected, int value) throws MemoryAccessException;
+
+    /**
+     * Bulk operations for the host-side memcpy, memset and strlen. Ranges
+     * are checked once per call and may overlap for copy.
+     */
+    void copy(int source, int destination, int length) throws MemoryAccessException;
+
+    void fill(int address, int length, byte value) throws MemoryAccessException;
+
+    /**
+     * Copies length bytes of data, starting at offset, to address.
+     */
+    void write(int address, byte[] data, int offset, int length) throws MemoryAccessException;
+
+    /**
+     * Offset of the first byte equal to value in [address, address + length), or -1.
+     */
+    int indexOf(int address, int length, byte value) throws MemoryAccessException;
+
+    int getSize();
+
+    void clear();
+
+    String dumpMemory(int startAddress, int length) throws MemoryAccessException;
+
+    /**
+     * Initialize a region of memory with given bytes
+     */
+    void initializeMemory(int startAddress, byte[] data);
+
+    /**
+     * Flat byte view of the whole memory
+     */
+    byte[] getMemory();
+}
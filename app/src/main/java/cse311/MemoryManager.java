@@ -1,8 +1,19 @@
 package cse311;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.IntBinaryOperator;
+
 public class MemoryManager {
-    private SimpleMemory memory;
+    private Memory memory;
     private Uart uart;
+    private final Clint clint = new Clint();
+    private final Plic plic = new Plic();
 
     // Memory layout constants
     public static final int TEXT_START = 0x10000;
@@ -18,14 +29,63 @@ public class MemoryManager {
     public static final int UART_STATUS = UART_BASE + 0x8; // Status register
     public static final int UART_CONTROL = UART_BASE + 0xC;
 
+    // Timer and software interrupts, see Clint for the register layout
+    public static final int CLINT_BASE = 0x11000000;
+    private static final int CLINT_SIZE = 0x10000;
+    // External interrupts, see Plic for the register layout
+    public static final int PLIC_BASE = 0x0C000000;
+    private static final int PLIC_SIZE = 0x400000;
+
     private int heapPtr;
     private int stackPtr;
 
-    public MemoryManager(SimpleMemory memory) {
+    // Guest addresses at and above this base alias RAM from TEXT_START upwards
+    public static final int RAM_ALIAS_BASE = 0x80000000;
+
+    static final int PAGE_SHIFT = 12;
+    static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private static final int OFFSET_MASK = PAGE_SIZE - 1;
+
+    // One entry per 4 KB guest page, kind in the lower bits. RAM pages keep the
+    // backing page base in the upper bits, device pages an index into devices.
+    private static final int PAGE_RAM = 1;
+    private static final int PAGE_DEVICE = 2;
+    private static final int KIND_MASK = 3;
+    // RAM pages can give up permissions, see protect. Masking an entry with
+    // the kind and the bit an access needs leaves PAGE_RAM if it may proceed.
+    private static final int PAGE_NO_READ = 4;
+    private static final int PAGE_NO_WRITE = 8;
+    private static final int PAGE_NO_EXEC = 16;
+    private static final int READ_MASK = KIND_MASK | PAGE_NO_READ;
+    private static final int WRITE_MASK = KIND_MASK | PAGE_NO_WRITE;
+    private static final int EXEC_MASK = KIND_MASK | PAGE_NO_EXEC;
+    private final int[] pageTable = new int[1 << (32 - PAGE_SHIFT)];
+    private final List<DeviceRegion> devices = new ArrayList<>();
+
+    // One bit per 4 KB physical page that holds decoded code, checked on every store,
+    // and the guest pages the code was decoded through, which caches are keyed by
+    private final long[] codePages = new long[1 << (32 - PAGE_SHIFT - 6)];
+    private final Map<Integer, Set<Integer>> codeAliases = new HashMap<>();
+    private final List<CodeWriteListener> codeWriteListeners = new CopyOnWriteArrayList<>();
+
+    public MemoryManager(Memory memory) {
+        this(memory, new Uart());
+    }
+
+    public MemoryManager(Memory memory, Uart uart) {
         this.memory = memory;
         this.heapPtr = HEAP_START;
         this.stackPtr = STACK_START;
-        this.uart = new Uart();
+        this.uart = uart;
+
+        // Default map: RAM at its own address, the same RAM again at RAM_ALIAS_BASE, then the devices
+        int ramSize = (memory.getSize() - TEXT_START) & ~OFFSET_MASK;
+        mapRam(TEXT_START, TEXT_START, ramSize);
+        mapRam(RAM_ALIAS_BASE, TEXT_START, ramSize);
+        addDevice(UART_BASE, 0x1000, uart);
+        addDevice(CLINT_BASE, CLINT_SIZE, clint);
+        addDevice(PLIC_BASE, PLIC_SIZE, plic);
+        uart.connect(plic, Plic.UART_SOURCE);
     }
 
     public void loadProgram(byte[] program) throws MemoryAccessException {
@@ -51,73 +111,361 @@ public class MemoryManager {
         return allocated;
     }
 
-    // Memory access methods
-    public byte readByte(int address) throws MemoryAccessException {
-        if (address >= UART_BASE && address < UART_BASE + 0x1000) {
+    // Address translation
 
-            return (byte) uart.read(address);
+    /**
+     * Maps guest pages starting at virtualAddress onto RAM starting at
+     * physicalAddress, replacing whatever was mapped there before. Both
+     * addresses must be page aligned.
+     */
+    public final void mapRam(int virtualAddress, int physicalAddress, int length) {
+        checkMapping(virtualAddress, physicalAddress, length);
+        if (Integer.toUnsignedLong(physicalAddress) + length > memory.getSize()) {
+            throw new IllegalArgumentException(String.format(
+                    "RAM mapping 0x%08X+0x%X exceeds memory size", physicalAddress, length));
+        }
+        int first = virtualAddress >>> PAGE_SHIFT;
+        int pages = pageCount(length);
+        for (int i = 0; i < pages; i++) {
+            pageTable[first + i] = (physicalAddress + (i << PAGE_SHIFT)) | PAGE_RAM;
         }
-        validateAccess(address);
-        return memory.readByte(address);
     }
 
-    public short readHalfWord(int address) throws MemoryAccessException {
-        if (address >= UART_BASE && address < UART_BASE + 0x1000) {
+    /**
+     * Routes guest accesses to [base, base + length) to the device. The range
+     * must start on a page boundary and is rounded up to whole pages.
+     */
+    public final void addDevice(int base, int length, Device device) {
+        checkMapping(base, 0, length);
+        int entry = (devices.size() << PAGE_SHIFT) | PAGE_DEVICE;
+        devices.add(new DeviceRegion(base, device));
+        int first = base >>> PAGE_SHIFT;
+        int pages = pageCount(length);
+        for (int i = 0; i < pages; i++) {
+            pageTable[first + i] = entry;
+        }
+    }
+
+    /**
+     * Sets the permissions of the RAM pages covering [virtualAddress,
+     * virtualAddress + length). Pages start out with all three, and mapping
+     * them again restores that. A denied access fails like an access to an
+     * unmapped page.
+     */
+    public void protect(int virtualAddress, int length, boolean read, boolean write, boolean execute)
+            throws MemoryAccessException {
+        checkRam(virtualAddress, length, KIND_MASK);
+        int bits = (read ? 0 : PAGE_NO_READ) | (write ? 0 : PAGE_NO_WRITE) | (execute ? 0 : PAGE_NO_EXEC);
+        if (length == 0) {
+            return;
+        }
+        int last = (virtualAddress + length - 1) >>> PAGE_SHIFT;
+        for (int page = virtualAddress >>> PAGE_SHIFT; page <= last; page++) {
+            pageTable[page] = (pageTable[page] & ~(READ_MASK | WRITE_MASK | EXEC_MASK)) | PAGE_RAM | bits;
+        }
+    }
+
+    public void unmap(int virtualAddress, int length) {
+        checkMapping(virtualAddress, 0, length);
+        int first = virtualAddress >>> PAGE_SHIFT;
+        int pages = pageCount(length);
+        for (int i = 0; i < pages; i++) {
+            pageTable[first + i] = 0;
+        }
+    }
+
+    /**
+     * Physical RAM address behind a guest address, whatever the page's
+     * permissions.
+     */
+    public int translate(int address) throws MemoryAccessException {
+        return translate(address, KIND_MASK);
+    }
+
+    private int translate(int address, int mask) throws MemoryAccessException {
+        int entry = pageTable[address >>> PAGE_SHIFT];
+        if ((entry & mask) != PAGE_RAM) {
+            throw accessFault(address, entry);
+        }
+        return (entry & ~OFFSET_MASK) | (address & OFFSET_MASK);
+    }
 
-            return (short) uart.read(address);
+    private static void checkMapping(int virtualAddress, int physicalAddress, int length) {
+        if (((virtualAddress | physicalAddress) & OFFSET_MASK) != 0 || length < 0
+                || Integer.toUnsignedLong(virtualAddress) + length > 1L << 32) {
+            throw new IllegalArgumentException(String.format(
+                    "Invalid mapping 0x%08X -> 0x%08X, length 0x%X", virtualAddress, physicalAddress, length));
         }
-        validateAccess(address);
-        validateAccess(address + 1);
-        return memory.readHalfWord(address);
+    }
+
+    private static int pageCount(int length) {
+        return (int) ((length + (long) OFFSET_MASK) >>> PAGE_SHIFT);
+    }
+
+    // Memory access methods, RAM pages take a single table lookup
+    public byte readByte(int address) throws MemoryAccessException {
+        int entry = pageTable[address >>> PAGE_SHIFT];
+        if ((entry & READ_MASK) == PAGE_RAM) {
+            return memory.readByte((entry & ~OFFSET_MASK) | (address & OFFSET_MASK));
+        }
+        return (byte) readDevice(address, entry, 1);
+    }
+
+    public short readHalfWord(int address) throws MemoryAccessException {
+        int entry = pageTable[address >>> PAGE_SHIFT];
+        if ((entry & READ_MASK) == PAGE_RAM) {
+            return memory.readHalfWord((entry & ~OFFSET_MASK) | (address & OFFSET_MASK));
+        }
+        return (short) readDevice(address, entry, 2);
     }
 
     public int readWord(int address) throws MemoryAccessException {
-        if (address >= UART_BASE && address < UART_BASE + 0x1000) {
-            return (int) uart.read(address);
+        int entry = pageTable[address >>> PAGE_SHIFT];
+        if ((entry & READ_MASK) == PAGE_RAM) {
+            return memory.readWord((entry & ~OFFSET_MASK) | (address & OFFSET_MASK));
         }
-        validateAccess(address);
-        validateAccess(address + 3);
-        return memory.readWord(address);
+        return readDevice(address, entry, 4);
+    }
+
+    // Instruction fetch, only RAM pages are executable
+    public int fetchWord(int address) throws MemoryAccessException {
+        return memory.readWord(translate(address, EXEC_MASK));
+    }
+
+    // Instructions are only 2-byte aligned once RV32C is in play
+    public int fetchHalfWord(int address) throws MemoryAccessException {
+        return memory.readHalfWord(translate(address, EXEC_MASK)) & 0xFFFF;
     }
 
     public void writeByte(int address, byte value) throws MemoryAccessException {
-        if (address >= UART_BASE && address < UART_BASE + 0x1000) {
-            uart.write(address, value);
+        int entry = pageTable[address >>> PAGE_SHIFT];
+        if ((entry & WRITE_MASK) == PAGE_RAM) {
+            int physical = (entry & ~OFFSET_MASK) | (address & OFFSET_MASK);
+            checkCodeWrite(physical);
+            memory.writeByte(physical, value);
             return;
         }
-        validateAccess(address);
-        validateWriteAccess(address);
-        memory.writeByte(address, value);
+        writeDevice(address, entry, 1, value);
     }
 
     public void writeHalfWord(int address, short value) throws MemoryAccessException {
-        if (address >= UART_BASE && address < UART_BASE + 0x1000) {
-
-            uart.write(address, value);
+        int entry = pageTable[address >>> PAGE_SHIFT];
+        if ((entry & WRITE_MASK) == PAGE_RAM) {
+            int physical = (entry & ~OFFSET_MASK) | (address & OFFSET_MASK);
+            checkCodeWrite(physical);
+            memory.writeHalfWord(physical, value);
             return;
         }
-        validateAccess(address);
-        validateAccess(address + 1);
-        validateWriteAccess(address);
-        memory.writeHalfWord(address, value);
+        writeDevice(address, entry, 2, value);
     }
 
     public void writeWord(int address, int value) throws MemoryAccessException {
-        if (address >= UART_BASE && address < UART_BASE + 0x1000) {
+        int entry = pageTable[address >>> PAGE_SHIFT];
+        if ((entry & WRITE_MASK) == PAGE_RAM) {
+            int physical = (entry & ~OFFSET_MASK) | (address & OFFSET_MASK);
+            checkCodeWrite(physical);
+            memory.writeWord(physical, value);
+            return;
+        }
+        writeDevice(address, entry, 4, value);
+    }
+
+    // Atomic memory operations, only on RAM and with volatile semantics
+
+    public int compareAndExchangeWord(int address, int expected, int value) throws MemoryAccessException {
+        int physical = translate(address, READ_MASK | WRITE_MASK);
+        checkCodeWrite(physical);
+        return memory.compareAndExchangeWord(physical, expected, value);
+    }
+
+    // Applies op(old, operand) atomically and returns the old value
+    public int getAndUpdateWord(int address, IntBinaryOperator op, int operand) throws MemoryAccessException {
+        int physical = translate(address, READ_MASK | WRITE_MASK);
+        checkCodeWrite(physical);
+        int current = memory.readWord(physical);
+        while (true) {
+            int witness = memory.compareAndExchangeWord(physical, current, op.applyAsInt(current, operand));
+            if (witness == current) {
+                return current;
+            }
+            current = witness;
+        }
+    }
+
+    // Bulk operations behind the memcpy, memset and strlen hypercalls. The
+    // whole guest range is checked up front, then each page is handed to the
+    // backing memory in one piece.
 
-            uart.write(address, value);
+    /**
+     * Copies length bytes from source to destination with memmove semantics.
+     */
+    public void copy(int destination, int source, int length) throws MemoryAccessException {
+        checkRam(source, length, READ_MASK);
+        checkRam(destination, length, WRITE_MASK);
+        boolean backwards = destination != source && Integer.compareUnsigned(destination - source, length) < 0;
+        int done = 0;
+        while (done < length) {
+            int remaining = length - done;
+            int from;
+            int to;
+            int chunk;
+            if (backwards) {
+                int fromEnd = source + remaining;
+                int toEnd = destination + remaining;
+                chunk = Math.min(remaining, Math.min(((fromEnd - 1) & OFFSET_MASK) + 1, ((toEnd - 1) & OFFSET_MASK) + 1));
+                from = fromEnd - chunk;
+                to = toEnd - chunk;
+            } else {
+                from = source + done;
+                to = destination + done;
+                chunk = Math.min(remaining, Math.min(PAGE_SIZE - (from & OFFSET_MASK), PAGE_SIZE - (to & OFFSET_MASK)));
+            }
+            int physical = translate(to);
+            checkCodeWrite(physical);
+            memory.copy(translate(from), physical, chunk);
+            done += chunk;
+        }
+    }
+
+    public void fill(int address, int length, byte value) throws MemoryAccessException {
+        checkRam(address, length, WRITE_MASK);
+        int done = 0;
+        while (done < length) {
+            int at = address + done;
+            int chunk = Math.min(length - done, PAGE_SIZE - (at & OFFSET_MASK));
+            int physical = translate(at);
+            checkCodeWrite(physical);
+            memory.fill(physical, chunk, value);
+            done += chunk;
+        }
+    }
+
+    /**
+     * Length of the NUL-terminated string at address. Running into a page
+     * that is not RAM before the terminator is an access error.
+     */
+    public int stringLength(int address) throws MemoryAccessException {
+        int length = 0;
+        while (true) {
+            int at = address + length;
+            int chunk = PAGE_SIZE - (at & OFFSET_MASK);
+            int found = memory.indexOf(translate(at, READ_MASK), chunk, (byte) 0);
+            if (found >= 0) {
+                return length + found;
+            }
+            length += chunk;
+            if (length < 0) {
+                throw invalidAccess(address);
+            }
+        }
+    }
+
+    /**
+     * Copies length bytes of data, starting at offset, to the guest range at
+     * address, as the ELF loader places a segment.
+     */
+    public void write(int address, byte[] data, int offset, int length) throws MemoryAccessException {
+        checkRam(address, length, WRITE_MASK);
+        int done = 0;
+        while (done < length) {
+            int at = address + done;
+            int chunk = Math.min(length - done, PAGE_SIZE - (at & OFFSET_MASK));
+            int physical = translate(at);
+            checkCodeWrite(physical);
+            memory.write(physical, data, offset + done, chunk);
+            done += chunk;
+        }
+    }
+
+    private void checkRam(int address, int length, int mask) throws MemoryAccessException {
+        if (length < 0 || Integer.toUnsignedLong(address) + length > 1L << 32) {
+            throw invalidAccess(address);
+        }
+        if (length == 0) {
             return;
         }
-        validateAccess(address);
-        validateAccess(address + 3);
-        // validateWriteAccess(address);
-        memory.writeWord(address, value);
+        int last = (address + length - 1) >>> PAGE_SHIFT;
+        for (int page = address >>> PAGE_SHIFT; page <= last; page++) {
+            if ((pageTable[page] & mask) != PAGE_RAM) {
+                throw accessFault(page << PAGE_SHIFT, pageTable[page]);
+            }
+        }
+    }
+
+    private int readDevice(int address, int entry, int size) throws MemoryAccessException {
+        DeviceRegion region = deviceAt(address, entry);
+        return region.device.read(address - region.base, size);
+    }
+
+    private void writeDevice(int address, int entry, int size, int value) throws MemoryAccessException {
+        DeviceRegion region = deviceAt(address, entry);
+        region.device.write(address - region.base, size, value);
+    }
+
+    // Also where RAM accesses end up that their page does not permit
+    private DeviceRegion deviceAt(int address, int entry) throws MemoryAccessException {
+        if ((entry & KIND_MASK) != PAGE_DEVICE) {
+            throw accessFault(address, entry);
+        }
+        return devices.get(entry >>> PAGE_SHIFT);
+    }
+
+    private static final class DeviceRegion {
+        final int base;
+        final Device device;
+
+        DeviceRegion(int base, Device device) {
+            this.base = base;
+            this.device = device;
+        }
+    }
+
+    private static MemoryAccessException invalidAccess(int address) {
+        return new MemoryAccessException("Invalid memory access: " +
+                String.format("0x%08X", address));
+    }
+
+    private static MemoryAccessException accessFault(int address, int entry) {
+        if ((entry & KIND_MASK) == PAGE_RAM) {
+            return new MemoryAccessException(String.format("Access not permitted: 0x%08X", address));
+        }
+        return invalidAccess(address);
     }
 
-    // Special method for ELF loading
-    public void writeByteToText(int address, byte value) throws MemoryAccessException {
-        validateAccess(address); // Only check address range, not write protection
-        memory.writeByte(address, value);
+    // Self-modifying code support
+    public void addCodeWriteListener(CodeWriteListener listener) {
+        codeWriteListeners.add(listener);
+    }
+
+    // Code pages are tracked physically, so a store through any mapping of
+    // the page is seen, and reported as every guest page code ran from there
+    public void markCodePage(int address) throws MemoryAccessException {
+        int page = translate(address) >>> PAGE_SHIFT;
+        synchronized (codePages) {
+            codePages[page >>> 6] |= 1L << page;
+            codeAliases.computeIfAbsent(page, key -> new HashSet<>()).add(address >>> PAGE_SHIFT);
+        }
+    }
+
+    private void checkCodeWrite(int address) {
+        int page = address >>> PAGE_SHIFT;
+        if ((codePages[page >>> 6] & (1L << page)) != 0) {
+            // Cleared here and set again once the page is decoded anew; harts
+            // may race on the word, so updates to it are serialised
+            Set<Integer> aliases;
+            synchronized (codePages) {
+                if ((codePages[page >>> 6] & (1L << page)) == 0) {
+                    return;
+                }
+                codePages[page >>> 6] &= ~(1L << page);
+                aliases = codeAliases.remove(page);
+            }
+            for (int alias : aliases) {
+                for (CodeWriteListener listener : codeWriteListeners) {
+                    listener.codeWritten(alias);
+                }
+            }
+        }
     }
 
     // Stack operations
@@ -152,21 +500,6 @@ public class MemoryManager {
         stackPtr = STACK_START;
     }
 
-    // Validation methods
-    private void validateAccess(int address) throws MemoryAccessException {
-        if (address < TEXT_START || address > STACK_START) {
-            throw new MemoryAccessException("Invalid memory access: " +
-                    String.format("0x%08X", address));
-        }
-    }
-
-    private void validateWriteAccess(int address) throws MemoryAccessException {
-        if (address >= (DATA_START + 0x1000000)) {
-            throw new MemoryAccessException("Cannot write to data segment: " +
-                    String.format("0x%08X", address));
-        }
-    }
-
     // Debug utilities
     public String getMemoryMap() {
         StringBuilder sb = new StringBuilder();
@@ -190,7 +523,20 @@ public class MemoryManager {
         return memory.getMemory();
     }
 
-    public void getInput(String data) {
+    public Uart getUart() {
+        return uart;
+    }
+
+    public Clint getClint() {
+        return clint;
+    }
+
+    public Plic getPlic() {
+        return plic;
+    }
+
+    // Blocks while the UART receive queue is full
+    public void getInput(String data) throws InterruptedException {
         uart.receiveDatas(data.getBytes());
     }
 }
@@ -0,0 +1,276 @@
+package cse311;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+
+/**
+ * Guest memory split into 4 KB pages that are only allocated on the first
+ * write. Reads from a page that was never written return zero, so a machine
+ * costs heap only for the memory its guest actually touches.
+ */
+class PagedMemory implements Memory {
+    static final int PAGE_SHIFT = 12;
+    static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private static final int OFFSET_MASK = PAGE_SIZE - 1;
+
+    // Memory alignment constants
+    private static final int HALF_WORD_ALIGN = 2;
+    private static final int WORD_ALIGN = 4;
+
+    private final int size;
+    // Pages are installed with a CAS so harts racing on a fresh page share one
+    private final byte[][] pages;
+    private static final VarHandle PAGES = MethodHandles.arrayElementVarHandle(byte[][].class);
+
+    public PagedMemory() {
+        this(128 * 1024 * 1024);
+    }
+
+    public PagedMemory(int memSize) {
+        size = memSize;
+        pages = new byte[(int) (((long) memSize + PAGE_SIZE - 1) >>> PAGE_SHIFT)][];
+    }
+
+    private byte[] pageForWrite(int address) {
+        byte[] page = pages[address >>> PAGE_SHIFT];
+        if (page == null) {
+            byte[] fresh = new byte[PAGE_SIZE];
+            page = (byte[]) PAGES.compareAndExchange(pages, address >>> PAGE_SHIFT, (byte[]) null, fresh);
+            if (page == null) {
+                page = fresh;
+            }
+        }
+        return page;
+    }
+
+    @Override
+    public byte readByte(int address) throws MemoryAccessException {
+        checkAccess(address, 1);
+        byte[] page = pages[address >>> PAGE_SHIFT];
+        return page == null ? 0 : page[address & OFFSET_MASK];
+    }
+
+    @Override
+    public void writeByte(int address, byte value) throws MemoryAccessException {
+        checkAccess(address, 1);
+        pageForWrite(address)[address & OFFSET_MASK] = value;
+    }
+
+    @Override
+    public short readHalfWord(int address) throws MemoryAccessException {
+        checkAccess(address, HALF_WORD_ALIGN);
+
+        // Aligned accesses never straddle two pages
+        byte[] page = pages[address >>> PAGE_SHIFT];
+        return page == null ? 0 : (short) SimpleMemory.SHORT_LE.get(page, address & OFFSET_MASK);
+    }
+
+    @Override
+    public int readWord(int address) throws MemoryAccessException {
+        checkAccess(address, WORD_ALIGN);
+        byte[] page = pages[address >>> PAGE_SHIFT];
+        return page == null ? 0 : (int) SimpleMemory.INT_LE.get(page, address & OFFSET_MASK);
+    }
+
+    @Override
+    public void writeHalfWord(int address, short value) throws MemoryAccessException {
+        checkAccess(address, HALF_WORD_ALIGN);
+        SimpleMemory.SHORT_LE.set(pageForWrite(address), address & OFFSET_MASK, value);
+    }
+
+    @Override
+    public void writeWord(int address, int value) throws MemoryAccessException {
+        checkAccess(address, WORD_ALIGN);
+        SimpleMemory.INT_LE.set(pageForWrite(address), address & OFFSET_MASK, value);
+    }
+
+    @Override
+    public int compareAndExchangeWord(int address, int expected, int value) throws MemoryAccessException {
+        checkAccess(address, WORD_ALIGN);
+        return (int) SimpleMemory.INT_LE.compareAndExchange(pageForWrite(address), address & OFFSET_MASK,
+                expected, value);
+    }
+
+    // Page by page, from the end when the destination overlaps the source from above
+    @Override
+    public void copy(int source, int destination, int length) throws MemoryAccessException {
+        checkAddress(source, length);
+        checkAddress(destination, length);
+        boolean backwards = destination > source && destination - source < length;
+        int done = 0;
+        while (done < length) {
+            int remaining = length - done;
+            int from;
+            int to;
+            int chunk;
+            if (backwards) {
+                int fromEnd = source + remaining;
+                int toEnd = destination + remaining;
+                chunk = Math.min(remaining, Math.min(((fromEnd - 1) & OFFSET_MASK) + 1, ((toEnd - 1) & OFFSET_MASK) + 1));
+                from = fromEnd - chunk;
+                to = toEnd - chunk;
+            } else {
+                from = source + done;
+                to = destination + done;
+                chunk = Math.min(remaining, Math.min(PAGE_SIZE - (from & OFFSET_MASK), PAGE_SIZE - (to & OFFSET_MASK)));
+            }
+            byte[] fromPage = pages[from >>> PAGE_SHIFT];
+            if (fromPage != null) {
+                System.arraycopy(fromPage, from & OFFSET_MASK, pageForWrite(to), to & OFFSET_MASK, chunk);
+            } else if (pages[to >>> PAGE_SHIFT] != null) {
+                Arrays.fill(pages[to >>> PAGE_SHIFT], to & OFFSET_MASK, (to & OFFSET_MASK) + chunk, (byte) 0);
+            }
+            done += chunk;
+        }
+    }
+
+    @Override
+    public void fill(int address, int length, byte value) throws MemoryAccessException {
+        checkAddress(address, length);
+        int done = 0;
+        while (done < length) {
+            int at = address + done;
+            int chunk = Math.min(length - done, PAGE_SIZE - (at & OFFSET_MASK));
+            // Zeroing a page that was never written leaves it unallocated
+            byte[] page = value == 0 ? pages[at >>> PAGE_SHIFT] : pageForWrite(at);
+            if (page != null) {
+                Arrays.fill(page, at & OFFSET_MASK, (at & OFFSET_MASK) + chunk, value);
+            }
+            done += chunk;
+        }
+    }
+
+    @Override
+    public void write(int address, byte[] data, int offset, int length) throws MemoryAccessException {
+        checkAddress(address, length);
+        int done = 0;
+        while (done < length) {
+            int at = address + done;
+            int chunk = Math.min(length - done, PAGE_SIZE - (at & OFFSET_MASK));
+            System.arraycopy(data, offset + done, pageForWrite(at), at & OFFSET_MASK, chunk);
+            done += chunk;
+        }
+    }
+
+    @Override
+    public int indexOf(int address, int length, byte value) throws MemoryAccessException {
+        checkAddress(address, length);
+        int done = 0;
+        while (done < length) {
+            int at = address + done;
+            int offset = at & OFFSET_MASK;
+            int chunk = Math.min(length - done, PAGE_SIZE - offset);
+            byte[] page = pages[at >>> PAGE_SHIFT];
+            if (page == null) {
+                if (value == 0) {
+                    return done;
+                }
+            } else {
+                for (int i = 0; i < chunk; i++) {
+                    if (page[offset + i] == value) {
+                        return done + i;
+                    }
+                }
+            }
+            done += chunk;
+        }
+        return -1;
+    }
+
+    // Bounds and alignment in one unsigned compare and one mask, a single branch
+    private void checkAccess(int address, int size) throws MemoryAccessException {
+        if (Integer.compareUnsigned(address, this.size - size) > 0 | (address & (size - 1)) != 0) {
+            throw accessError(address, size);
+        }
+    }
+
+    // Utility methods
+    private MemoryAccessException accessError(int address, int size) {
+        if (Integer.compareUnsigned(address, this.size - size) > 0) {
+            return new MemoryAccessException(
+                    String.format("Memory access out of bounds: address=%d, size=%d", address, size));
+        }
+        return new MemoryAccessException(
+                String.format("Misaligned memory access: address=%d, required alignment=%d",
+                        address, size));
+    }
+
+    private void checkAddress(int address, int accessSize) throws MemoryAccessException {
+        if (address < 0 || address > size - accessSize) {
+            throw new MemoryAccessException(
+                    String.format("Memory access out of bounds: address=%d, size=%d", address, accessSize));
+        }
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    // Counted on demand so the write path needs no shared counter
+    public int getAllocatedPages() {
+        int allocated = 0;
+        for (byte[] page : pages) {
+            if (page != null) {
+                allocated++;
+            }
+        }
+        return allocated;
+    }
+
+    @Override
+    public void clear() {
+        for (int i = 0; i < pages.length; i++) {
+            pages[i] = null;
+        }
+    }
+
+    // Debug helper methods
+    @Override
+    public String dumpMemory(int startAddress, int length) throws MemoryAccessException {
+        checkAddress(startAddress, length);
+        StringBuilder sb = new StringBuilder();
+
+        for (int i = 0; i < length; i += 16) {
+            // Print address
+            sb.append(String.format("%08x: ", startAddress + i));
+
+            // Print hex values
+            for (int j = 0; j < 16 && (i + j) < length; j++) {
+                if (j % 4 == 0)
+                    sb.append(" ");
+                sb.append(String.format("%02x ", readByte(startAddress + i + j)));
+            }
+
+            sb.append("\n");
+        }
+
+        return sb.toString();
+    }
+
+    @Override
+    public void initializeMemory(int startAddress, byte[] data) {
+        int copied = 0;
+        while (copied < data.length) {
+            int address = startAddress + copied;
+            int chunk = Math.min(PAGE_SIZE - (address & OFFSET_MASK), data.length - copied);
+            System.arraycopy(data, copied, pageForWrite(address), address & OFFSET_MASK, chunk);
+            copied += chunk;
+        }
+    }
+
+    /**
+     * Builds a flat copy; untouched pages come out as zeros.
+     */
+    @Override
+    public byte[] getMemory() {
+        byte[] flat = new byte[size];
+        for (int i = 0; i < pages.length; i++) {
+            if (pages[i] != null) {
+                System.arraycopy(pages[i], 0, flat, i << PAGE_SHIFT, Math.min(PAGE_SIZE, size - (i << PAGE_SHIFT)));
+            }
+        }
+        return flat;
+    }
+}
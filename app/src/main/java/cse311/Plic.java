@@ -0,0 +1,145 @@
+package cse311;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Minimal platform-level interrupt controller with the usual register
+ * layout, one machine-mode context per hart and sources 1 to 31:
+ * priorities at 4 * source, the pending bits at 0x1000, a context's enable
+ * bits at 0x2000 + 0x80 * hart, its threshold at 0x200000 + 0x1000 * hart
+ * and its claim/complete register 4 bytes after that. Sources are level
+ * triggered: one that is still raised when its claim completes is pending
+ * again at once.
+ */
+public class Plic implements Device {
+    static final int PRIORITY = 0x0;
+    static final int PENDING = 0x1000;
+    static final int ENABLE = 0x2000;
+    static final int CONTEXT = 0x200000;
+    private static final int ENABLE_STRIDE = 0x80;
+    private static final int CONTEXT_STRIDE = 0x1000;
+    private static final int SOURCES = 32;
+
+    // Source numbers of the built-in devices
+    public static final int UART_SOURCE = 10;
+
+    private final int[] priority = new int[SOURCES];
+    private int raised; // levels driven by the devices
+    private int claimed; // claimed and not completed yet
+    private final Map<Integer, Context> contexts = new ConcurrentHashMap<>();
+
+    private static final class Context {
+        final RV32iCpu cpu;
+        int enable;
+        int threshold;
+
+        Context(RV32iCpu cpu) {
+            this.cpu = cpu;
+        }
+    }
+
+    void attach(RV32iCpu cpu) {
+        contexts.put(cpu.getHartId(), new Context(cpu));
+    }
+
+    // Any thread: a device raised or lowered its interrupt line
+    synchronized void setLevel(int source, boolean level) {
+        int bit = 1 << source;
+        int was = raised;
+        raised = level ? raised | bit : raised & ~bit;
+        if (raised != was) {
+            update();
+        }
+    }
+
+    private int pending() {
+        return raised & ~claimed & ~1; // source 0 does not exist
+    }
+
+    // The enabled pending source with the highest priority above the threshold, 0 if none
+    private int best(Context context) {
+        int candidates = pending() & context.enable;
+        int best = 0;
+        for (int source = 1; source < SOURCES; source++) {
+            if ((candidates & 1 << source) != 0 && priority[source] > context.threshold
+                    && (best == 0 || priority[source] > priority[best])) {
+                best = source;
+            }
+        }
+        return best;
+    }
+
+    private void update() {
+        for (Context context : contexts.values()) {
+            if (best(context) != 0) {
+                context.cpu.raiseInterrupt(RV32iCpu.MIP_MEIP);
+            } else {
+                context.cpu.clearInterrupt(RV32iCpu.MIP_MEIP);
+            }
+        }
+    }
+
+    @Override
+    public synchronized int read(int offset, int size) {
+        if (offset < PENDING) {
+            int source = offset >> 2;
+            return source < SOURCES ? priority[source] : 0;
+        }
+        if (offset == PENDING) {
+            return pending();
+        }
+        Context context = context(offset);
+        if (context == null) {
+            return 0;
+        }
+        if (offset < CONTEXT) {
+            return context.enable;
+        }
+        if ((offset & (CONTEXT_STRIDE - 1)) == 0) {
+            return context.threshold;
+        }
+        // Claim
+        int source = best(context);
+        if (source != 0) {
+            claimed |= 1 << source;
+            update();
+        }
+        return source;
+    }
+
+    @Override
+    public synchronized void write(int offset, int size, int value) {
+        if (offset < PENDING) {
+            int source = offset >> 2;
+            if (source > 0 && source < SOURCES) {
+                priority[source] = value & 0x7;
+                update();
+            }
+            return;
+        }
+        Context context = context(offset);
+        if (context == null) {
+            return;
+        }
+        if (offset < CONTEXT) {
+            context.enable = value & ~1;
+        } else if ((offset & (CONTEXT_STRIDE - 1)) == 0) {
+            context.threshold = value & 0x7;
+        } else if (value > 0 && value < SOURCES) {
+            // Complete
+            claimed &= ~(1 << value);
+        }
+        update();
+    }
+
+    private Context context(int offset) {
+        if (offset >= ENABLE && offset < CONTEXT) {
+            return (offset - ENABLE) % ENABLE_STRIDE == 0 ? contexts.get((offset - ENABLE) / ENABLE_STRIDE) : null;
+        }
+        if (offset >= CONTEXT && (offset & (CONTEXT_STRIDE - 1)) <= 4) {
+            return contexts.get((offset - CONTEXT) / CONTEXT_STRIDE);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,619 @@
+package cse311;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+
+/**
+ * Compact, immutable form of a decoded instruction as kept in the
+ * {@link CodeCache}. Only the operands the instruction uses are filled in,
+ * and PC-relative immediates (branches, JAL, AUIPC) are resolved to absolute
+ * values because a cached entry always belongs to one fixed address.
+ */
+final class PredecodedInstruction {
+    // Concrete instruction kinds, kept dense so execute() compiles to a tableswitch
+    static final int ILLEGAL = 0;
+    static final int NOP = 1;
+    static final int LUI = 2;
+    static final int AUIPC = 3;
+    static final int JAL = 4;
+    static final int JALR = 5;
+    static final int BEQ = 6;
+    static final int BNE = 7;
+    static final int BLT = 8;
+    static final int BGE = 9;
+    static final int BLTU = 10;
+    static final int BGEU = 11;
+    static final int LB = 12;
+    static final int LH = 13;
+    static final int LW = 14;
+    static final int LBU = 15;
+    static final int LHU = 16;
+    static final int SB = 17;
+    static final int SH = 18;
+    static final int SW = 19;
+    static final int ADDI = 20;
+    static final int SLTI = 21;
+    static final int SLTIU = 22;
+    static final int XORI = 23;
+    static final int ORI = 24;
+    static final int ANDI = 25;
+    static final int SLLI = 26;
+    static final int SRLI = 27;
+    static final int SRAI = 28;
+    static final int ADD = 29;
+    static final int SUB = 30;
+    static final int SLL = 31;
+    static final int SLT = 32;
+    static final int SLTU = 33;
+    static final int XOR = 34;
+    static final int SRL = 35;
+    static final int SRA = 36;
+    static final int OR = 37;
+    static final int AND = 38;
+    static final int FENCE = 39;
+    static final int FENCE_I = 40;
+    static final int ECALL = 41;
+    static final int EBREAK = 42;
+    static final int WFI = 43;
+    // RV32A, imm unused
+    static final int LR_W = 44;
+    static final int SC_W = 45;
+    static final int AMOSWAP_W = 46;
+    static final int AMOADD_W = 47;
+    static final int AMOXOR_W = 48;
+    static final int AMOAND_W = 49;
+    static final int AMOOR_W = 50;
+    static final int AMOMIN_W = 51;
+    static final int AMOMAX_W = 52;
+    static final int AMOMINU_W = 53;
+    static final int AMOMAXU_W = 54;
+    // Zicsr, imm holds the CSR number and rs1 the source register or 5-bit immediate
+    static final int CSRRW = 55;
+    static final int CSRRS = 56;
+    static final int CSRRC = 57;
+    static final int CSRRWI = 58;
+    static final int CSRRSI = 59;
+    static final int CSRRCI = 60;
+    // RV32M
+    static final int MUL = 61;
+    static final int MULH = 62;
+    static final int MULHSU = 63;
+    static final int MULHU = 64;
+    static final int DIV = 65;
+    static final int DIVU = 66;
+    static final int REM = 67;
+    static final int REMU = 68;
+    // Zbb, the unary ops only use rs1 and RORI keeps its shift amount in imm
+    static final int ANDN = 69;
+    static final int ORN = 70;
+    static final int XNOR = 71;
+    static final int MIN = 72;
+    static final int MINU = 73;
+    static final int MAX = 74;
+    static final int MAXU = 75;
+    static final int ROL = 76;
+    static final int ROR = 77;
+    static final int RORI = 78;
+    static final int CLZ = 79;
+    static final int CTZ = 80;
+    static final int CPOP = 81;
+    static final int SEXT_B = 82;
+    static final int SEXT_H = 83;
+    static final int ZEXT_H = 84;
+    static final int ORC_B = 85;
+    static final int REV8 = 86;
+    // F and D, memory accesses with rd or rs2 naming an FP register
+    static final int FLW = 87;
+    static final int FLD = 88;
+    static final int FSW = 89;
+    static final int FSD = 90;
+    // FP register operations, imm holds rm (and rs3 << 3 for the fused ones)
+    static final int FMADD_S = 91;
+    static final int FMSUB_S = 92;
+    static final int FNMSUB_S = 93;
+    static final int FNMADD_S = 94;
+    static final int FMADD_D = 95;
+    static final int FMSUB_D = 96;
+    static final int FNMSUB_D = 97;
+    static final int FNMADD_D = 98;
+    static final int FADD_S = 99;
+    static final int FSUB_S = 100;
+    static final int FMUL_S = 101;
+    static final int FDIV_S = 102;
+    static final int FSQRT_S = 103;
+    static final int FSGNJ_S = 104;
+    static final int FSGNJN_S = 105;
+    static final int FSGNJX_S = 106;
+    static final int FMIN_S = 107;
+    static final int FMAX_S = 108;
+    static final int FADD_D = 109;
+    static final int FSUB_D = 110;
+    static final int FMUL_D = 111;
+    static final int FDIV_D = 112;
+    static final int FSQRT_D = 113;
+    static final int FSGNJ_D = 114;
+    static final int FSGNJN_D = 115;
+    static final int FSGNJX_D = 116;
+    static final int FMIN_D = 117;
+    static final int FMAX_D = 118;
+    static final int FCVT_S_D = 119;
+    static final int FCVT_D_S = 120;
+    // FP operations writing the integer register rd
+    static final int FCVT_W_S = 121;
+    static final int FCVT_WU_S = 122;
+    static final int FMV_X_W = 123;
+    static final int FEQ_S = 124;
+    static final int FLT_S = 125;
+    static final int FLE_S = 126;
+    static final int FCLASS_S = 127;
+    static final int FCVT_W_D = 128;
+    static final int FCVT_WU_D = 129;
+    static final int FEQ_D = 130;
+    static final int FLT_D = 131;
+    static final int FLE_D = 132;
+    static final int FCLASS_D = 133;
+    // FP operations reading the integer register rs1
+    static final int FCVT_S_W = 134;
+    static final int FCVT_S_WU = 135;
+    static final int FMV_W_X = 136;
+    static final int FCVT_D_W = 137;
+    static final int FCVT_D_WU = 138;
+
+    // Machine-mode trap return
+    static final int MRET = 139;
+
+    static final int KIND_COUNT = MRET + 1;
+
+    final int kind;
+    final int rd;
+    final int rs1;
+    final int rs2;
+    final int imm;
+    final int size; // 2 for an expanded RV32C instruction, otherwise 4
+    final int event; // the performance counter event it may count towards
+
+    // Events counted per instruction, index into RV32iCpu.events
+    static final int EVENT_NONE = 0;
+    static final int EVENT_LOAD = 1;
+    static final int EVENT_STORE = 2;
+    static final int EVENT_BRANCH = 3; // conditional branches, counted when taken
+
+    private PredecodedInstruction(int kind, int rd, int rs1, int rs2, int imm) {
+        this(kind, rd, rs1, rs2, imm, 4);
+    }
+
+    private PredecodedInstruction(int kind, int rd, int rs1, int rs2, int imm, int size) {
+        this.kind = kind;
+        this.rd = rd;
+        this.rs1 = rs1;
+        this.rs2 = rs2;
+        this.imm = imm;
+        this.size = size;
+        this.event = eventOf(kind);
+    }
+
+    private static int eventOf(int kind) {
+        if (kind >= LB && kind <= LHU || kind == FLW || kind == FLD) {
+            return EVENT_LOAD;
+        }
+        if (kind >= SB && kind <= SW || kind == FSW || kind == FSD) {
+            return EVENT_STORE;
+        }
+        if (kind >= BEQ && kind <= BGEU) {
+            return EVENT_BRANCH;
+        }
+        return EVENT_NONE;
+    }
+
+    static boolean isCsr(int kind) {
+        return kind >= CSRRW && kind <= CSRRCI;
+    }
+
+    // Mnemonics by kind, taken from the constant names above (FCVT_D_WU is fcvt.d.wu)
+    private static final String[] NAMES = new String[KIND_COUNT];
+
+    static {
+        for (Field field : PredecodedInstruction.class.getDeclaredFields()) {
+            int modifiers = field.getModifiers();
+            if (field.getType() == int.class && Modifier.isStatic(modifiers)
+                    && !field.getName().startsWith("EVENT_") && !field.getName().equals("KIND_COUNT")) {
+                try {
+                    NAMES[field.getInt(null)] = field.getName().toLowerCase().replace('_', '.');
+                } catch (IllegalAccessException e) {
+                    throw new AssertionError(e);
+                }
+            }
+        }
+    }
+
+    static String nameOf(int kind) {
+        return NAMES[kind];
+    }
+
+    /**
+     * The same instruction, as the expansion of a 16-bit compressed one.
+     */
+    PredecodedInstruction compressed() {
+        return new PredecodedInstruction(kind, rd, rs1, rs2, imm, 2);
+    }
+
+    private static PredecodedInstruction of(int kind) {
+        return new PredecodedInstruction(kind, 0, 0, 0, 0);
+    }
+
+    // Register/immediate ALU ops writing x0 have no effect and become NOPs
+    private static PredecodedInstruction alu(int kind, int rd, int rs1, int rs2, int imm) {
+        if (rd == 0) {
+            return of(NOP);
+        }
+        return new PredecodedInstruction(kind, rd, rs1, rs2, imm);
+    }
+
+    // 5 and 6 are reserved, DYN (7) is checked against frm when executed
+    private static boolean validRoundingMode(int rm) {
+        return rm != 5 && rm != 6;
+    }
+
+    private static PredecodedInstruction floatOperation(int func7, int func3, int rd, int rs1, int rs2) {
+        int kind;
+        boolean rounds = false;
+        switch (func7) {
+            case 0b0000000:
+            case 0b0000100:
+            case 0b0001000:
+            case 0b0001100:
+                kind = FADD_S + (func7 >>> 2);
+                rounds = true;
+                break;
+            case 0b0000001:
+            case 0b0000101:
+            case 0b0001001:
+            case 0b0001101:
+                kind = FADD_D + (func7 >>> 2);
+                rounds = true;
+                break;
+            case 0b0101100:
+            case 0b0101101:
+                if (rs2 != 0) {
+                    return of(ILLEGAL);
+                }
+                kind = func7 == 0b0101100 ? FSQRT_S : FSQRT_D;
+                rounds = true;
+                break;
+            case 0b0010000:
+            case 0b0010001:
+                if (func3 > 0b010) {
+                    return of(ILLEGAL);
+                }
+                kind = (func7 == 0b0010000 ? FSGNJ_S : FSGNJ_D) + func3;
+                break;
+            case 0b0010100:
+            case 0b0010101:
+                if (func3 > 0b001) {
+                    return of(ILLEGAL);
+                }
+                kind = (func7 == 0b0010100 ? FMIN_S : FMIN_D) + func3;
+                break;
+            case 0b0100000:
+            case 0b0100001:
+                // FCVT.S.D converts from D (rs2 = 1), FCVT.D.S from S (rs2 = 0)
+                if (rs2 != (func7 & 1 ^ 1)) {
+                    return of(ILLEGAL);
+                }
+                kind = func7 == 0b0100000 ? FCVT_S_D : FCVT_D_S;
+                rounds = true;
+                break;
+            case 0b1100000:
+            case 0b1100001:
+                if (rs2 > 1) {
+                    return of(ILLEGAL);
+                }
+                kind = (func7 == 0b1100000 ? FCVT_W_S : FCVT_W_D) + rs2;
+                rounds = true;
+                break;
+            case 0b1101000:
+            case 0b1101001:
+                if (rs2 > 1) {
+                    return of(ILLEGAL);
+                }
+                kind = (func7 == 0b1101000 ? FCVT_S_W : FCVT_D_W) + rs2;
+                rounds = true;
+                break;
+            case 0b1010000:
+            case 0b1010001:
+                // func3 is 0 for FLE, 1 for FLT and 2 for FEQ
+                if (func3 > 0b010) {
+                    return of(ILLEGAL);
+                }
+                kind = (func7 == 0b1010000 ? FEQ_S : FEQ_D) + 2 - func3;
+                break;
+            case 0b1110000:
+                if (rs2 != 0 || func3 > 0b001) {
+                    return of(ILLEGAL);
+                }
+                kind = func3 == 0 ? FMV_X_W : FCLASS_S;
+                break;
+            case 0b1110001:
+                if (rs2 != 0 || func3 != 0b001) {
+                    return of(ILLEGAL);
+                }
+                kind = FCLASS_D;
+                break;
+            case 0b1111000:
+                if (rs2 != 0 || func3 != 0) {
+                    return of(ILLEGAL);
+                }
+                kind = FMV_W_X;
+                break;
+            default:
+                return of(ILLEGAL);
+        }
+        if (rounds && !validRoundingMode(func3)) {
+            return of(ILLEGAL);
+        }
+        // Not alu(): an integer result for x0 still raises flags
+        return new PredecodedInstruction(kind, rd, rs1, rs2, rounds ? func3 : 0);
+    }
+
+    // Decoding: one handler per concrete instruction in a table indexed by
+    // opcode[6:2], func3 and func7. Handlers pull out only the fields they use.
+
+    @FunctionalInterface
+    private interface Handler {
+        PredecodedInstruction decode(int word, int address);
+    }
+
+    private static final Handler[] TABLE = new Handler[1 << 15];
+
+    private static int index(int word) {
+        return (word >>> 2 & 0x1F) << 10 | (word >>> 5 & 0x380) | word >>> 25;
+    }
+
+    /**
+     * Builds the compact form of the 32-bit instruction located at the given address.
+     */
+    static PredecodedInstruction decode(int word, int address) {
+        if ((word & 0b11) != 0b11) {
+            return of(ILLEGAL);
+        }
+        return TABLE[index(word)].decode(word, address);
+    }
+
+    static PredecodedInstruction of(InstructionDecoded d, int address) {
+        return decode(d.toWord(), address);
+    }
+
+    private static int rd(int word) {
+        return word >>> 7 & 0x1F;
+    }
+
+    private static int rs1(int word) {
+        return word >>> 15 & 0x1F;
+    }
+
+    private static int rs2(int word) {
+        return word >>> 20 & 0x1F;
+    }
+
+    private static int func3(int word) {
+        return word >>> 12 & 0x7;
+    }
+
+    private static int immI(int word) {
+        return word >> 20;
+    }
+
+    private static int immS(int word) {
+        return word >> 25 << 5 | word >>> 7 & 0x1F;
+    }
+
+    private static int immB(int word) {
+        return word >> 31 << 12 | (word >>> 7 & 1) << 11 | (word >>> 25 & 0x3F) << 5 | (word >>> 8 & 0xF) << 1;
+    }
+
+    private static int immJ(int word) {
+        return word >> 31 << 20 | (word >>> 12 & 0xFF) << 12 | (word >>> 20 & 1) << 11 | (word >>> 21 & 0x3FF) << 1;
+    }
+
+    // Registration, for one func7, every func7 or every func3 and func7 of an opcode
+
+    private static void register(int opcode, int func3, int func7, Handler handler) {
+        TABLE[(opcode >>> 2) << 10 | func3 << 7 | func7] = handler;
+    }
+
+    private static void register(int opcode, int func3, Handler handler) {
+        for (int func7 = 0; func7 < 128; func7++) {
+            register(opcode, func3, func7, handler);
+        }
+    }
+
+    private static void register(int opcode, Handler handler) {
+        for (int func3 = 0; func3 < 8; func3++) {
+            register(opcode, func3, handler);
+        }
+    }
+
+    private static Handler registerOp(int kind) {
+        return (w, a) -> alu(kind, rd(w), rs1(w), rs2(w), 0);
+    }
+
+    private static Handler immediateOp(int kind) {
+        return (w, a) -> alu(kind, rd(w), rs1(w), 0, immI(w));
+    }
+
+    private static Handler shift(int kind) {
+        return (w, a) -> alu(kind, rd(w), rs1(w), 0, rs2(w));
+    }
+
+    // Zbb ops with a single source, told apart by a constant in the rs2 field
+    private static Handler unary(int rs2, int kind) {
+        return (w, a) -> rs2(w) == rs2 ? alu(kind, rd(w), rs1(w), 0, 0) : of(ILLEGAL);
+    }
+
+    static {
+        Handler illegal = (w, a) -> of(ILLEGAL);
+        Arrays.fill(TABLE, illegal);
+
+        final int op = 0b0110011;
+        final int opImm = 0b0010011;
+
+        // RV32I register-register
+        register(op, 0b000, 0b0000000, registerOp(ADD));
+        register(op, 0b000, 0b0100000, registerOp(SUB));
+        register(op, 0b001, 0b0000000, registerOp(SLL));
+        register(op, 0b010, 0b0000000, registerOp(SLT));
+        register(op, 0b011, 0b0000000, registerOp(SLTU));
+        register(op, 0b100, 0b0000000, registerOp(XOR));
+        register(op, 0b101, 0b0000000, registerOp(SRL));
+        register(op, 0b101, 0b0100000, registerOp(SRA));
+        register(op, 0b110, 0b0000000, registerOp(OR));
+        register(op, 0b111, 0b0000000, registerOp(AND));
+
+        // RV32M, func3 gives the operation in kind order
+        for (int func3 = 0; func3 < 8; func3++) {
+            register(op, func3, 0b0000001, registerOp(MUL + func3));
+        }
+
+        // Zbb
+        register(op, 0b111, 0b0100000, registerOp(ANDN));
+        register(op, 0b110, 0b0100000, registerOp(ORN));
+        register(op, 0b100, 0b0100000, registerOp(XNOR));
+        register(op, 0b100, 0b0000101, registerOp(MIN));
+        register(op, 0b101, 0b0000101, registerOp(MINU));
+        register(op, 0b110, 0b0000101, registerOp(MAX));
+        register(op, 0b111, 0b0000101, registerOp(MAXU));
+        register(op, 0b001, 0b0110000, registerOp(ROL));
+        register(op, 0b101, 0b0110000, registerOp(ROR));
+        register(op, 0b100, 0b0000100, unary(0, ZEXT_H));
+        register(opImm, 0b001, 0b0110000, (w, a) -> {
+            switch (rs2(w)) {
+                case 0b00000:
+                    return alu(CLZ, rd(w), rs1(w), 0, 0);
+                case 0b00001:
+                    return alu(CTZ, rd(w), rs1(w), 0, 0);
+                case 0b00010:
+                    return alu(CPOP, rd(w), rs1(w), 0, 0);
+                case 0b00100:
+                    return alu(SEXT_B, rd(w), rs1(w), 0, 0);
+                case 0b00101:
+                    return alu(SEXT_H, rd(w), rs1(w), 0, 0);
+                default:
+                    return of(ILLEGAL);
+            }
+        });
+        register(opImm, 0b101, 0b0110000, shift(RORI));
+        register(opImm, 0b101, 0b0010100, unary(0b00111, ORC_B));
+        register(opImm, 0b101, 0b0110100, unary(0b11000, REV8));
+
+        // RV32I register-immediate, the shifts need imm[11:5] as given
+        register(opImm, 0b000, immediateOp(ADDI));
+        register(opImm, 0b010, immediateOp(SLTI));
+        register(opImm, 0b011, immediateOp(SLTIU));
+        register(opImm, 0b100, immediateOp(XORI));
+        register(opImm, 0b110, immediateOp(ORI));
+        register(opImm, 0b111, immediateOp(ANDI));
+        register(opImm, 0b001, 0b0000000, shift(SLLI));
+        register(opImm, 0b101, 0b0000000, shift(SRLI));
+        register(opImm, 0b101, 0b0100000, shift(SRAI));
+
+        // Loads are kept even for rd == 0 since device reads have side effects
+        final int[] loads = { LB, LH, LW, -1, LBU, LHU };
+        for (int func3 = 0; func3 < loads.length; func3++) {
+            final int kind = loads[func3];
+            if (kind >= 0) {
+                register(0b0000011, func3, (w, a) -> new PredecodedInstruction(kind, rd(w), rs1(w), 0, immI(w)));
+            }
+        }
+        final int[] stores = { SB, SH, SW };
+        for (int func3 = 0; func3 < stores.length; func3++) {
+            final int kind = stores[func3];
+            register(0b0100011, func3, (w, a) -> new PredecodedInstruction(kind, 0, rs1(w), rs2(w), immS(w)));
+        }
+
+        // Branches, JAL and AUIPC resolve their target address here
+        final int[] branches = { BEQ, BNE, -1, -1, BLT, BGE, BLTU, BGEU };
+        for (int func3 = 0; func3 < branches.length; func3++) {
+            final int kind = branches[func3];
+            if (kind >= 0) {
+                register(0b1100011, func3,
+                        (w, a) -> new PredecodedInstruction(kind, 0, rs1(w), rs2(w), a + immB(w)));
+            }
+        }
+        register(0b1101111, (w, a) -> new PredecodedInstruction(JAL, rd(w), 0, 0, a + immJ(w)));
+        register(0b1100111, 0b000, (w, a) -> new PredecodedInstruction(JALR, rd(w), rs1(w), 0, immI(w)));
+        register(0b0110111, (w, a) -> alu(LUI, rd(w), 0, 0, w & 0xFFFFF000));
+        register(0b0010111, (w, a) -> alu(AUIPC, rd(w), 0, 0, a + (w & 0xFFFFF000)));
+
+        // MISC-MEM
+        register(0b0001111, (w, a) -> of(FENCE));
+        register(0b0001111, 0b001, (w, a) -> of(FENCE_I));
+
+        // AMO, aq/rl are ignored since every atomic is sequentially consistent
+        final int[][] atomics = {
+                { 0b00010, LR_W }, { 0b00011, SC_W }, { 0b00001, AMOSWAP_W }, { 0b00000, AMOADD_W },
+                { 0b00100, AMOXOR_W }, { 0b01100, AMOAND_W }, { 0b01000, AMOOR_W }, { 0b10000, AMOMIN_W },
+                { 0b10100, AMOMAX_W }, { 0b11000, AMOMINU_W }, { 0b11100, AMOMAXU_W },
+        };
+        for (int[] atomic : atomics) {
+            final int kind = atomic[1];
+            Handler handler = (w, a) -> new PredecodedInstruction(kind, rd(w), rs1(w), rs2(w), 0);
+            for (int aqrl = 0; aqrl < 4; aqrl++) {
+                register(0b0101111, 0b010, atomic[0] << 2 | aqrl, handler);
+            }
+        }
+
+        // F and D loads, stores and fused multiply-adds
+        register(0b0000111, 0b010, (w, a) -> new PredecodedInstruction(FLW, rd(w), rs1(w), 0, immI(w)));
+        register(0b0000111, 0b011, (w, a) -> new PredecodedInstruction(FLD, rd(w), rs1(w), 0, immI(w)));
+        register(0b0100111, 0b010, (w, a) -> new PredecodedInstruction(FSW, 0, rs1(w), rs2(w), immS(w)));
+        register(0b0100111, 0b011, (w, a) -> new PredecodedInstruction(FSD, 0, rs1(w), rs2(w), immS(w)));
+        for (int fused = 0; fused < 4; fused++) {
+            for (int rm = 0; rm < 8; rm++) {
+                if (!validRoundingMode(rm)) {
+                    continue;
+                }
+                for (int rs3 = 0; rs3 < 32; rs3++) {
+                    // fmt in the low bits of func7: S or D
+                    for (int fmt = 0; fmt < 2; fmt++) {
+                        final int kind = (fmt == 0 ? FMADD_S : FMADD_D) + fused;
+                        register(0b1000011 | fused << 2, rm, rs3 << 2 | fmt, (w, a) -> new PredecodedInstruction(
+                                kind, rd(w), rs1(w), rs2(w), (w >>> 27) << 3 | func3(w)));
+                    }
+                }
+            }
+        }
+        // OP-FP keeps its own switch: rm shares the func3 bits and several ops are told apart by rs2
+        register(0b1010011, (w, a) -> floatOperation(w >>> 25, func3(w), rd(w), rs1(w), rs2(w)));
+
+        // SYSTEM, CSR kinds follow func3 order with 0b100 unused
+        final int[] csrs = { -1, CSRRW, CSRRS, CSRRC, -1, CSRRWI, CSRRSI, CSRRCI };
+        for (int func3 = 0; func3 < csrs.length; func3++) {
+            final int kind = csrs[func3];
+            if (kind >= 0) {
+                register(0b1110011, func3, (w, a) -> new PredecodedInstruction(kind, rd(w), rs1(w), 0, w >>> 20));
+            }
+        }
+        register(0b1110011, 0b100, (w, a) -> of(NOP));
+        register(0b1110011, 0b000, (w, a) -> {
+            switch (w >>> 20) {
+                case 0x000:
+                    return of(ECALL);
+                case 0x001:
+                    return of(EBREAK);
+                case 0x105:
+                    return of(WFI);
+                case 0x302:
+                    return of(MRET);
+                default:
+                    return of(NOP);
+            }
+        });
+    }
+
+    @Override
+    public String toString() {
+        return "PredecodedInstruction [kind=" + kind + ", rd=" + rd + ", rs1=" + rs1 + ", rs2=" + rs2 + ", imm="
+                + imm + "]";
+    }
+}
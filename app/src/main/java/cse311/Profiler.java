@@ -0,0 +1,237 @@
+package cse311;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Guest profiler for one hart, see {@link RV32iCpu#setProfiler}. Counts the
+ * instructions executed per kind and every {@code interval} instructions
+ * samples the pc together with a shadow call stack. In the block modes a
+ * sample names the start of the block it falls in. The call stack follows the
+ * guest's calls and returns: a jal or jalr that links ra or t0 enters a
+ * function and a jalr x0 through ra or t0 leaves it.
+ *
+ * Without a profiler the CPU runs its usual paths, untouched. A profiler is
+ * only used by the thread running its hart.
+ */
+public final class Profiler {
+    private static final int MAX_DEPTH = 256;
+
+    private final int interval;
+    private long countdown;
+    private final long[] kinds = new long[PredecodedInstruction.KIND_COUNT];
+
+    // Entered functions, outermost first; calls past MAX_DEPTH are only counted
+    private final int[] stack = new int[MAX_DEPTH];
+    private int depth;
+    private int overflow;
+    private int root = -1; // where execution started, the bottom frame
+
+    private final Map<Sample, long[]> samples = new HashMap<>();
+    private final Map<Integer, long[]> hotPcs = new HashMap<>();
+    private long sampleCount;
+
+    // The stack of one sample, with the sampled pc as last element
+    private static final class Sample {
+        final int[] frames;
+        final int hash;
+
+        Sample(int[] frames) {
+            this.frames = frames;
+            this.hash = Arrays.hashCode(frames);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Sample && Arrays.equals(frames, ((Sample) other).frames);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    public Profiler(int interval) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("Sampling interval must be positive: " + interval);
+        }
+        this.interval = interval;
+        this.countdown = interval;
+    }
+
+    // Interpreter: one instruction at address ran and left pc at next
+    void instruction(PredecodedInstruction instruction, int address, int next) {
+        if (root == -1) {
+            root = address;
+        }
+        kinds[instruction.kind]++;
+        if (--countdown == 0) {
+            sample(address);
+            countdown = interval;
+        }
+        track(instruction, next);
+    }
+
+    // Block engine: the whole block ran and left pc at next
+    void block(BasicBlock block, int next) {
+        if (root == -1) {
+            root = block.startPc;
+        }
+        PredecodedInstruction[] instructions = block.instructions();
+        for (PredecodedInstruction instruction : instructions) {
+            kinds[instruction.kind]++;
+        }
+        countdown -= instructions.length;
+        if (countdown <= 0) {
+            sample(block.startPc);
+            countdown += interval;
+            if (countdown <= 0) {
+                countdown = interval;
+            }
+        }
+        track(instructions[instructions.length - 1], next);
+    }
+
+    private void track(PredecodedInstruction instruction, int next) {
+        if (instruction.kind != PredecodedInstruction.JAL && instruction.kind != PredecodedInstruction.JALR) {
+            return;
+        }
+        if (instruction.rd == 1 || instruction.rd == 5) {
+            if (depth < MAX_DEPTH) {
+                stack[depth++] = next;
+            } else {
+                overflow++;
+            }
+        } else if (instruction.kind == PredecodedInstruction.JALR && instruction.rd == 0
+                && (instruction.rs1 == 1 || instruction.rs1 == 5)) {
+            if (overflow > 0) {
+                overflow--;
+            } else if (depth > 0) {
+                depth--;
+            }
+        }
+    }
+
+    private void sample(int pc) {
+        int[] frames = Arrays.copyOf(stack, depth + 1);
+        frames[depth] = pc;
+        samples.computeIfAbsent(new Sample(frames), key -> new long[1])[0]++;
+        hotPcs.computeIfAbsent(pc, key -> new long[1])[0]++;
+        sampleCount++;
+    }
+
+    public long getSampleCount() {
+        return sampleCount;
+    }
+
+    public long getCount(int kind) {
+        return kinds[kind];
+    }
+
+    /**
+     * Writes the samples in collapsed-stack format, one "frame;frame count"
+     * line per distinct stack, outermost frame first. Frames are the function
+     * execution started in, each function entered since and the function
+     * containing the sampled pc, named from the symbols where possible.
+     */
+    public void writeCollapsed(Writer out, SymbolTable symbols, String prefix) throws IOException {
+        Map<String, Long> lines = new HashMap<>();
+        for (Map.Entry<Sample, long[]> entry : samples.entrySet()) {
+            int[] frames = entry.getKey().frames;
+            String last = symbols.nameAt(root);
+            StringBuilder line = new StringBuilder(prefix).append(last);
+            for (int i = 0; i < frames.length - 1; i++) {
+                last = symbols.nameAt(frames[i]);
+                line.append(';').append(last);
+            }
+            // The sampled pc normally lies in the innermost function already named
+            String leaf = symbols.nameAt(frames[frames.length - 1]);
+            if (!leaf.equals(last)) {
+                line.append(';').append(leaf);
+            }
+            lines.merge(line.toString(), entry.getValue()[0], Long::sum);
+        }
+        List<String> sorted = new ArrayList<>(lines.keySet());
+        sorted.sort(null);
+        for (String line : sorted) {
+            out.write(line + " " + lines.get(line) + "\n");
+        }
+    }
+
+    /**
+     * Prints the instruction mix by class and by kind and the hottest
+     * sampled addresses.
+     */
+    public void printSummary(PrintStream out, SymbolTable symbols, int top) {
+        long total = Arrays.stream(kinds).sum();
+        out.printf("Profile: %d instructions, %d samples every %d instructions%n", total, sampleCount, interval);
+        Map<String, Long> classes = new HashMap<>();
+        for (int kind = 0; kind < kinds.length; kind++) {
+            if (kinds[kind] != 0) {
+                classes.merge(classOf(kind), kinds[kind], Long::sum);
+            }
+        }
+        out.println("Instruction classes:");
+        classes.entrySet().stream()
+                .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
+                .forEach(entry -> out.printf("  %-8s %12d %6.2f%%%n", entry.getKey(), entry.getValue(),
+                        100.0 * entry.getValue() / total));
+        out.println("Instructions:");
+        Integer[] order = new Integer[kinds.length];
+        Arrays.setAll(order, kind -> kind);
+        Arrays.sort(order, (a, b) -> Long.compare(kinds[b], kinds[a]));
+        for (int i = 0; i < Math.min(top, order.length) && kinds[order[i]] != 0; i++) {
+            out.printf("  %-10s %12d %6.2f%%%n", PredecodedInstruction.nameOf(order[i]), kinds[order[i]],
+                    100.0 * kinds[order[i]] / total);
+        }
+        out.println("Hot addresses:");
+        hotPcs.entrySet().stream()
+                .sorted((a, b) -> Long.compare(b.getValue()[0], a.getValue()[0]))
+                .limit(top)
+                .forEach(entry -> {
+                    String address = String.format("0x%08x", entry.getKey());
+                    String name = symbols.describe(entry.getKey());
+                    out.printf("  %s %-32s %10d %6.2f%%%n", address, name.equals(address) ? "" : name,
+                            entry.getValue()[0], 100.0 * entry.getValue()[0] / sampleCount);
+                });
+    }
+
+    static String classOf(int kind) {
+        if (kind >= PredecodedInstruction.LB && kind <= PredecodedInstruction.LHU
+                || kind == PredecodedInstruction.FLW || kind == PredecodedInstruction.FLD) {
+            return "load";
+        }
+        if (kind >= PredecodedInstruction.SB && kind <= PredecodedInstruction.SW
+                || kind == PredecodedInstruction.FSW || kind == PredecodedInstruction.FSD) {
+            return "store";
+        }
+        if (kind >= PredecodedInstruction.BEQ && kind <= PredecodedInstruction.BGEU) {
+            return "branch";
+        }
+        if (kind == PredecodedInstruction.JAL || kind == PredecodedInstruction.JALR) {
+            return "jump";
+        }
+        if (kind >= PredecodedInstruction.MUL && kind <= PredecodedInstruction.REMU) {
+            return "muldiv";
+        }
+        if (kind >= PredecodedInstruction.LR_W && kind <= PredecodedInstruction.AMOMAXU_W) {
+            return "atomic";
+        }
+        if (kind >= PredecodedInstruction.FMADD_S && kind <= PredecodedInstruction.FCVT_D_WU) {
+            return "float";
+        }
+        if (kind >= PredecodedInstruction.FENCE && kind <= PredecodedInstruction.WFI
+                || PredecodedInstruction.isCsr(kind) || kind == PredecodedInstruction.MRET
+                || kind == PredecodedInstruction.ILLEGAL) {
+            return "system";
+        }
+        return "alu";
+    }
+}
@@ -1,26 +1,89 @@
 package cse311;
 
-import cse311.RV32iCpu;
-
+/**
+ * A machine of one or more harts sharing one {@link MemoryManager}. Every
+ * hart starts at the same entry point; guests tell the harts apart through
+ * the mhartid CSR.
+ */
 public class RV32iComputer {
-    private RV32iCpu cpu;
-    private MemoryManager memory;
+    private final MemoryManager memory;
+    private final RV32iCpu[] harts;
 
     public RV32iComputer(int memSize) {
-        memory = new MemoryManager(new SimpleMemory(memSize));
-        this.cpu = new RV32iCpu(memory);
+        this(memSize, 1);
+    }
+
+    public RV32iComputer(int memSize, int hartCount) {
+        this(new MemoryManager(new PagedMemory(memSize)), hartCount);
+    }
+
+    public RV32iComputer(MemoryManager memory, int hartCount) {
+        if (hartCount < 1) {
+            throw new IllegalArgumentException("A machine needs at least one hart: " + hartCount);
+        }
+        this.memory = memory;
+        this.harts = new RV32iCpu[hartCount];
+        for (int i = 0; i < hartCount; i++) {
+            harts[i] = new RV32iCpu(memory, i);
+        }
+    }
+
+    public MemoryManager getMemoryManager() {
+        return memory;
+    }
 
+    public int getHartCount() {
+        return harts.length;
     }
 
-    /*
-     * public void initProgram(byte[] program) {
-     * memory.initializeMemory(0, program);
-     * }
+    public RV32iCpu getHart(int hartId) {
+        return harts[hartId];
+    }
+
+    public void setExecutionMode(ExecutionMode mode) {
+        for (RV32iCpu hart : harts) {
+            hart.setExecutionMode(mode);
+        }
+    }
+
+    public void setProgramCounterEntryPoint(int entryPoint) {
+        for (RV32iCpu hart : harts) {
+            hart.setProgramCounterEntryPoint(entryPoint);
+        }
+    }
+
+    /**
+     * Runs every hart on its own thread with the limits of
+     * {@link RV32iCpu#run(long, long)} applied per hart. The first hart to exit
+     * or fault stops the others. Returns one result per hart, by hart id.
      */
+    public RunResult[] run(long maxInstructionsPerHart, long timeoutNanos) throws InterruptedException {
+        RunResult[] results = new RunResult[harts.length];
+        Thread[] threads = new Thread[harts.length];
+        for (int i = 0; i < harts.length; i++) {
+            final int id = i;
+            threads[i] = new Thread(() -> {
+                RunResult result = harts[id].run(maxInstructionsPerHart, timeoutNanos);
+                results[id] = result;
+                if (result.getHaltReason() == RunResult.HaltReason.EXITED
+                        || result.getHaltReason() == RunResult.HaltReason.FAULT) {
+                    for (RV32iCpu hart : harts) {
+                        if (hart != harts[id]) {
+                            hart.stop();
+                        }
+                    }
+                }
+            }, "hart-" + i);
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return results;
+    }
 
     @Override
     public String toString() {
-        // TODO Auto-generated method stub
-        return super.toString();
+        return "RV32iComputer [harts=" + harts.length + "]";
     }
 }
@@ -1,30 +1,218 @@
 package cse311;
 
+import java.lang.invoke.VarHandle;
+import java.util.BitSet;
+import java.util.Queue;
 import java.util.Scanner;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
-public class RV32iCpu {
+public final class RV32iCpu {
 
-    private int[] x = new int[32];
+    // Package-private so bound block operations can reach them directly
+    int[] x = new int[32];
     private int lastPC = -1;
     private int lastPCBranch = -1;
     private int loopCountBranch = 0;
     private int loopCount = 0;
-    private int pc = 0;
+    int pc = 0;
     // private int[] instruction;
     private static final int INSTRUCTION_SIZE = 4; // 32-bit instructions
 
     private MemoryManager memory;
+    private final CodeCache<PredecodedInstruction> decodeCache = new CodeCache<>();
+    // Pages holding the upper half of a 32-bit instruction that starts on the page before
+    private final BitSet straddlingPages = new BitSet();
+    private static final int PAGE_MASK = (1 << CodeCache.PAGE_SHIFT) - 1;
+    private final BlockEngine blockEngine;
+    private ExecutionMode executionMode = ExecutionMode.INTERPRETER;
     private Scanner reader;
     private Thread cpuThread;
-    private boolean running = false;
-    private static final int LOOP_THRESHOLD = 1000; // Maximum times to execute same instruction
+    // Written by the CPU thread, read by whoever waits for it
+    private volatile boolean running = false;
+    private int exitCode;
+    private static final int LOOP_THRESHOLD = 1000; // Repeats of the same instruction before going idle
     private InputThread input;
 
+    // Counted per instruction by the interpreter and per block by the block engine
+    long instructionsRetired;
+    // Loads, stores and taken branches, indexed by PredecodedInstruction.EVENT_*
+    final long[] events = new long[4];
+    // What guest writes added to mcycle, minstret and mhpmcounter3..6
+    private final long[] counterOffsets = new long[COUNTERS];
+    private boolean idleRequested;
+    private final IdleMonitor idleMonitor;
+    // Upper bound on one idle sleep in case a wakeup is missed
+    private static final long IDLE_PARK_NANOS = 50_000_000L;
+    // Interpreted instructions between checks of the run limits
+    private static final int INTERPRETER_SLICE = 1024;
+
+    // Multi-hart state: this hart's id, the thread inside run() and code
+    // pages other harts wrote to, applied at the next slice or FENCE.I
+    private final int hartId;
+    private volatile Thread runThread;
+    private volatile boolean stopRequested;
+    private final Queue<Integer> remoteCodeWrites = new ConcurrentLinkedQueue<>();
+
+    // LR/SC reservation
+    private boolean reservationValid;
+    private int reservationAddress;
+    private int reservationValue;
+
+    // F and D state
+    final Fpu fpu = new Fpu();
+
+    // Machine-mode trap state. Devices raise bits in mip from their own
+    // threads and set interruptRequested, which the CPU only looks at
+    // between blocks or interpreter slices.
+    private int mstatus;
+    private int mie;
+    private final AtomicInteger mip = new AtomicInteger();
+    private int mtvec;
+    private int mscratch;
+    private int mepc;
+    private int mcause;
+    private int mtval;
+    volatile boolean interruptRequested;
+
+    // Set while profiling, null otherwise
+    Profiler profiler;
+
+    // CSR numbers
+    static final int CSR_FFLAGS = 0x001;
+    static final int CSR_FRM = 0x002;
+    static final int CSR_FCSR = 0x003;
+    static final int CSR_MHARTID = 0xF14;
+    static final int CSR_CYCLE = 0xC00;
+    static final int CSR_TIME = 0xC01;
+    static final int CSR_INSTRET = 0xC02;
+    static final int CSR_HPMCOUNTER3 = 0xC03;
+    static final int CSR_CYCLEH = 0xC80;
+    static final int CSR_MCYCLE = 0xB00;
+    static final int CSR_MINSTRET = 0xB02;
+    static final int CSR_MHPMCOUNTER3 = 0xB03;
+    static final int CSR_MCYCLEH = 0xB80;
+    static final int CSR_MHPMEVENT3 = 0x323;
+    static final int CSR_MSTATUS = 0x300;
+    static final int CSR_MISA = 0x301;
+    static final int CSR_MIE = 0x304;
+    static final int CSR_MTVEC = 0x305;
+    static final int CSR_MSCRATCH = 0x340;
+    static final int CSR_MEPC = 0x341;
+    static final int CSR_MCAUSE = 0x342;
+    static final int CSR_MTVAL = 0x343;
+    static final int CSR_MIP = 0x344;
+
+    static final int MSTATUS_MIE = 1 << 3;
+    static final int MSTATUS_MPIE = 1 << 7;
+    // Only machine mode exists, so MPP always reads as M
+    private static final int MSTATUS_MPP = 3 << 11;
+    static final int MIP_MSIP = 1 << 3;
+    static final int MIP_MTIP = 1 << 7;
+    static final int MIP_MEIP = 1 << 11;
+    private static final int INTERRUPT = 0x80000000;
+    static final int CAUSE_ECALL = 11;
+
+    // Hypercalls, a7 selects one and a0..a2 carry the arguments as for the
+    // C function of the same name. See examples/hypercall.h.
+    static final int HC_MEMCPY = 0x1000;
+    static final int HC_MEMSET = 0x1001;
+    static final int HC_STRLEN = 0x1002;
+    // RV32 with I, M, A, F, D and C
+    private static final int MISA = 1 << 30 | 1 << ('I' - 'A') | 1 << ('M' - 'A') | 1 << ('A' - 'A')
+            | 1 << ('F' - 'A') | 1 << ('D' - 'A') | 1 << ('C' - 'A');
+
+    // Counters 3..6 count these events, the other hpmcounters read as zero
+    static final int HPM_LOADS = 3;
+    static final int HPM_STORES = 4;
+    static final int HPM_TAKEN_BRANCHES = 5;
+    static final int HPM_UART_ACCESSES = 6;
+    private static final int COUNTERS = 7;
+
     public RV32iCpu(MemoryManager memory) {
+        this(memory, 0);
+    }
+
+    public RV32iCpu(MemoryManager memory, int hartId) {
         this.memory = memory;
+        this.hartId = hartId;
+        this.blockEngine = new BlockEngine(this);
+        memory.addCodeWriteListener(this::codeWritten);
+        this.idleMonitor = new IdleMonitor(this);
+        memory.getUart().addIdleMonitor(idleMonitor);
+        memory.getClint().attach(this);
+        memory.getPlic().attach(this);
         input = new InputThread();
     }
 
+    public int getHartId() {
+        return hartId;
+    }
+
+    // Stores from this hart take effect at once, other harts see them at
+    // their next slice or FENCE.I as the spec allows
+    private void codeWritten(int page) {
+        Thread owner = runThread;
+        if (owner == null || owner == Thread.currentThread()) {
+            invalidateCodePage(page);
+        } else {
+            remoteCodeWrites.add(page);
+        }
+    }
+
+    private void invalidateCodePage(int page) {
+        decodeCache.removePage(page, null);
+        blockEngine.codeWritten(page);
+        if (straddlingPages.get(page)) {
+            // An instruction cached on the page before reaches into this one
+            straddlingPages.clear(page);
+            decodeCache.removePage(page - 1, null);
+            blockEngine.codeWritten(page - 1);
+        }
+    }
+
+    private void applyRemoteCodeWrites() {
+        Integer page;
+        while ((page = remoteCodeWrites.poll()) != null) {
+            invalidateCodePage(page);
+        }
+    }
+
+    // True on the thread currently running this hart, or always when not inside run()
+    boolean isCurrentHart() {
+        Thread owner = runThread;
+        return owner == null || owner == Thread.currentThread();
+    }
+
+    /**
+     * Makes a run() in progress on another thread return with
+     * {@link RunResult.HaltReason#STOPPED}.
+     */
+    public void stop() {
+        stopRequested = true;
+        idleMonitor.wake();
+    }
+
+    public void setExecutionMode(ExecutionMode executionMode) {
+        this.executionMode = executionMode;
+    }
+
+    public ExecutionMode getExecutionMode() {
+        return executionMode;
+    }
+
+    /**
+     * Profiles this hart from the next run() on, or stops profiling when
+     * null. Set it before the hart runs.
+     */
+    public void setProfiler(Profiler profiler) {
+        this.profiler = profiler;
+    }
+
+    public Profiler getProfiler() {
+        return profiler;
+    }
+
     public void setProgramCounterEntryPoint(int entryPoint) {
         this.pc = entryPoint;
     }
@@ -37,12 +225,13 @@ public class RV32iCpu {
                 while (RV32iCpu.this.running) {
                     try {
                         // find13And12(memory.getByteMemory());
-                        fetchExecuteCycle();
+                        runSlice(Long.MAX_VALUE);
                     } catch (Exception e) {
                         // TODO Auto-generated catch block
                         e.printStackTrace();
                     }
                 }
+                System.out.println("Program exited with code: " + exitCode);
             }
         });
         new Thread(task1).start();
@@ -50,405 +239,1012 @@ public class RV32iCpu {
         this.cpuThread.start();
     }
 
+    /**
+     * Runs the guest on the calling thread until it exits, faults, retires
+     * maxInstructions or runs for timeoutNanos. Limits are checked between
+     * blocks (or slices of interpreted instructions), so a run can overshoot
+     * them by up to one slice. A non-positive limit means no limit.
+     */
+    public RunResult run(long maxInstructions, long timeoutNanos) {
+        long start = System.nanoTime();
+        long startRetired = instructionsRetired;
+        long retireLimit = maxInstructions > 0 && startRetired + maxInstructions > startRetired
+                ? startRetired + maxInstructions
+                : Long.MAX_VALUE;
+        RunResult.HaltReason reason;
+        Exception fault = null;
+        running = true;
+        runThread = Thread.currentThread();
+        try {
+            while (true) {
+                if (!running) {
+                    reason = RunResult.HaltReason.EXITED;
+                    break;
+                }
+                if (stopRequested) {
+                    reason = RunResult.HaltReason.STOPPED;
+                    break;
+                }
+                if (instructionsRetired >= retireLimit) {
+                    reason = RunResult.HaltReason.INSTRUCTION_LIMIT;
+                    break;
+                }
+                if (timeoutNanos > 0 && System.nanoTime() - start >= timeoutNanos) {
+                    reason = RunResult.HaltReason.TIME_LIMIT;
+                    break;
+                }
+                runSlice(retireLimit);
+            }
+        } catch (Exception e) {
+            reason = RunResult.HaltReason.FAULT;
+            fault = e;
+        }
+        running = false;
+        stopRequested = false;
+        runThread = null;
+        memory.getUart().flush();
+        return new RunResult(reason, exitCode, instructionsRetired - startRetired, System.nanoTime() - start, fault);
+    }
+
+    private void runSlice(long retireLimit) throws Exception {
+        if (!remoteCodeWrites.isEmpty()) {
+            applyRemoteCodeWrites();
+        }
+        if (idleRequested) {
+            idle();
+        } else if (executionMode != ExecutionMode.INTERPRETER) {
+            blockEngine.execute(retireLimit);
+        } else if (profiler != null) {
+            runProfiledSlice(retireLimit);
+        } else {
+            if (interruptRequested) {
+                takeInterrupt();
+            }
+            for (int i = 0; i < INTERPRETER_SLICE && running && !idleRequested
+                    && instructionsRetired < retireLimit; i++) {
+                if (checkIdleLoop()) {
+                    return;
+                }
+                PredecodedInstruction instruction = fetch();
+                int next = pc;
+                execute(instruction);
+                retire(instruction, next);
+            }
+        }
+    }
+
+    // The interpreter slice with every instruction reported to the profiler
+    private void runProfiledSlice(long retireLimit) throws Exception {
+        if (interruptRequested) {
+            takeInterrupt();
+        }
+        for (int i = 0; i < INTERPRETER_SLICE && running && !idleRequested
+                && instructionsRetired < retireLimit; i++) {
+            if (checkIdleLoop()) {
+                return;
+            }
+            int address = pc;
+            PredecodedInstruction instruction = fetch();
+            int next = pc;
+            execute(instruction);
+            retire(instruction, next);
+            profiler.instruction(instruction, address, pc);
+        }
+    }
+
     private void fetchExecuteCycle() throws Exception {
-        // Check for infinite loop
+        if (idleRequested) {
+            idle();
+            return;
+        }
+        if (executionMode != ExecutionMode.INTERPRETER) {
+            // The block engine reports single-instruction self loops itself
+            blockEngine.execute(Long.MAX_VALUE);
+            return;
+        }
+        if (checkIdleLoop()) {
+            return;
+        }
+        // Fetch the pre-decoded instruction for pc, decoding it only on a cache miss
+        PredecodedInstruction instruction = fetch();
+        int next = pc;
+        execute(instruction); // Viet them update cho pc, cpu sau nay
+        retire(instruction, next);
+    }
+
+    // A branch counts as taken when it left pc somewhere other than the next instruction
+    private void retire(PredecodedInstruction instruction, int next) {
+        instructionsRetired++;
+        int event = instruction.event;
+        if (event != PredecodedInstruction.EVENT_BRANCH || pc != next) {
+            events[event]++;
+        }
+    }
+
+    // An instruction that keeps jumping to itself can only be left through
+    // an interrupt, so after LOOP_THRESHOLD repeats it is treated like WFI
+    boolean checkIdleLoop() {
         if (pc == lastPC) {
             loopCount++;
             if (loopCount > LOOP_THRESHOLD) {
-                System.out.println("Infinite loop detected at PC: 0x" + Integer.toHexString(pc));
-                System.out.println("Program halted after " + LOOP_THRESHOLD + " iterations");
-                this.running = false;
-                return;
+                loopCount = 0;
+                requestIdle();
+                return true;
             }
         } else {
             lastPC = pc;
             loopCount = 0;
         }
-        // Fetch the instruction from memory at the address in the pc register
-        int instructionFetched = fetch();
-        InstructionDecoded instructionDecoded = decode(instructionFetched);
-        execute(instructionDecoded); // Viet them update cho pc, cpu sau nay
-        // System.out.println(instructionDecoded.toString());
-        // displayRegisters();
+        return false;
     }
 
-    private int fetch() throws MemoryAccessException {
-        // Read 32-bit instruction from memory at PC
-        int instruction = 0;
-
-        // Read 4 bytes and combine them
-        try {
-            byte byte0 = memory.readByte(pc);
-            byte byte1 = memory.readByte(pc + 1);
-            byte byte2 = memory.readByte(pc + 2);
-            byte byte3 = memory.readByte(pc + 3);
+    private PredecodedInstruction fetch() throws MemoryAccessException {
+        PredecodedInstruction instruction = predecodedAt(pc);
 
-            // Combine bytes into 32-bit instruction
-            instruction = (byte3 & 0xFF) << 24
-                    | (byte2 & 0xFF) << 16
-                    | (byte1 & 0xFF) << 8
-                    | (byte0 & 0xFF);
-
-            // Increment PC by instruction size (4 bytes)
-            pc += INSTRUCTION_SIZE;
+        // Step past the instruction, 2 bytes for a compressed one
+        pc += instruction.size;
+        return instruction;
+    }
 
-        } catch (Exception e) {
-            throw new MemoryAccessException("Failed to fetch instruction at PC: " + pc);
+    PredecodedInstruction predecodedAt(int pc) throws MemoryAccessException {
+        PredecodedInstruction instruction = decodeCache.get(pc);
+        if (instruction == null) {
+            int low;
+            int high = 0;
+            try {
+                low = memory.fetchHalfWord(pc);
+                if (!CompressedInstruction.isCompressed(low)) {
+                    high = memory.fetchHalfWord(pc + 2);
+                }
+            } catch (Exception e) {
+                throw new MemoryAccessException("Failed to fetch instruction at PC: " + pc);
+            }
+            if (CompressedInstruction.isCompressed(low)) {
+                // Expanded once here, executed like any other instruction from then on
+                instruction = PredecodedInstruction.decode(CompressedInstruction.expand(low), pc).compressed();
+            } else {
+                instruction = PredecodedInstruction.decode(high << 16 | low, pc);
+                if (((pc + 2) & PAGE_MASK) == 0) {
+                    // The second half is on the next page, a write there must drop this one too
+                    memory.markCodePage(pc + 2);
+                    straddlingPages.set((pc + 2) >>> CodeCache.PAGE_SHIFT);
+                }
+            }
+            decodeCache.put(pc, instruction);
+            memory.markCodePage(pc);
         }
-
         return instruction;
     }
 
-    private InstructionDecoded decode(int instructionInt) {
-        // Combine the bytes into a 32-bit instruction
-        /*
-         * int instructionInt = (instruction[3] & 0xFF) << 24
-         * | (instruction[2] & 0xFF) << 16
-         * | (instruction[1] & 0xFF) << 8
-         * | (instruction[0] & 0xFF);
-         */
-        InstructionDecoded instruction = new InstructionDecoded();
-
-        // Extract instruction fields based on RISC-V RV32I format
-        int opcode = instructionInt & 0x7F; // bits 0-6
-        instruction.setOpcode(opcode);
-        int rd = (instructionInt >> 7) & 0x1F; // bits 7-11
-        instruction.setRd(rd);
-        int func3 = (instructionInt >> 12) & 0x7; // bits 12-14
-        instruction.setFunc3(func3);
-        int rs1 = (instructionInt >> 15) & 0x1F; // bits 15-19
-        instruction.setRs1(rs1);
-        int rs2 = (instructionInt >> 20) & 0x1F; // bits 20-24
-        instruction.setRs2(rs2);
-        int func7 = (instructionInt >> 25) & 0x7F; // bits 25-31
-        instruction.setFunc7(func7);
-
-        // Immediate values for different instruction formats
-        // I-type: Sign extended 12-bit immediate
-        int imm_i = ((instructionInt >> 20) << 20) >> 20;
-        instruction.setImm_i(imm_i);
-
-        // S-type: Sign extended 12-bit immediate
-        int imm_s = (((instructionInt >> 25) << 5) | ((instructionInt >> 7) & 0x1F));
-        imm_s = (imm_s << 20) >> 20; // Sign extend
-        instruction.setImm_s(imm_s);
-
-        // B-type: Sign extended 13-bit immediate
-        int imm_b = (((instructionInt >> 31) << 12) // imm[12]
-                |
-                ((instructionInt >> 7) & 0x1) << 11) // imm[11]
-                |
-                ((instructionInt >> 25) & 0x3F) << 5 // imm[10:5]
-                |
-                ((instructionInt >> 8) & 0xF) << 1; // imm[4:1]
-        imm_b = (imm_b << 19) >> 19; // Sign extend
-        instruction.setImm_b(imm_b);
-
-        // U-type: 20-bit immediate, shifted left by 12
-        int imm_u = instructionInt & 0xFFFFF000;
-        instruction.setImm_u(imm_u);
-
-        // J-type: Sign extended 21-bit immediate
-        int imm_j = (((instructionInt >> 31) << 20) // imm[20]
-                |
-                ((instructionInt >> 12) & 0xFF) << 12 // imm[19:12]
-                |
-                ((instructionInt >> 20) & 0x1) << 11 // imm[11]
-                |
-                ((instructionInt >> 21) & 0x3FF) << 1); // imm[10:1]
-        imm_j = (imm_j << 11) >> 11; // Sign extend
-        instruction.setImm_j(imm_j);
-        return instruction;
+    void executeInstruction(PredecodedInstruction instruction) {
+        execute(instruction);
+    }
 
+    /**
+     * Executes an instruction from the middle of a block with the counters
+     * including the instructions before it, which the block engine would
+     * otherwise only add once the whole block has run.
+     */
+    void executeCounted(PredecodedInstruction instruction, int retired, int loads, int stores) {
+        instructionsRetired += retired;
+        events[PredecodedInstruction.EVENT_LOAD] += loads;
+        events[PredecodedInstruction.EVENT_STORE] += stores;
+        try {
+            execute(instruction);
+        } finally {
+            instructionsRetired -= retired;
+            events[PredecodedInstruction.EVENT_LOAD] -= loads;
+            events[PredecodedInstruction.EVENT_STORE] -= stores;
+        }
     }
 
-    private void execute(InstructionDecoded instruction) {
-        int opcode = instruction.getOpcode();
-        int rd = instruction.getRd();
-        int rs1 = instruction.getRs1();
-        int rs2 = instruction.getRs2();
-        int func3 = instruction.getFunc3();
-        int func7 = instruction.getFunc7();
-        int imm_i = instruction.getImm_i();
-        int imm_s = instruction.getImm_s();
-        int imm_b = instruction.getImm_b();
-        int imm_u = instruction.getImm_u();
-        int imm_j = instruction.getImm_j();
-        switch (opcode) {
+    private void execute(PredecodedInstruction instruction) {
+        int rd = instruction.rd;
+        int rs1 = instruction.rs1;
+        int rs2 = instruction.rs2;
+        int imm = instruction.imm;
+        switch (instruction.kind) {
             // R-type instructions
-            case 0b0110011: // R-type
-                switch (func3) {
-                    case 0b000: // ADD/SUB
-                        if (func7 == 0) {
-                            x[rd] = x[rs1] + x[rs2]; // ADD
-                        } else if (func7 == 0b0100000) {
-                            x[rd] = x[rs1] - x[rs2]; // SUB
-                        }
-                        break;
-                    case 0b001: // SLL
-                        x[rd] = x[rs1] << (x[rs2] & 0x1F);
-                        break;
-                    case 0b010: // SLT
-                        x[rd] = (x[rs1] < x[rs2]) ? 1 : 0;
-                        break;
-                    case 0b011: // SLTU
-                        x[rd] = (Integer.compareUnsigned(x[rs1], x[rs2]) < 0) ? 1 : 0;
-                        break;
-                    case 0b100: // XOR
-                        x[rd] = x[rs1] ^ x[rs2];
-                        break;
-                    case 0b101: // SRL/SRA
-                        if (func7 == 0) {
-                            x[rd] = x[rs1] >>> (x[rs2] & 0x1F); // SRL
-                        } else if (func7 == 0b0100000) {
-                            x[rd] = x[rs1] >> (x[rs2] & 0x1F); // SRA
-                        }
-                        break;
-                    case 0b110: // OR
-                        x[rd] = x[rs1] | x[rs2];
-                        break;
-                    case 0b111: // AND
-                        x[rd] = x[rs1] & x[rs2];
-                        break;
-                }
+            case PredecodedInstruction.ADD:
+                x[rd] = x[rs1] + x[rs2];
+                break;
+            case PredecodedInstruction.SUB:
+                x[rd] = x[rs1] - x[rs2];
+                break;
+            case PredecodedInstruction.SLL:
+                x[rd] = x[rs1] << (x[rs2] & 0x1F);
+                break;
+            case PredecodedInstruction.SLT:
+                x[rd] = (x[rs1] < x[rs2]) ? 1 : 0;
+                break;
+            case PredecodedInstruction.SLTU:
+                x[rd] = (Integer.compareUnsigned(x[rs1], x[rs2]) < 0) ? 1 : 0;
+                break;
+            case PredecodedInstruction.XOR:
+                x[rd] = x[rs1] ^ x[rs2];
+                break;
+            case PredecodedInstruction.SRL:
+                x[rd] = x[rs1] >>> (x[rs2] & 0x1F);
+                break;
+            case PredecodedInstruction.SRA:
+                x[rd] = x[rs1] >> (x[rs2] & 0x1F);
+                break;
+            case PredecodedInstruction.OR:
+                x[rd] = x[rs1] | x[rs2];
+                break;
+            case PredecodedInstruction.AND:
+                x[rd] = x[rs1] & x[rs2];
+                break;
+
+            // RV32M instructions
+            case PredecodedInstruction.MUL:
+                x[rd] = x[rs1] * x[rs2];
+                break;
+            case PredecodedInstruction.MULH:
+                x[rd] = mulh(x[rs1], x[rs2]);
+                break;
+            case PredecodedInstruction.MULHSU:
+                x[rd] = mulhsu(x[rs1], x[rs2]);
+                break;
+            case PredecodedInstruction.MULHU:
+                x[rd] = mulhu(x[rs1], x[rs2]);
+                break;
+            case PredecodedInstruction.DIV:
+                x[rd] = div(x[rs1], x[rs2]);
+                break;
+            case PredecodedInstruction.DIVU:
+                x[rd] = divu(x[rs1], x[rs2]);
+                break;
+            case PredecodedInstruction.REM:
+                x[rd] = rem(x[rs1], x[rs2]);
+                break;
+            case PredecodedInstruction.REMU:
+                x[rd] = remu(x[rs1], x[rs2]);
+                break;
+
+            // Zbb instructions
+            case PredecodedInstruction.ANDN:
+                x[rd] = x[rs1] & ~x[rs2];
+                break;
+            case PredecodedInstruction.ORN:
+                x[rd] = x[rs1] | ~x[rs2];
+                break;
+            case PredecodedInstruction.XNOR:
+                x[rd] = ~(x[rs1] ^ x[rs2]);
+                break;
+            case PredecodedInstruction.MIN:
+                x[rd] = Math.min(x[rs1], x[rs2]);
+                break;
+            case PredecodedInstruction.MINU:
+                x[rd] = minu(x[rs1], x[rs2]);
+                break;
+            case PredecodedInstruction.MAX:
+                x[rd] = Math.max(x[rs1], x[rs2]);
+                break;
+            case PredecodedInstruction.MAXU:
+                x[rd] = maxu(x[rs1], x[rs2]);
+                break;
+            case PredecodedInstruction.ROL:
+                x[rd] = Integer.rotateLeft(x[rs1], x[rs2]);
+                break;
+            case PredecodedInstruction.ROR:
+                x[rd] = Integer.rotateRight(x[rs1], x[rs2]);
+                break;
+            case PredecodedInstruction.RORI:
+                x[rd] = Integer.rotateRight(x[rs1], imm);
+                break;
+            case PredecodedInstruction.CLZ:
+                x[rd] = Integer.numberOfLeadingZeros(x[rs1]);
+                break;
+            case PredecodedInstruction.CTZ:
+                x[rd] = Integer.numberOfTrailingZeros(x[rs1]);
+                break;
+            case PredecodedInstruction.CPOP:
+                x[rd] = Integer.bitCount(x[rs1]);
+                break;
+            case PredecodedInstruction.SEXT_B:
+                x[rd] = (byte) x[rs1];
+                break;
+            case PredecodedInstruction.SEXT_H:
+                x[rd] = (short) x[rs1];
+                break;
+            case PredecodedInstruction.ZEXT_H:
+                x[rd] = x[rs1] & 0xFFFF;
+                break;
+            case PredecodedInstruction.ORC_B:
+                x[rd] = orcB(x[rs1]);
+                break;
+            case PredecodedInstruction.REV8:
+                x[rd] = Integer.reverseBytes(x[rs1]);
                 break;
 
             // I-type instructions
-            case 0b0010011: // I-type ALU
-                switch (func3) {
-                    case 0b000: // ADDI
-                        x[rd] = x[rs1] + imm_i;
-                        break;
-                    case 0b001: // SLLI
-                        x[rd] = x[rs1] << (imm_i & 0x1F);
-                        break;
-                    case 0b010: // SLTI
-                        x[rd] = (x[rs1] < imm_i) ? 1 : 0;
-                        break;
-                    case 0b011: // SLTIU
-                        x[rd] = (Integer.compareUnsigned(x[rs1], imm_i) < 0) ? 1 : 0;
-                        break;
-                    case 0b100: // XORI
-                        x[rd] = x[rs1] ^ imm_i;
-                        break;
-                    case 0b101: // SRLI/SRAI
-                        if ((imm_i & 0xFE0) == 0) {
-                            x[rd] = x[rs1] >>> (imm_i & 0x1F); // SRLI
-                        } else if ((imm_i & 0xFE0) == 0x400) {
-                            x[rd] = x[rs1] >> (imm_i & 0x1F); // SRAI
-                        }
-                        break;
-                    case 0b110: // ORI
-                        x[rd] = x[rs1] | imm_i;
-                        break;
-                    case 0b111: // ANDI
-                        x[rd] = x[rs1] & imm_i;
-                        break;
-                }
+            case PredecodedInstruction.ADDI:
+                x[rd] = x[rs1] + imm;
+                break;
+            case PredecodedInstruction.SLLI:
+                x[rd] = x[rs1] << imm;
+                break;
+            case PredecodedInstruction.SLTI:
+                x[rd] = (x[rs1] < imm) ? 1 : 0;
+                break;
+            case PredecodedInstruction.SLTIU:
+                x[rd] = (Integer.compareUnsigned(x[rs1], imm) < 0) ? 1 : 0;
+                break;
+            case PredecodedInstruction.XORI:
+                x[rd] = x[rs1] ^ imm;
+                break;
+            case PredecodedInstruction.SRLI:
+                x[rd] = x[rs1] >>> imm;
+                break;
+            case PredecodedInstruction.SRAI:
+                x[rd] = x[rs1] >> imm;
+                break;
+            case PredecodedInstruction.ORI:
+                x[rd] = x[rs1] | imm;
+                break;
+            case PredecodedInstruction.ANDI:
+                x[rd] = x[rs1] & imm;
                 break;
 
             // Load instructions
-            case 0b0000011: // LOAD
-                int address = mapAddress(x[rs1] + imm_i);
-                if (!checkUARTAddress(address)) {
-                    ;// If address is in data segment
-                    if (address < MemoryManager.DATA_START) {
-                        int temp = address + MemoryManager.RODATA_START;
-                        if (temp < MemoryManager.DATA_START) {
-                            address = MemoryManager.DATA_START + address;
-                        } else {
-                            address += MemoryManager.TEXT_START;
-                        }
-                    }
-                }
-                try {
-                    switch (func3) {
-                        case 0b000: // LB
-                            x[rd] = memory.readByte(address);
-                            break;
-                        case 0b001: // LH
-                            x[rd] = memory.readHalfWord(address);
-                            break;
-                        case 0b010: // LW
-                            x[rd] = memory.readWord(address);
-                            break;
-                        case 0b100: // LBU
-                            x[rd] = memory.readByte(address) & 0xFF;
-                            break;
-                        case 0b101: // LHU
-                            x[rd] = memory.readHalfWord(address) & 0xFFFF;
-                            break;
-                    }
-                } catch (MemoryAccessException e) {
-                    // Handle memory access exception
-                    throw new RuntimeException("Memory access error during load", e);
+            case PredecodedInstruction.LB:
+            case PredecodedInstruction.LH:
+            case PredecodedInstruction.LW:
+            case PredecodedInstruction.LBU:
+            case PredecodedInstruction.LHU:
+                int value = load(instruction.kind, x[rs1] + imm);
+                if (rd != 0) {
+                    x[rd] = value;
                 }
                 break;
 
             // Store instructions
-            case 0b0100011: // STORE
-                address = mapAddress(x[rs1] + imm_s);
-                if (!checkUARTAddress(address)) {
-                    if (address + MemoryManager.DATA_START < MemoryManager.HEAP_START) {
-                        address = MemoryManager.DATA_START + address;
-                    }
+            case PredecodedInstruction.SB:
+            case PredecodedInstruction.SH:
+            case PredecodedInstruction.SW:
+                store(instruction.kind, x[rs1] + imm, x[rs2]);
+                break;
+
+            // Branch instructions, imm is the absolute target
+            case PredecodedInstruction.BEQ:
+                if (x[rs1] == x[rs2]) {
+                    pc = imm;
                 }
-                try {
-                    switch (func3) {
-                        case 0b000: // SB
-                            memory.writeByte(address, (byte) x[rs2]);
-                            break;
-                        case 0b001: // SH
-                            memory.writeHalfWord(address, (short) x[rs2]);
-                            break;
-                        case 0b010: // SW
-                            memory.writeWord(address, x[rs2]);
-                            break;
-                    }
-                } catch (MemoryAccessException e) {
-                    throw new RuntimeException("Memory access error during store", e);
+                break;
+            case PredecodedInstruction.BNE:
+                if (x[rs1] != x[rs2]) {
+                    pc = imm;
                 }
                 break;
-
-            // Branch instructions
-            case 0b1100011: // BRANCH
-                boolean takeBranch = false;
-                switch (func3) {
-                    case 0b000: // BEQ
-                        takeBranch = (x[rs1] == x[rs2]);
-                        break;
-                    case 0b001: // BNE
-                        takeBranch = (x[rs1] != x[rs2]);
-                        break;
-                    case 0b100: // BLT
-                        takeBranch = (x[rs1] < x[rs2]);
-                        break;
-                    case 0b101: // BGE
-                        takeBranch = (x[rs1] >= x[rs2]);
-                        break;
-                    case 0b110: // BLTU
-                        takeBranch = (Integer.compareUnsigned(x[rs1], x[rs2]) < 0);
-                        break;
-                    case 0b111: // BGEU
-                        takeBranch = (Integer.compareUnsigned(x[rs1], x[rs2]) >= 0);
-                        break;
+            case PredecodedInstruction.BLT:
+                if (x[rs1] < x[rs2]) {
+                    pc = imm;
                 }
-                if (takeBranch) {
-                    pc += imm_b - INSTRUCTION_SIZE; // Subtract INSTRUCTION_SIZE because pc was already incremented in
-                                                    // fetch
-                    /*
-                     * if (lastPCBranch == -1) {
-                     * lastPCBranch = pc;
-                     * } else if (pc == lastPCBranch) {
-                     * loopCountBranch++;
-                     * } else {
-                     * loopCountBranch = 0;
-                     * lastPCBranch = -1;
-                     * }
-                     * if (loopCountBranch > 20) {
-                     * loopCountBranch = 0;
-                     * lastPCBranch = -1;
-                     * System.out.println("Getting input");
-                     * memory.getInput(reader.nextLine());
-                     * }
-                     */
+                break;
+            case PredecodedInstruction.BGE:
+                if (x[rs1] >= x[rs2]) {
+                    pc = imm;
+                }
+                break;
+            case PredecodedInstruction.BLTU:
+                if (Integer.compareUnsigned(x[rs1], x[rs2]) < 0) {
+                    pc = imm;
+                }
+                break;
+            case PredecodedInstruction.BGEU:
+                if (Integer.compareUnsigned(x[rs1], x[rs2]) >= 0) {
+                    pc = imm;
                 }
                 break;
 
             // Jump instructions
-            case 0b1101111: // JAL
+            case PredecodedInstruction.JAL:
                 if (rd != 0) {
                     x[rd] = pc;
                 }
-                pc += imm_j - INSTRUCTION_SIZE;
+                pc = imm;
                 break;
 
-            case 0b1100111: // JALR
+            case PredecodedInstruction.JALR:
                 int temp = pc;
-                pc = (x[rs1] + imm_i) & ~1;
+                pc = (x[rs1] + imm) & ~1;
                 if (rd != 0) {
                     x[rd] = temp;
                 }
                 break;
 
-            // LUI and AUIPC
-            case 0b0110111: // LUI
-                x[rd] = imm_u;
+            // LUI and AUIPC, both carry their final value
+            case PredecodedInstruction.LUI:
+            case PredecodedInstruction.AUIPC:
+                x[rd] = imm;
                 break;
 
-            case 0b0010111: // AUIPC
-                x[rd] = pc - INSTRUCTION_SIZE + imm_u;
+            case PredecodedInstruction.FENCE:
+                VarHandle.fullFence();
                 break;
 
-            case 0b1110011: // SYSTEM
-                if (func3 == 0) {
-                    if (imm_i == 0) { // ECALL
-                        if (x[17] == 93) { // Exit syscall
-                            this.running = false;
-                            System.out.println("Program exited with code: " + x[10]);
-                        }
-                    } else if (imm_i == 1) { // EBREAK
-                        handleQemuSemihosting();
-                    }
+            case PredecodedInstruction.FENCE_I:
+                remoteCodeWrites.clear();
+                decodeCache.clear(null);
+                straddlingPages.clear();
+                blockEngine.flush();
+                break;
+
+            case PredecodedInstruction.LR_W:
+                loadReserved(rd, x[rs1]);
+                break;
+            case PredecodedInstruction.SC_W:
+                storeConditional(rd, x[rs1], x[rs2]);
+                break;
+            case PredecodedInstruction.AMOSWAP_W:
+            case PredecodedInstruction.AMOADD_W:
+            case PredecodedInstruction.AMOXOR_W:
+            case PredecodedInstruction.AMOAND_W:
+            case PredecodedInstruction.AMOOR_W:
+            case PredecodedInstruction.AMOMIN_W:
+            case PredecodedInstruction.AMOMAX_W:
+            case PredecodedInstruction.AMOMINU_W:
+            case PredecodedInstruction.AMOMAXU_W:
+                int old = amo(instruction.kind, x[rs1], x[rs2]);
+                if (rd != 0) {
+                    x[rd] = old;
+                }
+                break;
+
+            // F and D instructions
+            case PredecodedInstruction.FLW:
+            case PredecodedInstruction.FLD:
+                loadFloat(instruction.kind, rd, x[rs1] + imm);
+                break;
+            case PredecodedInstruction.FSW:
+            case PredecodedInstruction.FSD:
+                storeFloat(instruction.kind, rs2, x[rs1] + imm);
+                break;
+            case PredecodedInstruction.FMADD_S:
+            case PredecodedInstruction.FMSUB_S:
+            case PredecodedInstruction.FNMSUB_S:
+            case PredecodedInstruction.FNMADD_S:
+            case PredecodedInstruction.FMADD_D:
+            case PredecodedInstruction.FMSUB_D:
+            case PredecodedInstruction.FNMSUB_D:
+            case PredecodedInstruction.FNMADD_D:
+            case PredecodedInstruction.FADD_S:
+            case PredecodedInstruction.FSUB_S:
+            case PredecodedInstruction.FMUL_S:
+            case PredecodedInstruction.FDIV_S:
+            case PredecodedInstruction.FSQRT_S:
+            case PredecodedInstruction.FSGNJ_S:
+            case PredecodedInstruction.FSGNJN_S:
+            case PredecodedInstruction.FSGNJX_S:
+            case PredecodedInstruction.FMIN_S:
+            case PredecodedInstruction.FMAX_S:
+            case PredecodedInstruction.FADD_D:
+            case PredecodedInstruction.FSUB_D:
+            case PredecodedInstruction.FMUL_D:
+            case PredecodedInstruction.FDIV_D:
+            case PredecodedInstruction.FSQRT_D:
+            case PredecodedInstruction.FSGNJ_D:
+            case PredecodedInstruction.FSGNJN_D:
+            case PredecodedInstruction.FSGNJX_D:
+            case PredecodedInstruction.FMIN_D:
+            case PredecodedInstruction.FMAX_D:
+            case PredecodedInstruction.FCVT_S_D:
+            case PredecodedInstruction.FCVT_D_S:
+                fpu.compute(instruction.kind, rd, rs1, rs2, imm);
+                break;
+            case PredecodedInstruction.FCVT_W_S:
+            case PredecodedInstruction.FCVT_WU_S:
+            case PredecodedInstruction.FMV_X_W:
+            case PredecodedInstruction.FEQ_S:
+            case PredecodedInstruction.FLT_S:
+            case PredecodedInstruction.FLE_S:
+            case PredecodedInstruction.FCLASS_S:
+            case PredecodedInstruction.FCVT_W_D:
+            case PredecodedInstruction.FCVT_WU_D:
+            case PredecodedInstruction.FEQ_D:
+            case PredecodedInstruction.FLT_D:
+            case PredecodedInstruction.FLE_D:
+            case PredecodedInstruction.FCLASS_D:
+                int result = fpu.toInteger(instruction.kind, rs1, rs2, imm);
+                if (rd != 0) {
+                    x[rd] = result;
                 }
                 break;
+            case PredecodedInstruction.FCVT_S_W:
+            case PredecodedInstruction.FCVT_S_WU:
+            case PredecodedInstruction.FMV_W_X:
+            case PredecodedInstruction.FCVT_D_W:
+            case PredecodedInstruction.FCVT_D_WU:
+                fpu.fromInteger(instruction.kind, rd, x[rs1], imm);
+                break;
+
+            case PredecodedInstruction.CSRRW:
+            case PredecodedInstruction.CSRRS:
+            case PredecodedInstruction.CSRRC:
+            case PredecodedInstruction.CSRRWI:
+            case PredecodedInstruction.CSRRSI:
+            case PredecodedInstruction.CSRRCI:
+                csrInstruction(instruction);
+                break;
+
+            case PredecodedInstruction.ECALL:
+                if (x[17] == 93) { // Exit syscall
+                    exit(x[10]);
+                } else if (hypercall(x[17])) {
+                    break;
+                } else if (mtvec != 0) {
+                    // Everything else goes to the guest's own trap handler once it has one
+                    trap(CAUSE_ECALL, pc - instruction.size);
+                }
+                break;
+
+            case PredecodedInstruction.MRET:
+                mret();
+                break;
+
+            case PredecodedInstruction.EBREAK:
+                handleQemuSemihosting();
+                break;
+
+            case PredecodedInstruction.WFI:
+                requestIdle();
+                break;
+
+            default: // NOP, FENCE and unsupported encodings
+                break;
         }
 
     }
 
-    private void handleQemuSemihosting() {
-        if (x[17] == 93) { // Exit operation
-            this.running = false;
-            System.out.println("Program exited with code: " + x[10]);
+    int load(int kind, int address) {
+        try {
+            switch (kind) {
+                case PredecodedInstruction.LB:
+                    return memory.readByte(address);
+                case PredecodedInstruction.LH:
+                    return memory.readHalfWord(address);
+                case PredecodedInstruction.LW:
+                    return memory.readWord(address);
+                case PredecodedInstruction.LBU:
+                    return memory.readByte(address) & 0xFF;
+                default: // LHU
+                    return memory.readHalfWord(address) & 0xFFFF;
+            }
+        } catch (MemoryAccessException e) {
+            // Handle memory access exception
+            throw new RuntimeException("Memory access error during load", e);
         }
     }
 
-    private void displayRegisters() {
-        String[] regNames = {
-                "zero", "ra", "sp", "gp", "tp", "t0", "t1", "t2",
-                "s0/fp", "s1", "a0", "a1", "a2", "a3", "a4", "a5",
-                "a6", "a7", "s2", "s3", "s4", "s5", "s6", "s7",
-                "s8", "s9", "s10", "s11", "t3", "t4", "t5", "t6"
-        };
+    void store(int kind, int address, int value) {
+        try {
+            switch (kind) {
+                case PredecodedInstruction.SB:
+                    memory.writeByte(address, (byte) value);
+                    break;
+                case PredecodedInstruction.SH:
+                    memory.writeHalfWord(address, (short) value);
+                    break;
+                default: // SW
+                    memory.writeWord(address, value);
+                    break;
+            }
+        } catch (MemoryAccessException e) {
+            throw new RuntimeException("Memory access error during store", e);
+        }
+    }
+
+    // Doubles move as two words, so FLD and FSD only need word alignment
+    void loadFloat(int kind, int rd, int address) {
+        try {
+            if (kind == PredecodedInstruction.FLW) {
+                fpu.setBitsS(rd, memory.readWord(address));
+            } else {
+                long low = memory.readWord(address) & 0xFFFFFFFFL;
+                fpu.f[rd] = (long) memory.readWord(address + 4) << 32 | low;
+            }
+        } catch (MemoryAccessException e) {
+            throw new RuntimeException("Memory access error during load", e);
+        }
+    }
+
+    void storeFloat(int kind, int rs2, int address) {
+        try {
+            long value = fpu.f[rs2];
+            memory.writeWord(address, (int) value);
+            if (kind == PredecodedInstruction.FSD) {
+                memory.writeWord(address + 4, (int) (value >>> 32));
+            }
+        } catch (MemoryAccessException e) {
+            throw new RuntimeException("Memory access error during store", e);
+        }
+    }
+
+    // RV32A
+
+    private void loadReserved(int rd, int address) {
+        try {
+            int value = memory.readWord(address);
+            VarHandle.fullFence();
+            reservationValid = true;
+            reservationAddress = address;
+            reservationValue = value;
+            if (rd != 0) {
+                x[rd] = value;
+            }
+        } catch (MemoryAccessException e) {
+            throw new RuntimeException("Memory access error during load", e);
+        }
+    }
+
+    // Succeeds if the word still holds the reserved value, checked and written in one CAS
+    private void storeConditional(int rd, int address, int value) {
+        boolean success = false;
+        try {
+            if (reservationValid && reservationAddress == address) {
+                success = memory.compareAndExchangeWord(address, reservationValue, value) == reservationValue;
+            }
+        } catch (MemoryAccessException e) {
+            throw new RuntimeException("Memory access error during store", e);
+        } finally {
+            reservationValid = false;
+        }
+        if (rd != 0) {
+            x[rd] = success ? 0 : 1;
+        }
+    }
+
+    private int amo(int kind, int address, int operand) {
+        try {
+            switch (kind) {
+                case PredecodedInstruction.AMOSWAP_W:
+                    return memory.getAndUpdateWord(address, (a, b) -> b, operand);
+                case PredecodedInstruction.AMOADD_W:
+                    return memory.getAndUpdateWord(address, Integer::sum, operand);
+                case PredecodedInstruction.AMOXOR_W:
+                    return memory.getAndUpdateWord(address, (a, b) -> a ^ b, operand);
+                case PredecodedInstruction.AMOAND_W:
+                    return memory.getAndUpdateWord(address, (a, b) -> a & b, operand);
+                case PredecodedInstruction.AMOOR_W:
+                    return memory.getAndUpdateWord(address, (a, b) -> a | b, operand);
+                case PredecodedInstruction.AMOMIN_W:
+                    return memory.getAndUpdateWord(address, Math::min, operand);
+                case PredecodedInstruction.AMOMAX_W:
+                    return memory.getAndUpdateWord(address, Math::max, operand);
+                case PredecodedInstruction.AMOMINU_W:
+                    return memory.getAndUpdateWord(address,
+                            (a, b) -> Integer.compareUnsigned(a, b) < 0 ? a : b, operand);
+                default: // AMOMAXU_W
+                    return memory.getAndUpdateWord(address,
+                            (a, b) -> Integer.compareUnsigned(a, b) > 0 ? a : b, operand);
+            }
+        } catch (MemoryAccessException e) {
+            throw new RuntimeException("Memory access error during atomic operation", e);
+        }
+    }
+
+    // Zicsr
+
+    private void csrInstruction(PredecodedInstruction instruction) {
+        int csr = instruction.imm;
+        int kind = instruction.kind;
+        // The immediate forms carry a 5-bit zero-extended value in the rs1 field
+        int operand = kind >= PredecodedInstruction.CSRRWI ? instruction.rs1 : x[instruction.rs1];
+        boolean write = kind == PredecodedInstruction.CSRRW || kind == PredecodedInstruction.CSRRWI
+                || instruction.rs1 != 0;
+        int old = readCsr(csr);
+        if (write) {
+            switch (kind) {
+                case PredecodedInstruction.CSRRW:
+                case PredecodedInstruction.CSRRWI:
+                    writeCsr(csr, operand);
+                    break;
+                case PredecodedInstruction.CSRRS:
+                case PredecodedInstruction.CSRRSI:
+                    writeCsr(csr, old | operand);
+                    break;
+                default: // CSRRC, CSRRCI
+                    writeCsr(csr, old & ~operand);
+                    break;
+            }
+        }
+        if (instruction.rd != 0) {
+            x[instruction.rd] = old;
+        }
+    }
+
+    // RV32M helpers, shared with the block engine and the JIT. The 64-bit
+    // product of two 32-bit values is exact, so the high word is a shift.
+    // Division never traps: x / 0 is all ones and x % 0 is x, and Java's own
+    // MIN_VALUE / -1 == MIN_VALUE and MIN_VALUE % -1 == 0 match the spec.
+    static int mulh(int a, int b) {
+        return (int) (((long) a * b) >> 32);
+    }
+
+    static int mulhsu(int a, int b) {
+        return (int) (((long) a * Integer.toUnsignedLong(b)) >> 32);
+    }
+
+    static int mulhu(int a, int b) {
+        return (int) ((Integer.toUnsignedLong(a) * Integer.toUnsignedLong(b)) >>> 32);
+    }
+
+    static int div(int a, int b) {
+        return b == 0 ? -1 : a / b;
+    }
+
+    static int divu(int a, int b) {
+        return b == 0 ? -1 : Integer.divideUnsigned(a, b);
+    }
+
+    static int rem(int a, int b) {
+        return b == 0 ? a : a % b;
+    }
+
+    static int remu(int a, int b) {
+        return b == 0 ? a : Integer.remainderUnsigned(a, b);
+    }
+
+    // Zbb helpers without a single JDK counterpart
+    static int minu(int a, int b) {
+        return Integer.compareUnsigned(a, b) < 0 ? a : b;
+    }
 
-        System.out.println("\nRegister Values:");
-        System.out.println("PC: 0x" + String.format("%08X", pc));
+    static int maxu(int a, int b) {
+        return Integer.compareUnsigned(a, b) < 0 ? b : a;
+    }
+
+    // Every non-zero byte becomes 0xFF: adding 0x7F to the low seven bits
+    // carries into the top bit exactly when one of them is set
+    static int orcB(int a) {
+        int nonZero = ((a & 0x7F7F7F7F) + 0x7F7F7F7F | a) & 0x80808080;
+        return (nonZero >>> 7) * 0xFF;
+    }
 
-        for (int i = 0; i < x.length; i++) {
-            if (x[i] != 0) { // Only show non-zero registers to reduce clutter
-                System.out.printf("x%d (%s): 0x%08X\n", i, regNames[i], x[i]);
+    // Each one is a single instruction to the guest and one bulk operation
+    // on the host. memcpy behaves like memmove.
+    private boolean hypercall(int number) {
+        try {
+            switch (number) {
+                case HC_MEMCPY:
+                    memory.copy(x[10], x[11], x[12]);
+                    return true; // a0 already holds dest
+                case HC_MEMSET:
+                    memory.fill(x[10], x[12], (byte) x[11]);
+                    return true;
+                case HC_STRLEN:
+                    x[10] = memory.stringLength(x[10]);
+                    return true;
+                default:
+                    return false;
             }
+        } catch (MemoryAccessException e) {
+            throw new RuntimeException("Memory access error during hypercall " + number, e);
         }
-        System.out.println("------------------------");
     }
 
-    private int mapAddress(int virtualAddr) {
-        // Handle UART addresses
-        if (checkUARTAddress(virtualAddr)) {
-            return virtualAddr;
+    // Machine-mode traps
+
+    /**
+     * Called by devices on any thread. The interrupt is taken at the next
+     * block or slice boundary if mie and mstatus.MIE allow it, and an idle
+     * hart wakes up for it either way, as WFI requires.
+     */
+    void raiseInterrupt(int bit) {
+        mip.getAndUpdate(pending -> pending | bit);
+        interruptRequested = true;
+        idleMonitor.wake();
+    }
+
+    void clearInterrupt(int bit) {
+        mip.getAndUpdate(pending -> pending & ~bit);
+    }
+
+    // CPU thread, between blocks: the flag is cleared before mip is read, so
+    // an interrupt raised meanwhile sets it again and is not lost
+    void takeInterrupt() {
+        interruptRequested = false;
+        int pending = mip.get() & mie;
+        if (pending == 0 || (mstatus & MSTATUS_MIE) == 0) {
+            return;
         }
+        // External before software before timer
+        int cause = (pending & MIP_MEIP) != 0 ? 11 : (pending & MIP_MSIP) != 0 ? 3 : 7;
+        trap(INTERRUPT | cause, pc);
+    }
+
+    private void trap(int cause, int epc) {
+        mepc = epc;
+        mcause = cause;
+        mtval = 0;
+        // MPIE = MIE, then MIE = 0
+        mstatus = mstatus & ~(MSTATUS_MIE | MSTATUS_MPIE) | (mstatus & MSTATUS_MIE) << 4;
+        int base = mtvec & ~3;
+        // Vectored mode sends interrupts to base + 4 * cause
+        pc = (mtvec & 3) == 1 && cause < 0 ? base + 4 * (cause & ~INTERRUPT) : base;
+    }
+
+    private void mret() {
+        pc = mepc;
+        mstatus = mstatus & ~MSTATUS_MIE | (mstatus & MSTATUS_MPIE) >>> 4 | MSTATUS_MPIE;
+        recheckInterrupts();
+    }
 
-        // Handle addresses in 0x80000000+ range
-        if (virtualAddr < 0 || virtualAddr >= 0x80000000L) {
-            // Convert to unsigned using long to handle overflow
-            long unsignedAddr = virtualAddr & 0xFFFFFFFFL;
+    // After interrupts were enabled, anything already pending is taken at the next boundary
+    private void recheckInterrupts() {
+        if ((mip.get() & mie) != 0 && (mstatus & MSTATUS_MIE) != 0) {
+            interruptRequested = true;
+        }
+    }
 
-            // Calculate offset from base (0x80000000)
-            int offset = (int) (unsignedAddr - 0x80000000L);
+    // Zicntr and Zihpm: one cycle per instruction, so cycle follows instret
+    private long rawCounter(int index) {
+        switch (index) {
+            case 0: // cycle
+            case 2: // instret
+                return instructionsRetired;
+            case 1: // time, the CLINT's mtime
+                return memory.getClint().getTime();
+            case HPM_LOADS:
+                return events[PredecodedInstruction.EVENT_LOAD];
+            case HPM_STORES:
+                return events[PredecodedInstruction.EVENT_STORE];
+            case HPM_TAKEN_BRANCHES:
+                return events[PredecodedInstruction.EVENT_BRANCH];
+            case HPM_UART_ACCESSES:
+                return memory.getUart().getAccessCount();
+            default:
+                return 0;
+        }
+    }
 
-            // Map data accesses to data segment instead of text segment
+    long counter(int index) {
+        return index < COUNTERS ? rawCounter(index) + counterOffsets[index] : 0;
+    }
 
-            /*
-             * if (offset >= 0x100000) { // If offset is beyond first 4KB
-             * return MemoryManager.DATA_START + (offset - 0x100000);
-             * }
-             */
+    // time is read-only. The writing instruction itself does not count, so
+    // the next instruction reads back exactly the value written.
+    private void writeCounter(int index, long value) {
+        if (index == 0 || index == 2) {
+            counterOffsets[index] = value - rawCounter(index) - 1;
+        } else if (index > 2 && index < COUNTERS) {
+            counterOffsets[index] = value - rawCounter(index);
+        }
+    }
 
-            // Map first 4KB to text segment (for instruction fetch)
-            // return MemoryManager.TEXT_START + offset;
-            return offset;
+    // Unimplemented CSRs read as zero and ignore writes
+    int readCsr(int csr) {
+        switch (csr & ~0x1F) {
+            case CSR_CYCLE:
+            case CSR_MCYCLE:
+                return (int) counter(csr & 0x1F);
+            case CSR_CYCLEH:
+            case CSR_MCYCLEH:
+                return (int) (counter(csr & 0x1F) >>> 32);
+            default:
+                break;
+        }
+        if (csr >= CSR_MHPMEVENT3 && csr < CSR_MHPMEVENT3 + COUNTERS - 3) {
+            // The events are fixed, each selector reads back its counter number
+            return csr - CSR_MHPMEVENT3 + 3;
+        }
+        switch (csr) {
+            case CSR_FFLAGS:
+                return fpu.fflags;
+            case CSR_FRM:
+                return fpu.frm;
+            case CSR_FCSR:
+                return fpu.getFcsr();
+            case CSR_MHARTID:
+                return hartId;
+            case CSR_MSTATUS:
+                return mstatus | MSTATUS_MPP;
+            case CSR_MISA:
+                return MISA;
+            case CSR_MIE:
+                return mie;
+            case CSR_MTVEC:
+                return mtvec;
+            case CSR_MSCRATCH:
+                return mscratch;
+            case CSR_MEPC:
+                return mepc;
+            case CSR_MCAUSE:
+                return mcause;
+            case CSR_MTVAL:
+                return mtval;
+            case CSR_MIP:
+                return mip.get();
+            default:
+                return 0;
+        }
+    }
+
+    void writeCsr(int csr, int value) {
+        int index = csr & 0x1F;
+        switch (csr & ~0x1F) {
+            case CSR_MCYCLE:
+                writeCounter(index, counter(index) & 0xFFFFFFFF00000000L | value & 0xFFFFFFFFL);
+                return;
+            case CSR_MCYCLEH:
+                writeCounter(index, (long) value << 32 | counter(index) & 0xFFFFFFFFL);
+                return;
+            default:
+                break;
+        }
+        switch (csr) {
+            case CSR_FFLAGS:
+                fpu.fflags = value & 0x1F;
+                break;
+            case CSR_FRM:
+                fpu.frm = value & 0x7;
+                break;
+            case CSR_FCSR:
+                fpu.setFcsr(value);
+                break;
+            case CSR_MSTATUS:
+                mstatus = value & (MSTATUS_MIE | MSTATUS_MPIE);
+                recheckInterrupts();
+                break;
+            case CSR_MIE:
+                mie = value & (MIP_MSIP | MIP_MTIP | MIP_MEIP);
+                recheckInterrupts();
+                break;
+            case CSR_MTVEC:
+                // Direct and vectored modes only
+                mtvec = (value & 3) > 1 ? value & ~3 : value;
+                break;
+            case CSR_MSCRATCH:
+                mscratch = value;
+                break;
+            case CSR_MEPC:
+                mepc = value & ~1;
+                break;
+            case CSR_MCAUSE:
+                mcause = value;
+                break;
+            case CSR_MTVAL:
+                mtval = value;
+                break;
+            default:
+                break; // read-only or unimplemented
+        }
+    }
+
+    void requestIdle() {
+        idleRequested = true;
+    }
+
+    boolean isIdleRequested() {
+        return idleRequested;
+    }
+
+    // Sleeps until a device wakes the CPU, with pending output flushed first
+    private void idle() {
+        idleRequested = false;
+        if (interruptRequested) {
+            return;
+        }
+        memory.getUart().flush();
+        idleMonitor.park(IDLE_PARK_NANOS);
+    }
+
+    // Stops the CPU loop, pending guest output goes out before any exit message
+    private void exit(int code) {
+        this.exitCode = code;
+        this.running = false;
+        memory.getUart().flush();
+    }
+
+    public int getExitCode() {
+        return exitCode;
+    }
+
+    private void handleQemuSemihosting() {
+        if (x[17] == 93) { // Exit operation
+            exit(x[10]);
         }
-        return virtualAddr;
     }
 
     // Test-purpose only methods
@@ -465,16 +1261,37 @@ public class RV32iCpu {
         return 0;
     }
 
+    boolean isRunning() {
+        return running;
+    }
+
+    public MemoryManager getMemoryManager() {
+        return memory;
+    }
+
     public int getPc() {
         return pc;
     }
 
+    public void stepTest() throws Exception {
+        if (interruptRequested) {
+            takeInterrupt();
+        }
+        fetchExecuteCycle();
+    }
+
     public void executeTest(InstructionDecoded inst) {
-        execute(inst);
+        // pc already points past the instruction, as it would after fetch()
+        execute(PredecodedInstruction.of(inst, pc - INSTRUCTION_SIZE));
+    }
+
+    // Whether the block starting at pc has been translated by the JIT
+    public boolean isCompiledTest(int pc) {
+        return blockEngine.isCompiled(pc);
     }
 
-    public int mapAddressTest(int i) {
-        return mapAddress(i);
+    public int mapAddressTest(int i) throws MemoryAccessException {
+        return memory.translate(i);
     }
 
     public void find13And12(byte[] arr) {
@@ -488,12 +1305,4 @@ public class RV32iCpu {
             }
         }
     }
-
-    public boolean checkUARTAddress(int virtualAddr) {
-        if (virtualAddr >= MemoryManager.UART_BASE &&
-                virtualAddr < MemoryManager.UART_BASE + 0x1000) {
-            return true;
-        }
-        return false;
-    }
 }
@@ -0,0 +1,61 @@
+package cse311;
+
+/**
+ * Outcome of a bounded {@link RV32iCpu#run(long, long)}.
+ */
+public final class RunResult {
+    public enum HaltReason {
+        // The guest asked to exit, see getExitCode()
+        EXITED,
+        // The instruction budget ran out
+        INSTRUCTION_LIMIT,
+        // The wall-clock deadline passed
+        TIME_LIMIT,
+        // Execution stopped on an exception, see getFault()
+        FAULT,
+        // stop() was called, e.g. because another hart ended the machine
+        STOPPED
+    }
+
+    private final HaltReason haltReason;
+    private final int exitCode;
+    private final long instructionsRetired;
+    private final long elapsedNanos;
+    private final Exception fault;
+
+    RunResult(HaltReason haltReason, int exitCode, long instructionsRetired, long elapsedNanos, Exception fault) {
+        this.haltReason = haltReason;
+        this.exitCode = exitCode;
+        this.instructionsRetired = instructionsRetired;
+        this.elapsedNanos = elapsedNanos;
+        this.fault = fault;
+    }
+
+    public HaltReason getHaltReason() {
+        return haltReason;
+    }
+
+    // Only meaningful when the guest exited
+    public int getExitCode() {
+        return exitCode;
+    }
+
+    public long getInstructionsRetired() {
+        return instructionsRetired;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    public Exception getFault() {
+        return fault;
+    }
+
+    @Override
+    public String toString() {
+        return "RunResult [haltReason=" + haltReason + ", exitCode=" + exitCode + ", instructionsRetired="
+                + instructionsRetired + ", elapsedNanos=" + elapsedNanos
+                + (fault != null ? ", fault=" + fault : "") + "]";
+    }
+}
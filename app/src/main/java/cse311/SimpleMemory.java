@@ -1,8 +1,11 @@
 package cse311;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
 import java.util.Arrays;
 
-class SimpleMemory {
+class SimpleMemory implements Memory {
     private byte[] memory;
     private int MEMORY_SIZE = 128 * 1024 * 1024; // 1KB of memory
 
@@ -10,6 +13,10 @@ class SimpleMemory {
     private static final int HALF_WORD_ALIGN = 2;
     private static final int WORD_ALIGN = 4;
 
+    // Little-endian views so half-words and words are a single array access
+    static final VarHandle SHORT_LE = MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.LITTLE_ENDIAN);
+    static final VarHandle INT_LE = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
     public SimpleMemory() {
         memory = new byte[MEMORY_SIZE];
     }
@@ -19,73 +26,70 @@ class SimpleMemory {
         memory = new byte[MEMORY_SIZE];
     }
 
-    // Add MMIO ranges
-    private static final int MMIO_START = 0x10000000;
-    private static final int MMIO_END = 0x10001000;
-
+    @Override
     public byte readByte(int address) throws MemoryAccessException {
-        // Check if address is in MMIO range
-        if (address >= MMIO_START && address < MMIO_END) {
-            // Let MemoryManager handle MMIO
-            throw new MemoryAccessException("MMIO_ACCESS:" + address);
-        }
-
         if (address < 0 || address >= MEMORY_SIZE) {
             throw new MemoryAccessException("Memory access out of bounds: " + address);
         }
         return memory[address];
     }
 
+    @Override
     public void writeByte(int address, byte value) throws MemoryAccessException {
-        // Check if address is in MMIO range
-        if (address >= MMIO_START && address < MMIO_END) {
-            // Let MemoryManager handle MMIO
-            throw new MemoryAccessException("MMIO_ACCESS:" + address);
-        }
-
         if (address < 0 || address >= MEMORY_SIZE) {
             throw new MemoryAccessException("Memory access out of bounds: " + address);
         }
         memory[address] = value;
     }
 
+    @Override
     public short readHalfWord(int address) throws MemoryAccessException {
-        checkAddress(address, HALF_WORD_ALIGN);
-        checkAlignment(address, HALF_WORD_ALIGN);
-
-        return (short) ((memory[address + 1] & 0xFF) << 8 |
-                (memory[address] & 0xFF));
+        checkAccess(address, HALF_WORD_ALIGN);
+        return (short) SHORT_LE.get(memory, address);
     }
 
+    @Override
     public int readWord(int address) throws MemoryAccessException {
-        checkAddress(address, WORD_ALIGN);
-        checkAlignment(address, WORD_ALIGN);
-
-        return (memory[address + 3] & 0xFF) << 24 |
-                (memory[address + 2] & 0xFF) << 16 |
-                (memory[address + 1] & 0xFF) << 8 |
-                (memory[address] & 0xFF);
+        checkAccess(address, WORD_ALIGN);
+        return (int) INT_LE.get(memory, address);
     }
 
+    @Override
     public void writeHalfWord(int address, short value) throws MemoryAccessException {
-        checkAddress(address, HALF_WORD_ALIGN);
-        checkAlignment(address, HALF_WORD_ALIGN);
-
-        memory[address] = (byte) (value & 0xFF);
-        memory[address + 1] = (byte) ((value >> 8) & 0xFF);
+        checkAccess(address, HALF_WORD_ALIGN);
+        SHORT_LE.set(memory, address, value);
     }
 
+    @Override
     public void writeWord(int address, int value) throws MemoryAccessException {
-        checkAddress(address, WORD_ALIGN);
-        checkAlignment(address, WORD_ALIGN);
+        checkAccess(address, WORD_ALIGN);
+        INT_LE.set(memory, address, value);
+    }
 
-        memory[address] = (byte) (value & 0xFF);
-        memory[address + 1] = (byte) ((value >> 8) & 0xFF);
-        memory[address + 2] = (byte) ((value >> 16) & 0xFF);
-        memory[address + 3] = (byte) ((value >> 24) & 0xFF);
+    @Override
+    public int compareAndExchangeWord(int address, int expected, int value) throws MemoryAccessException {
+        checkAccess(address, WORD_ALIGN);
+        return (int) INT_LE.compareAndExchange(memory, address, expected, value);
+    }
+
+    // Bounds and alignment in one unsigned compare and one mask, a single branch
+    private void checkAccess(int address, int size) throws MemoryAccessException {
+        if (Integer.compareUnsigned(address, MEMORY_SIZE - size) > 0 | (address & (size - 1)) != 0) {
+            throw accessError(address, size);
+        }
     }
 
     // Utility methods
+    private MemoryAccessException accessError(int address, int size) {
+        if (Integer.compareUnsigned(address, MEMORY_SIZE - size) > 0) {
+            return new MemoryAccessException(
+                    String.format("Memory access out of bounds: address=%d, size=%d", address, size));
+        }
+        return new MemoryAccessException(
+                String.format("Misaligned memory access: address=%d, required alignment=%d",
+                        address, size));
+    }
+
     private void checkAddress(int address, int accessSize) throws MemoryAccessException {
         if (address < 0 || address + accessSize > MEMORY_SIZE) {
             throw new MemoryAccessException(
@@ -93,19 +97,48 @@ class SimpleMemory {
         }
     }
 
-    private void checkAlignment(int address, int alignment) throws MemoryAccessException {
-        if ((address % alignment) != 0) {
-            throw new MemoryAccessException(
-                    String.format("Misaligned memory access: address=%d, required alignment=%d",
-                            address, alignment));
+    @Override
+    public void copy(int source, int destination, int length) throws MemoryAccessException {
+        checkAddress(source, length);
+        checkAddress(destination, length);
+        System.arraycopy(memory, source, memory, destination, length);
+    }
+
+    @Override
+    public void fill(int address, int length, byte value) throws MemoryAccessException {
+        checkAddress(address, length);
+        Arrays.fill(memory, address, address + length, value);
+    }
+
+    @Override
+    public void write(int address, byte[] data, int offset, int length) throws MemoryAccessException {
+        checkAddress(address, length);
+        System.arraycopy(data, offset, memory, address, length);
+    }
+
+    @Override
+    public int indexOf(int address, int length, byte value) throws MemoryAccessException {
+        checkAddress(address, length);
+        for (int i = 0; i < length; i++) {
+            if (memory[address + i] == value) {
+                return i;
+            }
         }
+        return -1;
+    }
+
+    @Override
+    public int getSize() {
+        return MEMORY_SIZE;
     }
 
+    @Override
     public void clear() {
         Arrays.fill(memory, (byte) 0);
     }
 
     // Debug helper methods
+    @Override
     public String dumpMemory(int startAddress, int length) throws MemoryAccessException {
         checkAddress(startAddress, length);
         StringBuilder sb = new StringBuilder();
@@ -127,13 +160,12 @@ class SimpleMemory {
         return sb.toString();
     }
 
-    /**
-     * Initialize a region of memory with given bytes
-     */
+    @Override
     public void initializeMemory(int startAddress, byte[] data) {
         System.arraycopy(data, 0, memory, startAddress, data.length);
     }
 
+    @Override
     public byte[] getMemory() {
         return memory;
     }
@@ -0,0 +1,90 @@
+package cse311;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Guest symbols by address, as read from an ELF's .symtab, for naming
+ * addresses in profiles and traces.
+ */
+public final class SymbolTable {
+    public static final SymbolTable EMPTY = new SymbolTable(new int[0], new int[0], new String[0]);
+
+    // Sorted by address (unsigned); a symbol without a size reaches up to the next one
+    private final int[] addresses;
+    private final int[] sizes;
+    private final String[] names;
+
+    SymbolTable(int[] addresses, int[] sizes, String[] names) {
+        Integer[] order = new Integer[addresses.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingLong(i -> Integer.toUnsignedLong(addresses[i])));
+        this.addresses = new int[order.length];
+        this.sizes = new int[order.length];
+        this.names = new String[order.length];
+        for (int i = 0; i < order.length; i++) {
+            this.addresses[i] = addresses[order[i]];
+            this.sizes[i] = sizes[order[i]];
+            this.names[i] = names[order[i]];
+        }
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    // Index of the symbol containing the address, -1 if none
+    private int find(int address) {
+        int low = 0;
+        int high = addresses.length - 1;
+        int found = -1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (Integer.compareUnsigned(addresses[middle], address) <= 0) {
+                found = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        if (found >= 0 && sizes[found] != 0
+                && Integer.compareUnsigned(address - addresses[found], sizes[found]) >= 0) {
+            return -1;
+        }
+        return found;
+    }
+
+    /**
+     * The address of the named symbol, or -1.
+     */
+    public int addressOf(String name) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(name)) {
+                return addresses[i];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * The name of the symbol containing the address, or the address in hex.
+     */
+    public String nameAt(int address) {
+        int index = find(address);
+        return index >= 0 ? names[index] : String.format("0x%08x", address);
+    }
+
+    /**
+     * The address as symbol+offset, or in hex if no symbol contains it.
+     */
+    public String describe(int address) {
+        int index = find(address);
+        if (index < 0) {
+            return String.format("0x%08x", address);
+        }
+        int offset = address - addresses[index];
+        return offset == 0 ? names[index] : names[index] + "+0x" + Integer.toHexString(offset);
+    }
+}
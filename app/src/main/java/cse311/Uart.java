@@ -1,84 +1,148 @@
 package cse311;
 
-import java.util.concurrent.locks.ReentrantLock;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
 
-public class Uart {
+public class Uart implements Device {
     private static final int TX_READY = 0x20; // Bit 5 (0x20) for TX ready
     private static final int RX_READY = 0x01; // Bit 0 (0x01) for RX ready
+    public static final int DEFAULT_RX_CAPACITY = 64 * 1024;
+    // Control register: raise the interrupt line while received data is waiting
+    public static final int CONTROL_RX_INTERRUPT = 0x01;
+    private static final int TX_BUFFER_SIZE = 8 * 1024;
 
-    private int status;
-    private int control;
-    private byte[] rxBuffer;
-    private int rxIndex;
-    private final ReentrantLock lock = new ReentrantLock();
+    private volatile int control;
+    // Filled by the input thread, drained by the guest, in arrival order
+    private final ByteRingBuffer rxBuffer;
+    // Transmitted bytes wait here until a newline, a full buffer, an idle guest or flush()
+    private final byte[] txBuffer = new byte[TX_BUFFER_SIZE];
+    private int txCount;
+    private final UartSink sink;
+    // One per hart, told about empty status polls and about new input
+    private final List<IdleMonitor> idleMonitors = new CopyOnWriteArrayList<>();
+    // Register reads and writes from all harts, for the performance counters
+    private final LongAdder accesses = new LongAdder();
+    private Plic plic;
+    private int interruptSource;
 
     public Uart() {
-        status = TX_READY; // Always ready to transmit
+        this(DEFAULT_RX_CAPACITY);
+    }
+
+    public Uart(int rxCapacity) {
+        this(rxCapacity, UartSink.stdout());
+    }
+
+    public Uart(int rxCapacity, UartSink sink) {
         control = 0;
-        rxBuffer = new byte[2048];
-        rxIndex = 0;
+        rxBuffer = new ByteRingBuffer(rxCapacity);
+        this.sink = sink;
     }
 
-    public int read(int address) {
-        lock.lock();
-        try {
-            switch (address - MemoryManager.UART_BASE) {
-                case 0x0: // TX Data
-                    return 0;
-                case 0x4: // RX Data
-                    if (rxIndex > 0) {
-                        byte data = rxBuffer[--rxIndex];
-                        if (rxIndex == 0) {
-                            status &= ~RX_READY; // Clear RX ready bit
-                        }
-                        return data & 0xFF;
+    @Override
+    public int read(int offset, int size) {
+        accesses.increment();
+        switch (offset) {
+            case 0x0: // TX Data
+                return 0;
+            case 0x4: // RX Data
+                int data;
+                // Harts take turns as the queue's single consumer
+                synchronized (rxBuffer) {
+                    data = rxBuffer.poll();
+                }
+                updateInterrupt();
+                return data < 0 ? 0 : data;
+            case 0x8: // Status
+                // TX is always ready, RX ready while the queue has data
+                if (rxBuffer.isEmpty()) {
+                    // The guest is waiting for input, so make its prompt visible
+                    if (txCount != 0) {
+                        flush();
                     }
-                    return 0;
-                case 0x8: // Status
-                    // Return current status with TX always ready
-                    return status | TX_READY; // TX is always ready
-                case 0xC: // Control
-                    return control;
-                default:
-                    return 0;
-            }
-        } finally {
-            lock.unlock();
+                    for (IdleMonitor monitor : idleMonitors) {
+                        monitor.emptyPoll();
+                    }
+                    return TX_READY;
+                }
+                return TX_READY | RX_READY;
+            case 0xC: // Control
+                return control;
+            default:
+                return 0;
         }
     }
 
-    public void write(int address, int value) {
-        lock.lock();
-        try {
-            switch (address - MemoryManager.UART_BASE) {
-                case 0x0: // TX Data
-                    System.out.write(value & 0xFF);
-                    System.out.flush();
-                    break;
-                case 0xC: // Control
-                    control = value;
-                    break;
+    @Override
+    public synchronized void write(int offset, int size, int value) {
+        accesses.increment();
+        switch (offset) {
+            case 0x0: // TX Data
+                txBuffer[txCount++] = (byte) value;
+                if ((value & 0xFF) == '\n' || txCount == txBuffer.length) {
+                    flush();
+                }
+                break;
+            case 0xC: // Control
+                control = value;
+                updateInterrupt();
+                break;
+        }
+    }
+
+    void connect(Plic plic, int source) {
+        this.plic = plic;
+        this.interruptSource = source;
+    }
+
+    // Level triggered: raised while the RX interrupt is enabled and data is
+    // waiting. Computed under the PLIC's lock so that a stale level from
+    // another thread cannot overwrite a newer one.
+    private void updateInterrupt() {
+        Plic plic = this.plic;
+        if (plic != null) {
+            synchronized (plic) {
+                plic.setLevel(interruptSource, (control & CONTROL_RX_INTERRUPT) != 0 && !rxBuffer.isEmpty());
             }
-        } finally {
-            lock.unlock();
         }
     }
 
-    public void receiveData(byte data) {
-        lock.lock();
+    long getAccessCount() {
+        return accesses.sum();
+    }
+
+    void addIdleMonitor(IdleMonitor idleMonitor) {
+        idleMonitors.add(idleMonitor);
+    }
+
+    public synchronized void flush() {
+        if (txCount == 0) {
+            return;
+        }
         try {
-            if (rxIndex < rxBuffer.length) {
-                rxBuffer[rxIndex++] = data;
-                status |= RX_READY;
-            }
+            sink.write(txBuffer, txCount);
+        } catch (IOException e) {
+            throw new UncheckedIOException("UART transmit failed", e);
         } finally {
-            lock.unlock();
+            txCount = 0;
+        }
+    }
+
+    // Blocks while the receive queue is full
+    public void receiveData(byte data) throws InterruptedException {
+        rxBuffer.put(data);
+        updateInterrupt();
+        for (IdleMonitor monitor : idleMonitors) {
+            monitor.wake();
         }
     }
 
-    public void receiveDatas(byte[] data) {
+    public void receiveDatas(byte[] data) throws InterruptedException {
         for (int i = 0; i < data.length; i++) {
             receiveData(data[i]);
         }
     }
-}
\ No newline at end of file
+}
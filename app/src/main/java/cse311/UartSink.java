@@ -0,0 +1,92 @@
+package cse311;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Destination for bytes the guest transmits on the {@link Uart}. The UART
+ * buffers output itself and hands it over in chunks.
+ */
+public interface UartSink {
+    void write(byte[] data, int length) throws IOException;
+
+    default void close() throws IOException {
+    }
+
+    static UartSink stdout() {
+        return new StreamSink(System.out);
+    }
+
+    static UartSink file(Path path) throws IOException {
+        return new FileSink(path);
+    }
+
+    /**
+     * Writes to a stream and flushes it after every chunk.
+     */
+    final class StreamSink implements UartSink {
+        private final OutputStream out;
+
+        public StreamSink(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(byte[] data, int length) throws IOException {
+            out.write(data, 0, length);
+            out.flush();
+        }
+    }
+
+    /**
+     * Writes straight to a file channel, truncating the file when opened.
+     */
+    final class FileSink implements UartSink {
+        private final FileChannel channel;
+
+        public FileSink(Path path) throws IOException {
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+        }
+
+        @Override
+        public void write(byte[] data, int length) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(data, 0, length);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    /**
+     * Keeps everything in memory, mainly for tests.
+     */
+    final class CaptureSink implements UartSink {
+        private final ByteArrayOutputStream captured = new ByteArrayOutputStream();
+
+        @Override
+        public synchronized void write(byte[] data, int length) {
+            captured.write(data, 0, length);
+        }
+
+        public synchronized byte[] toByteArray() {
+            return captured.toByteArray();
+        }
+
+        @Override
+        public synchronized String toString() {
+            return new String(captured.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+}
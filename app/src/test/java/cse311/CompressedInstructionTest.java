@@ -0,0 +1,26 @@
+package cse311;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CompressedInstructionTest {
+
+    @Test
+    void testExpandsToTheMatching32BitInstruction() {
+        assertEquals(0x01010513, CompressedInstruction.expand(0x0808), "c.addi4spn a0, sp, 16");
+        assertEquals(0xFFF00513, CompressedInstruction.expand(0x557D), "c.li a0, -1");
+        assertEquals(0x00452583, CompressedInstruction.expand(0x414C), "c.lw a1, 4(a0)");
+        assertEquals(0x00B50533, CompressedInstruction.expand(0x952E), "c.add a0, a1");
+        assertEquals(0x00112623, CompressedInstruction.expand(0xC606), "c.swsp ra, 12(sp)");
+        assertEquals(0x00008067, CompressedInstruction.expand(0x8082), "c.jr ra");
+        assertEquals(0x00100073, CompressedInstruction.expand(0x9002), "c.ebreak");
+    }
+
+    @Test
+    void testReservedEncodingsAreIllegal() {
+        assertEquals(CompressedInstruction.ILLEGAL, CompressedInstruction.expand(0x0000), "all zeros");
+        assertEquals(CompressedInstruction.ILLEGAL, CompressedInstruction.expand(0x4002), "c.lwsp x0");
+        assertEquals(CompressedInstruction.ILLEGAL, CompressedInstruction.expand(0x1002), "c.slli with shamt[5]");
+        assertFalse(CompressedInstruction.isCompressed(0x0513));
+    }
+}
@@ -0,0 +1,108 @@
+package cse311;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class ElfLoaderTest {
+    private static final int TEXT = MemoryManager.TEXT_START;
+    private static final int DATA = MemoryManager.DATA_START;
+
+    // main: store to the data segment, then exit(0)
+    private static final int[] CODE = {
+            0x020102B7, // lui t0, 0x2010
+            0x0002A223, // sw x0, 4(t0)
+            0x05D00893, // addi a7, x0, 93
+            0x00000073, // ecall
+    };
+
+    // An R-X text segment, an RW- data segment with .bss, and .symtab
+    private static Path writeElf() throws Exception {
+        ByteBuffer elf = ByteBuffer.allocate(0x400 + 6 * 40).order(ByteOrder.LITTLE_ENDIAN);
+        elf.put(new byte[] { 0x7f, 'E', 'L', 'F', 1, 1, 1, 0 }).put(new byte[8]);
+        elf.putShort((short) 2).putShort((short) 243).putInt(1);
+        elf.putInt(TEXT).putInt(52).putInt(0x400).putInt(0);
+        elf.putShort((short) 52).putShort((short) 32).putShort((short) 2);
+        elf.putShort((short) 40).putShort((short) 6).putShort((short) 5);
+        // PT_LOAD text and data
+        elf.putInt(1).putInt(0x100).putInt(TEXT).putInt(TEXT).putInt(16).putInt(16).putInt(5).putInt(4);
+        elf.putInt(1).putInt(0x200).putInt(DATA).putInt(DATA).putInt(8).putInt(0x2000).putInt(6).putInt(4);
+        elf.position(0x100);
+        for (int word : CODE) {
+            elf.putInt(word);
+        }
+        elf.position(0x200).putInt(0x11223344).putInt(0x55667788);
+        // .symtab: the null symbol, main (FUNC) and counter (OBJECT)
+        elf.position(0x310).putInt(1).putInt(TEXT).putInt(16).put((byte) 0x12).put((byte) 0).putShort((short) 1);
+        elf.putInt(6).putInt(DATA + 4).putInt(4).put((byte) 0x11).put((byte) 0).putShort((short) 2);
+        elf.position(0x340).put("\0main\0counter\0".getBytes(StandardCharsets.US_ASCII));
+        elf.position(0x360).put("\0.text\0.data\0.symtab\0.strtab\0.shstrtab\0".getBytes(StandardCharsets.US_ASCII));
+        // Section headers: name, type, flags, address, offset, size, link, info, align, entsize
+        int[][] sections = {
+                {},
+                { 1, 1, 6, TEXT, 0x100, 16, 0, 0, 4, 0 },
+                { 7, 1, 3, DATA, 0x200, 8, 0, 0, 4, 0 },
+                { 13, 2, 0, 0, 0x300, 48, 4, 1, 4, 16 },
+                { 21, 3, 0, 0, 0x340, 14, 0, 0, 1, 0 },
+                { 29, 3, 0, 0, 0x360, 39, 0, 0, 1, 0 },
+        };
+        for (int i = 0; i < sections.length; i++) {
+            elf.position(0x400 + i * 40);
+            for (int field : sections[i]) {
+                elf.putInt(field);
+            }
+        }
+        Path file = Files.createTempFile("loader", ".elf");
+        file.toFile().deleteOnExit();
+        return Files.write(file, elf.array());
+    }
+
+    @Test
+    void testSegmentsSectionsAndSymbols() throws Exception {
+        MemoryManager memory = new MemoryManager(new PagedMemory(128 * 1024 * 1024));
+        memory.fill(DATA, 0x3000, (byte) 0xAA); // .bss must come out zeroed
+        ElfLoader loader = new ElfLoader(memory);
+        loader.loadElf(writeElf().toString());
+
+        assertEquals(TEXT, loader.getEntryPoint());
+        assertEquals(CODE[1], memory.fetchWord(TEXT + 4));
+        assertEquals(0x55667788, memory.readWord(DATA + 4));
+        assertEquals(0, memory.readWord(DATA + 8));
+        assertEquals(0, memory.readWord(DATA + 0x1FFC));
+        assertEquals((byte) 0xAA, memory.readByte(DATA + 0x2000));
+
+        assertEquals(DATA, loader.getSectionAddress(".data"));
+        assertEquals(-1, loader.getSectionAddress(".rodata"));
+        SymbolTable symbols = loader.getSymbols();
+        assertEquals(2, symbols.size());
+        assertEquals("main+0xc", symbols.describe(TEXT + 12));
+        assertEquals(DATA + 4, symbols.addressOf("counter"));
+    }
+
+    @Test
+    void testSegmentFlagsProtectPages() throws Exception {
+        MemoryManager memory = new MemoryManager(new PagedMemory(128 * 1024 * 1024));
+        ElfLoader loader = new ElfLoader(memory);
+        loader.loadElf(writeElf().toString());
+
+        assertThrows(MemoryAccessException.class, () -> memory.writeWord(TEXT, 0));
+        assertThrows(MemoryAccessException.class, () -> memory.fill(TEXT + 0xFFC, 8, (byte) 0));
+        assertThrows(MemoryAccessException.class, () -> memory.fetchWord(DATA));
+        assertThrows(MemoryAccessException.class, () -> memory.fetchWord(DATA + 0x1000)); // .bss page
+        memory.fetchWord(DATA + 0x2000); // past the segment, untouched
+
+        RV32iCpu cpu = new RV32iCpu(memory);
+        cpu.setProgramCounterEntryPoint(loader.getEntryPoint());
+        assertEquals(RunResult.HaltReason.EXITED, cpu.run(0, 0).getHaltReason());
+        assertEquals(0, memory.readWord(DATA + 4));
+
+        // Mapping the pages again lifts the protection
+        memory.mapRam(TEXT, TEXT, 0x1000);
+        memory.writeWord(TEXT, 0);
+    }
+}
@@ -0,0 +1,440 @@
+package cse311;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import static cse311.GuestPrograms.*;
+
+public class ExecutionModeTest {
+    private static int fpType(int func7, int rs2, int rs1, int rm, int rd) {
+        return (func7 << 25) | (rs2 << 20) | (rs1 << 15) | (rm << 12) | (rd << 7) | 0b1010011;
+    }
+
+    // x2 = 10 + 9 + ... + 1, then x3 = x2 - x1 and spin on the final jal
+    private static final int[] SUM_LOOP = {
+            iType(0b0010011, 1, 0, 0, 10), // addi x1, x0, 10
+            iType(0b0010011, 2, 0, 0, 0), // addi x2, x0, 0
+            rType(0, 1, 2, 0, 2), // loop: add x2, x2, x1
+            iType(0b0010011, 1, 0, 1, -1), // addi x1, x1, -1
+            bType(0b001, 1, 0, -8), // bne x1, x0, loop
+            rType(0b0100000, 1, 2, 0, 3), // sub x3, x2, x1
+            0b1101111, // done: jal x0, done
+    };
+    private static final int DONE = BASE + (SUM_LOOP.length - 1) * 4;
+
+    // Accumulates 2000 + 1999 + ... + 1 in memory, long enough for blocks to get hot
+    private static final int[] MEMORY_LOOP = {
+            iType(0b0010011, 1, 0, 0, 2000), // addi x1, x0, 2000
+            0x02010000 | (5 << 7) | 0b0110111, // lui x5, 0x2010
+            iType(0b0000011, 2, 0b010, 5, 0), // loop: lw x2, 0(x5)
+            rType(0, 1, 2, 0, 2), // add x2, x2, x1
+            sType(0b010, 5, 2, 0), // sw x2, 0(x5)
+            rType(0, 1, 0, 0b011, 6), // sltu x6, x0, x1
+            iType(0b0010011, 1, 0, 1, -1), // addi x1, x1, -1
+            bType(0b001, 1, 0, -20), // bne x1, x0, loop
+            iType(0b0000011, 3, 0b010, 5, 0), // lw x3, 0(x5)
+            0b1101111, // done: jal x0, done
+    };
+
+    // Sums i * i / 3 + mulhu(-1, i) + (i rem 0) for i = 2000..1 with RV32M
+    private static final int[] MUL_DIV_LOOP = {
+            iType(0b0010011, 1, 0, 0, 2000), // addi x1, x0, 2000
+            iType(0b0010011, 8, 0, 0, 3), // addi x8, x0, 3
+            iType(0b0010011, 10, 0, 0, -1), // addi x10, x0, -1
+            rType(1, 1, 1, 0b000, 4), // loop: mul x4, x1, x1
+            rType(1, 8, 4, 0b101, 4), // divu x4, x4, x8
+            rType(1, 1, 10, 0b011, 9), // mulhu x9, x10, x1
+            rType(1, 0, 1, 0b110, 6), // rem x6, x1, x0
+            rType(0, 4, 3, 0, 3), // add x3, x3, x4
+            rType(0, 9, 3, 0, 3), // add x3, x3, x9
+            rType(0, 6, 3, 0, 3), // add x3, x3, x6
+            rType(1, 0, 1, 0b100, 7), // div x7, x1, x0
+            iType(0b0010011, 1, 0, 1, -1), // addi x1, x1, -1
+            bType(0b001, 1, 0, -36), // bne x1, x0, loop
+            0b1101111, // done: jal x0, done
+    };
+
+    // Sums clz(i) + cpop(i) + andn(i, 1) and tracks maxu(rev8(i)) for i = 2000..1 with Zbb
+    private static final int[] BIT_LOOP = {
+            iType(0b0010011, 1, 0, 0, 2000), // addi x1, x0, 2000
+            iType(0b0010011, 8, 0, 0, 1), // addi x8, x0, 1
+            iType(0b0010011, 4, 0b001, 1, 0x600), // loop: clz x4, x1
+            rType(0, 4, 3, 0, 3), // add x3, x3, x4
+            iType(0b0010011, 4, 0b001, 1, 0x602), // cpop x4, x1
+            rType(0, 4, 3, 0, 3), // add x3, x3, x4
+            rType(0b0100000, 8, 1, 0b111, 4), // andn x4, x1, x8
+            rType(0, 4, 3, 0, 3), // add x3, x3, x4
+            iType(0b0010011, 4, 0b101, 1, 0x698), // rev8 x4, x1
+            rType(0b0000101, 4, 7, 0b111, 7), // maxu x7, x7, x4
+            iType(0b0010011, 1, 0, 1, -1), // addi x1, x1, -1
+            bType(0b001, 1, 0, -36), // bne x1, x0, loop
+            0b1101111, // done: jal x0, done
+    };
+
+    // Sums i * 0.5 for i = 2000..1 in f2 with fmadd.d, going through memory every round
+    private static final int[] FLOAT_LOOP = {
+            iType(0b0010011, 1, 0, 0, 2000), // addi x1, x0, 2000
+            0x02010000 | (5 << 7) | 0b0110111, // lui x5, 0x2010
+            iType(0b0010011, 8, 0, 0, 1), // addi x8, x0, 1
+            iType(0b0010011, 9, 0, 0, 2), // addi x9, x0, 2
+            fpType(0b1101001, 0, 8, 0, 4), // fcvt.d.w f4, x8
+            fpType(0b1101001, 0, 9, 0, 6), // fcvt.d.w f6, x9
+            fpType(0b0001101, 6, 4, 0, 4), // fdiv.d f4, f4, f6
+            fpType(0b1101001, 0, 1, 0, 1), // loop: fcvt.d.w f1, x1
+            (2 << 27) | (1 << 25) | (4 << 20) | (1 << 15) | (2 << 7) | 0b1000011, // fmadd.d f2, f1, f4, f2
+            sType(0b011, 5, 2, 0) & ~0x7F | 0b0100111, // fsd f2, 0(x5)
+            iType(0b0000111, 3, 0b011, 5, 0), // fld f3, 0(x5)
+            fpType(0b1010001, 2, 1, 0b001, 6), // flt.d x6, f1, f2
+            iType(0b0010011, 1, 0, 1, -1), // addi x1, x1, -1
+            bType(0b001, 1, 0, -24), // bne x1, x0, loop
+            fpType(0b1100001, 0, 3, 0b001, 3), // fcvt.w.d x3, f3, rtz
+            fpType(0b0100000, 1, 3, 0, 5), // fcvt.s.d f5, f3
+            fpType(0b1110000, 0, 5, 0, 7), // fmv.x.w x7, f5
+            0b1101111, // done: jal x0, done
+    };
+
+    // x9 = 2000 + 1999 + ... + 1 with RV32C, including 32-bit instructions at 2 mod 4
+    private static final int[] COMPRESSED_LOOP = {
+            0x4481, // c.li x9, 0
+            iType(0b0010011, 8, 0, 0, 2000), // addi x8, x0, 2000
+            0x94A2, // loop: c.add x9, x8
+            0x8526, // c.mv x10, x9
+            iType(0b0010011, 8, 0, 8, -1), // addi x8, x8, -1
+            0xFC65, // c.bnez x8, loop
+            0xA001, // done: c.j done
+    };
+
+    // Increments a word in memory 2000 times, then reads the counters
+    private static final int[] COUNTER_LOOP = {
+            iType(0b0010011, 5, 0, 0, 2000), // addi x5, x0, 2000
+            0x02010000 | (6 << 7) | 0b0110111, // lui x6, 0x2010
+            iType(0b0000011, 7, 0b010, 6, 0), // loop: lw x7, 0(x6)
+            iType(0b0010011, 7, 0, 7, 1), // addi x7, x7, 1
+            sType(0b010, 6, 7, 0), // sw x7, 0(x6)
+            iType(0b0010011, 5, 0, 5, -1), // addi x5, x5, -1
+            bType(0b001, 5, 0, -16), // bne x5, x0, loop
+            iType(0b0000011, 8, 0b010, 6, 0), // lw x8, 0(x6)
+            iType(0b1110011, 10, 0b010, 0, RV32iCpu.CSR_INSTRET), // csrr x10, instret
+            iType(0b1110011, 11, 0b010, 0, RV32iCpu.CSR_HPMCOUNTER3), // csrr x11, hpmcounter3
+            iType(0b1110011, 12, 0b010, 0, RV32iCpu.CSR_HPMCOUNTER3 + 1), // csrr x12, hpmcounter4
+            iType(0b1110011, 13, 0b010, 0, RV32iCpu.CSR_HPMCOUNTER3 + 2), // csrr x13, hpmcounter5
+            0b1101111, // done: jal x0, done
+    };
+
+    // Spins on the UART status register until a byte arrives, then reads it into x7
+    // Compiler idioms the block engine fuses: la/li, auipc + lw, slli + srli, far call, sltu + bnez
+    private static final int[] FUSED_LOOP = {
+            0x02010000 | (5 << 7) | 0b0110111, // lui x5, 0x2010
+            iType(0b0010011, 5, 0, 5, 16), // addi x5, x5, 16
+            iType(0b0010011, 1, 0, 0, 2000), // addi x1, x0, 2000
+            (6 << 7) | 0b0010111, // loop: auipc x6, 0
+            iType(0b0010011, 6, 0, 6, -12), // addi x6, x6, -12
+            (7 << 7) | 0b0010111, // auipc x7, 0
+            iType(0b0000011, 8, 0b010, 7, -20), // lw x8, -20(x7)
+            iType(0b0010011, 9, 0b001, 1, 20), // slli x9, x1, 20
+            iType(0b0010011, 9, 0b101, 9, 20), // srli x9, x9, 20
+            rType(0, 9, 3, 0, 3), // add x3, x3, x9
+            (10 << 7) | 0b0010111, // auipc x10, 0
+            iType(0b1100111, 11, 0, 10, 32), // jalr x11, 32(x10)
+            iType(0b0010011, 1, 0, 1, -1), // addi x1, x1, -1
+            rType(0, 1, 0, 0b011, 13), // sltu x13, x0, x1
+            bType(0b001, 13, 0, -44), // bnez x13, loop
+            iType(0b1110011, 14, 0b010, 0, RV32iCpu.CSR_INSTRET), // csrr x14, instret
+            iType(0b1110011, 15, 0b010, 0, RV32iCpu.CSR_HPMCOUNTER3 + 2), // csrr x15, hpmcounter5
+            0b1101111, // done: jal x0, done
+            iType(0b0010011, 12, 0, 12, 1), // function: addi x12, x12, 1
+            iType(0b1100111, 0, 0, 11, 0), // jalr x0, 0(x11)
+    };
+
+    private static final int[] UART_POLL = {
+            MemoryManager.UART_BASE | (5 << 7) | 0b0110111, // lui x5, UART_BASE
+            iType(0b0000011, 6, 0b010, 5, 8), // loop: lw x6, 8(x5)
+            iType(0b0010011, 6, 0b111, 6, 1), // andi x6, x6, 1
+            bType(0b000, 6, 0, -8), // beq x6, x0, loop
+            iType(0b0000011, 7, 0b010, 5, 4), // lw x7, 4(x5)
+            0b1101111, // done: jal x0, done
+    };
+
+    private static void runTo(RV32iCpu cpu, int endPc) throws Exception {
+        for (int steps = 0; cpu.getPc() != endPc; steps++) {
+            assertTrue(steps < 100000, "program did not reach 0x" + Integer.toHexString(endPc));
+            cpu.stepTest();
+        }
+    }
+
+    @Test
+    void testBlockEngineMatchesInterpreter() throws Exception {
+        for (ExecutionMode mode : ExecutionMode.values()) {
+            RV32iCpu cpu = load(SUM_LOOP, mode);
+            runTo(cpu, DONE);
+            assertEquals(0, cpu.getRegister(1), mode + ": loop counter");
+            assertEquals(55, cpu.getRegister(2), mode + ": sum");
+            assertEquals(55, cpu.getRegister(3), mode + ": sub after loop");
+        }
+    }
+
+    @Test
+    void testHotLoopsAgreeAcrossModes() throws Exception {
+        int done = BASE + (MEMORY_LOOP.length - 1) * 4;
+        for (ExecutionMode mode : ExecutionMode.values()) {
+            RV32iCpu cpu = load(MEMORY_LOOP, mode);
+            runTo(cpu, done);
+            assertEquals(2001000, cpu.getRegister(3), mode + ": sum in memory");
+            assertEquals(1, cpu.getRegister(6), mode + ": sltu");
+            assertEquals(0, cpu.getRegister(1), mode + ": loop counter");
+        }
+    }
+
+    @Test
+    void testMultiplyDivideAgreesAcrossModes() throws Exception {
+        int done = BASE + (MUL_DIV_LOOP.length - 1) * 4;
+        int expected = 0;
+        for (int i = 1; i <= 2000; i++) {
+            expected += i * i / 3 + (i - 1) + i;
+        }
+        for (ExecutionMode mode : ExecutionMode.values()) {
+            RV32iCpu cpu = load(MUL_DIV_LOOP, mode);
+            runTo(cpu, done);
+            assertEquals(expected, cpu.getRegister(3), mode + ": sum");
+            assertEquals(-1, cpu.getRegister(7), mode + ": div by zero");
+        }
+    }
+
+    @Test
+    void testBitManipulationAgreesAcrossModes() throws Exception {
+        int done = BASE + (BIT_LOOP.length - 1) * 4;
+        int sum = 0;
+        int max = 0;
+        for (int i = 1; i <= 2000; i++) {
+            sum += Integer.numberOfLeadingZeros(i) + Integer.bitCount(i) + (i & ~1);
+            max = Math.max(max, Integer.reverseBytes(i) >>> 8); // all positive after the shift
+        }
+        for (ExecutionMode mode : ExecutionMode.values()) {
+            RV32iCpu cpu = load(BIT_LOOP, mode);
+            runTo(cpu, done);
+            assertEquals(sum, cpu.getRegister(3), mode + ": sum");
+            assertEquals(max << 8, cpu.getRegister(7), mode + ": maxu of rev8");
+        }
+    }
+
+    @Test
+    void testFloatingPointAgreesAcrossModes() throws Exception {
+        int done = BASE + (FLOAT_LOOP.length - 1) * 4;
+        for (ExecutionMode mode : ExecutionMode.values()) {
+            RV32iCpu cpu = load(FLOAT_LOOP, mode);
+            runTo(cpu, done);
+            assertEquals(1000500, cpu.getRegister(3), mode + ": sum");
+            assertEquals(1, cpu.getRegister(6), mode + ": flt.d");
+            assertEquals(Float.floatToRawIntBits(1000500f), cpu.getRegister(7), mode + ": fmv.x.w");
+        }
+    }
+
+    @Test
+    void testJitCompilesHotLoops() throws Exception {
+        // Loops of supported instructions only, by the index of their first instruction
+        int[][] loops = { MEMORY_LOOP, MUL_DIV_LOOP, BIT_LOOP, FLOAT_LOOP };
+        int[] starts = { 2, 3, 2, 7 };
+        for (int i = 0; i < loops.length; i++) {
+            RV32iCpu cpu = load(loops[i], ExecutionMode.JIT);
+            runTo(cpu, BASE + (loops[i].length - 1) * 4);
+            assertTrue(cpu.isCompiledTest(BASE + starts[i] * 4), "loop " + i + " not compiled");
+        }
+    }
+
+    @Test
+    void testCompressedCodeAgreesAcrossModes() throws Exception {
+        for (ExecutionMode mode : ExecutionMode.values()) {
+            RV32iCpu cpu = load(new int[0], mode);
+            int address = BASE;
+            for (int instruction : COMPRESSED_LOOP) {
+                boolean compressed = CompressedInstruction.isCompressed(instruction);
+                cpu.getMemoryManager().writeHalfWord(address, (short) instruction);
+                if (!compressed) {
+                    cpu.getMemoryManager().writeHalfWord(address + 2, (short) (instruction >>> 16));
+                }
+                address += compressed ? 2 : 4;
+            }
+            runTo(cpu, address - 2);
+            assertEquals(2001000, cpu.getRegister(9), mode + ": sum");
+            assertEquals(2001000, cpu.getRegister(10), mode + ": c.mv");
+            assertEquals(0, cpu.getRegister(8), mode + ": loop counter");
+        }
+    }
+
+    @Test
+    void testCountersAgreeAcrossModes() throws Exception {
+        int done = BASE + (COUNTER_LOOP.length - 1) * 4;
+        for (ExecutionMode mode : ExecutionMode.values()) {
+            RV32iCpu cpu = load(COUNTER_LOOP, mode);
+            runTo(cpu, done);
+            assertEquals(2000, cpu.getRegister(8), mode + ": loop result");
+            assertEquals(10003, cpu.getRegister(10), mode + ": instret");
+            assertEquals(2001, cpu.getRegister(11), mode + ": loads");
+            assertEquals(2000, cpu.getRegister(12), mode + ": stores");
+            assertEquals(1999, cpu.getRegister(13), mode + ": taken branches");
+        }
+    }
+
+    @Test
+    void testFusedPairsAgreeAcrossModes() throws Exception {
+        int done = BASE + (FUSED_LOOP.length - 3) * 4;
+        for (ExecutionMode mode : ExecutionMode.values()) {
+            RV32iCpu cpu = load(FUSED_LOOP, mode);
+            runTo(cpu, done);
+            assertEquals(0x02010010, cpu.getRegister(5), mode + ": li");
+            assertEquals(BASE, cpu.getRegister(6), mode + ": la");
+            assertEquals(FUSED_LOOP[0], cpu.getRegister(8), mode + ": PC-relative load");
+            assertEquals(2001000, cpu.getRegister(3), mode + ": zero-extended sum");
+            assertEquals(2000, cpu.getRegister(12), mode + ": calls");
+            assertEquals(BASE + 48, cpu.getRegister(11), mode + ": return address");
+            assertEquals(0, cpu.getRegister(13), mode + ": sltu");
+            assertEquals(28003, cpu.getRegister(14), mode + ": instret counts both halves");
+            assertEquals(1999, cpu.getRegister(15), mode + ": taken branches");
+        }
+    }
+
+    @Test
+    void testFaultInFusedPairKeepsFirstResult() throws Exception {
+        int[] program = {
+                (0x40001000 - BASE) | (5 << 7) | 0b0010111, // auipc x5, to 0x40001000
+                iType(0b0000011, 6, 0b010, 5, 0), // lw x6, 0(x5)
+        };
+        for (ExecutionMode mode : ExecutionMode.values()) {
+            RV32iCpu cpu = load(program, mode);
+            if (mode == ExecutionMode.INTERPRETER) {
+                cpu.stepTest();
+            }
+            assertThrows(Exception.class, cpu::stepTest, mode + ": load outside memory");
+            assertEquals(0x40001000, cpu.getRegister(5), mode + ": auipc result");
+            assertEquals(BASE + 8, cpu.getPc(), mode + ": pc past the load");
+            assertEquals(1, cpu.instructionsRetired, mode + ": auipc retired");
+        }
+    }
+
+    @Test
+    void testFaultRetiresCompletedInstructions() throws Exception {
+        // Loads every 64 KB from DATA_START until running off the end of RAM
+        int[] program = {
+                MemoryManager.DATA_START | (5 << 7) | 0b0110111, // lui x5, DATA_START
+                0x10000 | (8 << 7) | 0b0110111, // lui x8, 0x10
+                iType(0b0010011, 7, 0, 7, 1), // loop: addi x7, x7, 1
+                iType(0b0000011, 6, 0b010, 5, 0), // lw x6, 0(x5)
+                rType(0, 8, 5, 0, 5), // add x5, x5, x8
+                0xFF5FF06F, // jal x0, loop
+        };
+        int loads = (128 * 1024 * 1024 - MemoryManager.DATA_START) / 0x10000;
+        for (ExecutionMode mode : ExecutionMode.values()) {
+            RV32iCpu cpu = load(program, mode);
+            RunResult result = cpu.run(0, 0);
+            assertEquals(RunResult.HaltReason.FAULT, result.getHaltReason(), mode + ": " + result);
+            assertEquals(loads + 1, cpu.getRegister(7), mode + ": iterations");
+            assertEquals(BASE + 16, cpu.getPc(), mode + ": pc past the load");
+            assertEquals(2 + 4 * loads + 1, result.getInstructionsRetired(), mode + ": instructions");
+            assertEquals(loads, cpu.events[PredecodedInstruction.EVENT_LOAD], mode + ": loads");
+        }
+    }
+
+    @Test
+    void testCounterWrites() throws Exception {
+        int[] program = {
+                iType(0b1110011, 0, 0b001, 0, RV32iCpu.CSR_MINSTRET), // csrw minstret, x0
+                iType(0b1110011, 1, 0b010, 0, RV32iCpu.CSR_INSTRET), // csrr x1, instret
+                iType(0b1110011, 2, 0b010, 0, RV32iCpu.CSR_CYCLE), // csrr x2, cycle
+                iType(0b1110011, 3, 0b010, 0, RV32iCpu.CSR_TIME), // csrr x3, time
+                iType(0b1110011, 0, 0b001, 0, RV32iCpu.CSR_TIME), // csrw time, x0: read-only
+                iType(0b1110011, 4, 0b010, 0, RV32iCpu.CSR_TIME), // csrr x4, time
+        };
+        RV32iCpu cpu = load(program, ExecutionMode.INTERPRETER);
+        for (int i = 0; i < program.length; i++) {
+            cpu.stepTest();
+        }
+        assertEquals(0, cpu.getRegister(1), "instret right after the write");
+        assertEquals(2, cpu.getRegister(2), "cycle is not affected");
+        assertTrue(Integer.compareUnsigned(cpu.getRegister(4), cpu.getRegister(3)) >= 0, "time only moves forward");
+    }
+
+    @Test
+    void testMemcpyHypercall() throws Exception {
+        int length = 1 << 20;
+        int[] program = {
+                MemoryManager.HEAP_START | (10 << 7) | 0b0110111, // lui x10, HEAP_START
+                MemoryManager.DATA_START | (11 << 7) | 0b0110111, // lui x11, DATA_START
+                length | (12 << 7) | 0b0110111, // lui x12, 1 MB
+                RV32iCpu.HC_MEMCPY | (17 << 7) | 0b0110111, // lui x17, HC_MEMCPY
+                0b1110011, // ecall
+                0b1101111, // done: jal x0, done
+        };
+        for (ExecutionMode mode : ExecutionMode.values()) {
+            RV32iCpu cpu = load(program, mode);
+            MemoryManager memory = cpu.getMemoryManager();
+            memory.writeWord(MemoryManager.DATA_START, 0x12345678);
+            memory.writeWord(MemoryManager.DATA_START + length - 4, 0x9ABCDEF0);
+            runTo(cpu, BASE + 20);
+            assertEquals(0x12345678, memory.readWord(MemoryManager.HEAP_START), mode + ": first word");
+            assertEquals(0x9ABCDEF0, memory.readWord(MemoryManager.HEAP_START + length - 4), mode + ": last word");
+            assertEquals(MemoryManager.HEAP_START, cpu.getRegister(10), mode + ": returns dest");
+            assertEquals(5, cpu.instructionsRetired, mode + ": one instruction for the whole copy");
+        }
+    }
+
+    @Test
+    void testStoreIntoCodeInvalidatesCachedInstructions() throws Exception {
+        for (ExecutionMode mode : ExecutionMode.values()) {
+            RV32iCpu cpu = load(SUM_LOOP, mode);
+            MemoryManager memory = cpu.getMemoryManager();
+            runTo(cpu, DONE);
+
+            // Patch "addi x1, x0, 10" into "addi x1, x0, 4" and rerun
+            memory.writeWord(BASE, iType(0b0010011, 1, 0, 0, 4));
+            cpu.setProgramCounterEntryPoint(BASE);
+            runTo(cpu, DONE);
+            assertEquals(10, cpu.getRegister(2), mode + ": patched code not picked up");
+
+            // The same code run through the alias window, patched through either mapping
+            int alias = MemoryManager.RAM_ALIAS_BASE + (BASE - MemoryManager.TEXT_START);
+            cpu.setProgramCounterEntryPoint(alias);
+            runTo(cpu, alias + DONE - BASE);
+            memory.writeWord(alias, iType(0b0010011, 1, 0, 0, 3));
+            cpu.setProgramCounterEntryPoint(alias);
+            runTo(cpu, alias + DONE - BASE);
+            assertEquals(6, cpu.getRegister(2), mode + ": store through the alias not picked up");
+            memory.writeWord(BASE, iType(0b0010011, 1, 0, 0, 2));
+            cpu.setProgramCounterEntryPoint(alias);
+            runTo(cpu, alias + DONE - BASE);
+            assertEquals(3, cpu.getRegister(2), mode + ": store through RAM not seen at the alias");
+        }
+    }
+
+    @Test
+    void testPollingLoopGoesIdleAndWakesOnInput() throws Exception {
+        int done = BASE + (UART_POLL.length - 1) * 4;
+        for (ExecutionMode mode : ExecutionMode.values()) {
+            RV32iCpu cpu = load(UART_POLL, mode);
+            for (int steps = 0; !cpu.isIdleRequested(); steps++) {
+                assertTrue(steps < 100000, mode + ": poll loop never went idle");
+                cpu.stepTest();
+            }
+            cpu.getMemoryManager().getUart().receiveData((byte) 'A');
+            runTo(cpu, done);
+            assertEquals('A', cpu.getRegister(7), mode + ": received byte");
+        }
+    }
+
+    @Test
+    void testRunReportsExitAndLimits() throws Exception {
+        int[] exit = {
+                iType(0b0010011, 17, 0, 0, 93), // addi a7, x0, 93
+                iType(0b0010011, 10, 0, 0, 7), // addi a0, x0, 7
+                0b1110011, // ecall
+        };
+        for (ExecutionMode mode : ExecutionMode.values()) {
+            RunResult result = load(exit, mode).run(0, 0);
+            assertEquals(RunResult.HaltReason.EXITED, result.getHaltReason(), mode + ": halt reason");
+            assertEquals(7, result.getExitCode(), mode + ": exit code");
+            assertEquals(3, result.getInstructionsRetired(), mode + ": instructions");
+
+            result = load(MEMORY_LOOP, mode).run(1000, 0);
+            assertEquals(RunResult.HaltReason.INSTRUCTION_LIMIT, result.getHaltReason(), mode + ": budget");
+            assertTrue(result.getInstructionsRetired() >= 1000, mode + ": stopped early");
+        }
+    }
+}
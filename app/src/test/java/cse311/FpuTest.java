@@ -0,0 +1,136 @@
+package cse311;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FpuTest {
+    private Fpu fpu;
+
+    @BeforeEach
+    void setUp() {
+        fpu = new Fpu();
+    }
+
+    private void setS(int reg, float value) {
+        fpu.setBitsS(reg, Float.floatToRawIntBits(value));
+    }
+
+    private void setD(int reg, double value) {
+        fpu.f[reg] = Double.doubleToRawLongBits(value);
+    }
+
+    @Test
+    void testSinglesAreNaNBoxed() {
+        setS(1, 1.5f);
+        setS(2, 2.25f);
+        fpu.compute(PredecodedInstruction.FADD_S, 3, 1, 2, Fpu.RNE);
+        assertEquals(0xFFFFFFFF00000000L | Float.floatToRawIntBits(3.75f), fpu.f[3]);
+        assertEquals(0, fpu.fflags, "exact sum");
+
+        // A double in the register is not a boxed single and reads as the canonical NaN
+        setD(4, 1.0);
+        fpu.compute(PredecodedInstruction.FADD_S, 5, 4, 1, Fpu.RNE);
+        assertEquals(0x7FC00000, fpu.getBitsS(5));
+        assertEquals(0, fpu.toInteger(PredecodedInstruction.FMV_X_W, 4, 0, 0), "fmv.x.w moves the raw low half");
+    }
+
+    @Test
+    void testRoundingModes() {
+        setD(1, 1.0);
+        setD(2, 3.0);
+        fpu.compute(PredecodedInstruction.FDIV_D, 3, 1, 2, Fpu.RDN);
+        fpu.compute(PredecodedInstruction.FDIV_D, 4, 1, 2, Fpu.RUP);
+        assertEquals(Math.nextUp(fpu.getD(3)), fpu.getD(4), "1/3 rounded down and up");
+        assertEquals(Fpu.NX, fpu.fflags);
+
+        // frm applies when the instruction asks for the dynamic mode
+        fpu.frm = Fpu.RTZ;
+        setD(5, -1.0);
+        fpu.compute(PredecodedInstruction.FDIV_D, 6, 5, 2, Fpu.DYN);
+        assertEquals(-fpu.getD(3), fpu.getD(6), "-1/3 toward zero");
+
+        setS(7, 2.5f);
+        setS(8, -2.5f);
+        assertEquals(2, fpu.toInteger(PredecodedInstruction.FCVT_W_S, 7, 0, Fpu.RNE));
+        assertEquals(3, fpu.toInteger(PredecodedInstruction.FCVT_W_S, 7, 0, Fpu.RMM));
+        assertEquals(-3, fpu.toInteger(PredecodedInstruction.FCVT_W_S, 8, 0, Fpu.RDN));
+        assertEquals(-2, fpu.toInteger(PredecodedInstruction.FCVT_W_S, 8, 0, Fpu.RTZ));
+
+        // 2^24 + 1 is not a float: RNE ties to even, RUP goes to the next float
+        fpu.fromInteger(PredecodedInstruction.FCVT_S_W, 9, (1 << 24) + 1, Fpu.RNE);
+        fpu.fromInteger(PredecodedInstruction.FCVT_S_W, 10, (1 << 24) + 1, Fpu.RUP);
+        assertEquals(16777216f, fpu.getS(9));
+        assertEquals(16777218f, fpu.getS(10));
+    }
+
+    @Test
+    void testExceptionFlags() {
+        setD(1, 1.0);
+        setD(2, 0.0);
+        fpu.compute(PredecodedInstruction.FDIV_D, 3, 1, 2, Fpu.RNE);
+        assertEquals(Double.POSITIVE_INFINITY, fpu.getD(3));
+        assertEquals(Fpu.DZ, fpu.fflags);
+
+        fpu.fflags = 0;
+        fpu.compute(PredecodedInstruction.FDIV_D, 3, 2, 2, Fpu.RNE);
+        assertEquals(0x7FF8000000000000L, fpu.f[3], "0/0 gives the canonical NaN");
+        assertEquals(Fpu.NV, fpu.fflags);
+
+        fpu.fflags = 0;
+        setS(4, Float.MAX_VALUE);
+        fpu.compute(PredecodedInstruction.FADD_S, 5, 4, 4, Fpu.RNE);
+        fpu.compute(PredecodedInstruction.FADD_S, 6, 4, 4, Fpu.RTZ);
+        assertEquals(Float.POSITIVE_INFINITY, fpu.getS(5));
+        assertEquals(Float.MAX_VALUE, fpu.getS(6), "overflow toward zero stops at the largest float");
+        assertEquals(Fpu.OF | Fpu.NX, fpu.fflags);
+
+        fpu.fflags = 0;
+        setS(7, -1.0f);
+        assertEquals(0, fpu.toInteger(PredecodedInstruction.FCVT_WU_S, 7, 0, Fpu.RNE));
+        assertEquals(Fpu.NV, fpu.fflags);
+
+        // feq is quiet, flt signals on any NaN
+        fpu.fflags = 0;
+        fpu.f[8] = 0xFFFFFFFF7FC00000L;
+        assertEquals(0, fpu.toInteger(PredecodedInstruction.FEQ_S, 8, 7, 0));
+        assertEquals(0, fpu.fflags);
+        assertEquals(0, fpu.toInteger(PredecodedInstruction.FLT_S, 8, 7, 0));
+        assertEquals(Fpu.NV, fpu.fflags);
+    }
+
+    @Test
+    void testFusedMultiplyAddRoundsOnce() {
+        // a * b - a * b, rounded only once, recovers the product's rounding error
+        double a = 1.0 + Math.ulp(1.0);
+        setD(1, a);
+        setD(2, a);
+        setD(3, a * a);
+        fpu.compute(PredecodedInstruction.FMSUB_D, 4, 1, 2, 3 << 3 | Fpu.RNE);
+        assertEquals(Math.ulp(1.0) * Math.ulp(1.0), fpu.getD(4));
+        assertEquals(0, fpu.fflags);
+
+        fpu.compute(PredecodedInstruction.FNMADD_D, 5, 1, 2, 3 << 3 | Fpu.RNE);
+        assertEquals(-(a * a) * 2, fpu.getD(5), "-(a * b) - c");
+        assertEquals(Fpu.NX, fpu.fflags);
+    }
+
+    @Test
+    void testMinMaxAndClassify() {
+        setD(1, 0.0);
+        setD(2, -0.0);
+        fpu.f[3] = 0x7FF0000000000001L; // signaling NaN
+        fpu.compute(PredecodedInstruction.FMIN_D, 4, 1, 2, 0);
+        fpu.compute(PredecodedInstruction.FMAX_D, 5, 2, 1, 0);
+        assertEquals(Double.doubleToRawLongBits(-0.0), fpu.f[4]);
+        assertEquals(Double.doubleToRawLongBits(0.0), fpu.f[5]);
+        fpu.compute(PredecodedInstruction.FMAX_D, 6, 3, 1, 0);
+        assertEquals(fpu.f[1], fpu.f[6], "a NaN operand yields the other one");
+        assertEquals(Fpu.NV, fpu.fflags);
+
+        assertEquals(1 << 3, fpu.toInteger(PredecodedInstruction.FCLASS_D, 2, 0, 0), "-0");
+        assertEquals(1 << 8, fpu.toInteger(PredecodedInstruction.FCLASS_D, 3, 0, 0), "sNaN");
+        setS(7, Float.MIN_VALUE);
+        assertEquals(1 << 5, fpu.toInteger(PredecodedInstruction.FCLASS_S, 7, 0, 0), "+subnormal");
+    }
+}
@@ -0,0 +1,45 @@
+package cse311;
+
+/**
+ * Instruction encoders and loading for the hand-assembled guest programs in
+ * the tests. Programs are word arrays placed at BASE.
+ */
+final class GuestPrograms {
+    static final int BASE = MemoryManager.TEXT_START;
+
+    private GuestPrograms() {
+    }
+
+    static int iType(int opcode, int rd, int func3, int rs1, int imm) {
+        return (imm << 20) | (rs1 << 15) | (func3 << 12) | (rd << 7) | opcode;
+    }
+
+    static int rType(int func7, int rs2, int rs1, int func3, int rd) {
+        return (func7 << 25) | (rs2 << 20) | (rs1 << 15) | (func3 << 12) | (rd << 7) | 0b0110011;
+    }
+
+    static int sType(int func3, int rs1, int rs2, int imm) {
+        return ((imm >> 5) << 25) | (rs2 << 20) | (rs1 << 15) | (func3 << 12) | ((imm & 0x1F) << 7) | 0b0100011;
+    }
+
+    static int bType(int func3, int rs1, int rs2, int offset) {
+        return ((offset >> 12) & 1) << 31 | ((offset >> 5) & 0x3F) << 25 | (rs2 << 20) | (rs1 << 15)
+                | (func3 << 12) | ((offset >> 1) & 0xF) << 8 | ((offset >> 11) & 1) << 7 | 0b1100011;
+    }
+
+    static void write(MemoryManager memory, int[] program) throws MemoryAccessException {
+        for (int i = 0; i < program.length; i++) {
+            memory.writeWord(BASE + i * 4, program[i]);
+        }
+    }
+
+    // A single hart with the program in fresh memory, about to run it
+    static RV32iCpu load(int[] program, ExecutionMode mode) throws MemoryAccessException {
+        MemoryManager memory = new MemoryManager(new PagedMemory(128 * 1024 * 1024));
+        write(memory, program);
+        RV32iCpu cpu = new RV32iCpu(memory);
+        cpu.setExecutionMode(mode);
+        cpu.setProgramCounterEntryPoint(BASE);
+        return cpu;
+    }
+}
@@ -0,0 +1,194 @@
+package cse311;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import static cse311.GuestPrograms.*;
+
+public class InterruptTest {
+    private static final int MRET = 0x30200073;
+    private static final int ECALL = 0b1110011;
+
+    private static int csrw(int csr, int rs1) {
+        return iType(0b1110011, 0, 0b001, rs1, csr);
+    }
+
+    private static int csrr(int rd, int csr) {
+        return iType(0b1110011, rd, 0b010, 0, csr);
+    }
+
+    // The main loop spins until the timer handler has run three times, each
+    // time rearming mtimecmp 100 us ahead, then exits with the tick count.
+    // The handler turns the timer off after the third tick.
+    private static final int[] TIMER = {
+            (MemoryManager.CLINT_BASE + Clint.MTIME + 8) | (8 << 7) | 0b0110111, // lui x8, mtime + 8
+            (MemoryManager.CLINT_BASE + Clint.MTIMECMP) | (9 << 7) | 0b0110111, // lui x9, mtimecmp
+            (6 << 7) | 0b0010111, // auipc x6, 0
+            iType(0b0010011, 6, 0, 6, 68), // addi x6, x6, handler - 8
+            csrw(RV32iCpu.CSR_MTVEC, 6),
+            iType(0b0000011, 7, 0b010, 8, -8), // lw x7, mtime
+            iType(0b0010011, 7, 0, 7, 1000), // addi x7, x7, 1000
+            sType(0b010, 9, 7, 0), // sw x7, mtimecmp
+            sType(0b010, 9, 0, 4), // sw x0, mtimecmp + 4
+            iType(0b0010011, 10, 0, 0, RV32iCpu.MIP_MTIP), // addi x10, x0, MTIE
+            csrw(RV32iCpu.CSR_MIE, 10),
+            iType(0b1110011, 0, 0b110, 8, RV32iCpu.CSR_MSTATUS), // csrsi mstatus, MIE
+            iType(0b0010011, 21, 0, 0, 3), // addi x21, x0, 3
+            iType(0b0010011, 11, 0, 11, 1), // loop: addi x11, x11, 1
+            bType(0b100, 20, 21, -4), // blt x20, x21, loop
+            csrr(12, RV32iCpu.CSR_MCAUSE),
+            iType(0b0010011, 10, 0, 20, 0), // addi x10, x20, 0
+            iType(0b0010011, 17, 0, 0, 93), // addi x17, x0, 93
+            ECALL,
+            iType(0b0010011, 20, 0, 20, 1), // handler: addi x20, x20, 1
+            iType(0b0000011, 7, 0b010, 8, -8), // lw x7, mtime
+            iType(0b0010011, 7, 0, 7, 1000), // addi x7, x7, 1000
+            sType(0b010, 9, 7, 0), // sw x7, mtimecmp
+            bType(0b100, 20, 21, 8), // blt x20, x21, return
+            csrw(RV32iCpu.CSR_MIE, 0), // third tick: no more timer interrupts
+            MRET, // return
+    };
+
+    // Sleeps in WFI with the UART receive interrupt routed through the PLIC,
+    // the handler claims it and exits with the received byte
+    private static final int[] UART_WAIT = {
+            MemoryManager.PLIC_BASE | (5 << 7) | 0b0110111, // lui x5, PLIC_BASE
+            iType(0b0010011, 6, 0, 0, 1), // addi x6, x0, 1
+            sType(0b010, 5, 6, 4 * Plic.UART_SOURCE), // sw x6, priority[UART]
+            (MemoryManager.PLIC_BASE + Plic.ENABLE) | (7 << 7) | 0b0110111, // lui x7, enable
+            iType(0b0010011, 6, 0, 0, 1 << Plic.UART_SOURCE), // addi x6, x0, UART bit
+            sType(0b010, 7, 6, 0), // sw x6, enable for hart 0
+            MemoryManager.UART_BASE | (8 << 7) | 0b0110111, // lui x8, UART_BASE
+            iType(0b0010011, 6, 0, 0, Uart.CONTROL_RX_INTERRUPT), // addi x6, x0, RX interrupt
+            sType(0b010, 8, 6, 12), // sw x6, UART control
+            (6 << 7) | 0b0010111, // auipc x6, 0
+            iType(0b0010011, 6, 0, 6, 36), // addi x6, x6, handler - 36
+            csrw(RV32iCpu.CSR_MTVEC, 6),
+            0x1000 | (6 << 7) | 0b0110111, // lui x6, 1
+            iType(0b0010011, 6, 0, 6, -2048), // addi x6, x6, -2048: MEIE
+            csrw(RV32iCpu.CSR_MIE, 6),
+            iType(0b1110011, 0, 0b110, 8, RV32iCpu.CSR_MSTATUS), // csrsi mstatus, MIE
+            0x10500073, // wait: wfi
+            0xFFDFF06F, // jal x0, wait
+            (MemoryManager.PLIC_BASE + Plic.CONTEXT) | (9 << 7) | 0b0110111, // handler: lui x9, context 0
+            iType(0b0000011, 11, 0b010, 9, 4), // lw x11, claim
+            iType(0b0000011, 10, 0b010, 8, 4), // lw x10, RX data
+            sType(0b010, 9, 11, 4), // sw x11, complete
+            iType(0b0010011, 17, 0, 0, 93), // addi x17, x0, 93
+            ECALL,
+    };
+
+    @Test
+    void testTimerPreemptsBusyLoop() throws Exception {
+        for (ExecutionMode mode : ExecutionMode.values()) {
+            RV32iCpu cpu = load(TIMER, mode);
+            RunResult result = cpu.run(0, 10_000_000_000L);
+            assertEquals(RunResult.HaltReason.EXITED, result.getHaltReason(), mode + ": " + result);
+            assertEquals(3, result.getExitCode(), mode + ": timer interrupts");
+            assertEquals(0x80000007, cpu.getRegister(12), mode + ": mcause");
+            assertTrue(cpu.getRegister(11) > 0, mode + ": the loop ran between interrupts");
+        }
+    }
+
+    @Test
+    void testEcallTrapsToHandler() throws Exception {
+        int[] program = {
+                (6 << 7) | 0b0010111, // auipc x6, 0
+                iType(0b0010011, 6, 0, 6, 28), // addi x6, x6, handler
+                csrw(RV32iCpu.CSR_MTVEC, 6),
+                iType(0b0010011, 17, 0, 0, 64), // addi x17, x0, 64: not a host syscall
+                ECALL,
+                iType(0b0010011, 17, 0, 0, 93), // addi x17, x0, 93
+                ECALL, // exit(x10)
+                csrr(10, RV32iCpu.CSR_MCAUSE), // handler
+                csrr(11, RV32iCpu.CSR_MEPC),
+                iType(0b0010011, 11, 0, 11, 4), // addi x11, x11, 4
+                csrw(RV32iCpu.CSR_MEPC, 11),
+                MRET,
+        };
+        for (ExecutionMode mode : ExecutionMode.values()) {
+            RV32iCpu cpu = load(program, mode);
+            RunResult result = cpu.run(0, 10_000_000_000L);
+            assertEquals(RunResult.HaltReason.EXITED, result.getHaltReason(), mode + ": " + result);
+            assertEquals(RV32iCpu.CAUSE_ECALL, result.getExitCode(), mode + ": mcause");
+            assertEquals(BASE + 20, cpu.getRegister(11), mode + ": mepc after the handler");
+        }
+    }
+
+    @Test
+    void testSoftwareInterruptWaitsForEnable() throws Exception {
+        RV32iCpu cpu = load(new int[] { 0b1101111 }, ExecutionMode.INTERPRETER); // jal x0, 0
+        MemoryManager memory = cpu.getMemoryManager();
+        memory.writeWord(MemoryManager.CLINT_BASE + Clint.MSIP, 1);
+        assertEquals(RV32iCpu.MIP_MSIP, cpu.readCsr(RV32iCpu.CSR_MIP));
+        cpu.stepTest();
+        assertEquals(BASE, cpu.getPc(), "masked while mstatus.MIE is clear");
+
+        memory.writeWord(0x20000 + 4 * 3, 0b1101111); // jal x0, 0 at the software interrupt vector
+        cpu.writeCsr(RV32iCpu.CSR_MTVEC, 0x20000 | 1); // vectored
+        cpu.writeCsr(RV32iCpu.CSR_MIE, RV32iCpu.MIP_MSIP);
+        cpu.writeCsr(RV32iCpu.CSR_MSTATUS, RV32iCpu.MSTATUS_MIE);
+        cpu.stepTest();
+        assertEquals(0x80000003, cpu.readCsr(RV32iCpu.CSR_MCAUSE));
+        assertEquals(BASE, cpu.readCsr(RV32iCpu.CSR_MEPC));
+        assertEquals(RV32iCpu.MSTATUS_MPIE, cpu.readCsr(RV32iCpu.CSR_MSTATUS) & 0xFF, "MIE moved to MPIE");
+        assertEquals(0x20000 + 4 * 3, cpu.getPc(), "vector entry");
+    }
+
+    @Test
+    void testUartInputWakesWfi() throws Exception {
+        for (ExecutionMode mode : ExecutionMode.values()) {
+            RV32iCpu cpu = load(UART_WAIT, mode);
+            RunResult[] result = new RunResult[1];
+            Thread hart = new Thread(() -> result[0] = cpu.run(0, 10_000_000_000L));
+            hart.start();
+            Thread.sleep(100);
+            cpu.getMemoryManager().getUart().receiveData((byte) 'A');
+            hart.join();
+            assertEquals(RunResult.HaltReason.EXITED, result[0].getHaltReason(), mode + ": " + result[0]);
+            assertEquals('A', result[0].getExitCode(), mode + ": received byte");
+            assertEquals(Plic.UART_SOURCE, cpu.getRegister(11), mode + ": claimed source");
+            assertTrue(result[0].getInstructionsRetired() < 20_000, mode + ": slept instead of polling, "
+                    + result[0].getInstructionsRetired() + " instructions");
+        }
+    }
+
+    @Test
+    void testWfiParksRightAway() throws Exception {
+        int[] program = {
+                0x10500073, // loop: wfi
+                0xFFDFF06F, // jal x0, loop
+        };
+        for (ExecutionMode mode : ExecutionMode.values()) {
+            // Two or three parks, two instructions before each
+            RunResult result = load(program, mode).run(0, 120_000_000L);
+            assertEquals(RunResult.HaltReason.TIME_LIMIT, result.getHaltReason(), mode + ": " + result);
+            assertTrue(result.getInstructionsRetired() < 100, mode + ": ran on after wfi, "
+                    + result.getInstructionsRetired() + " instructions");
+        }
+    }
+
+    @Test
+    void testPlicClaimAndComplete() throws Exception {
+        RV32iCpu cpu = load(new int[0], ExecutionMode.INTERPRETER);
+        MemoryManager memory = cpu.getMemoryManager();
+        Plic plic = memory.getPlic();
+        int context = MemoryManager.PLIC_BASE + Plic.CONTEXT;
+        memory.writeWord(MemoryManager.PLIC_BASE + 4 * 5, 2); // priority[5] = 2
+        memory.writeWord(MemoryManager.PLIC_BASE + Plic.ENABLE, 1 << 5);
+
+        plic.setLevel(5, true);
+        assertEquals(RV32iCpu.MIP_MEIP, cpu.readCsr(RV32iCpu.CSR_MIP));
+        assertEquals(1 << 5, memory.readWord(MemoryManager.PLIC_BASE + Plic.PENDING));
+        assertEquals(5, memory.readWord(context + 4), "claim");
+        assertEquals(0, cpu.readCsr(RV32iCpu.CSR_MIP), "in service");
+        assertEquals(0, memory.readWord(context + 4), "nothing else to claim");
+
+        memory.writeWord(context + 4, 5); // complete while the line is still high
+        assertEquals(RV32iCpu.MIP_MEIP, cpu.readCsr(RV32iCpu.CSR_MIP), "pending again");
+        memory.writeWord(context, 2); // threshold
+        assertEquals(0, cpu.readCsr(RV32iCpu.CSR_MIP), "masked by the threshold");
+        memory.writeWord(context, 0);
+        plic.setLevel(5, false);
+        assertEquals(0, cpu.readCsr(RV32iCpu.CSR_MIP), "line lowered");
+    }
+}
@@ -0,0 +1,77 @@
+package cse311;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MemoryManagerTest {
+    private MemoryManager memory;
+
+    @BeforeEach
+    void setUp() {
+        memory = new MemoryManager(new PagedMemory(128 * 1024 * 1024));
+    }
+
+    @Test
+    void testAliasWindowSharesRam() throws MemoryAccessException {
+        memory.writeWord(MemoryManager.RAM_ALIAS_BASE + 0x1000, 0xCAFEBABE);
+        assertEquals(MemoryManager.TEXT_START + 0x1000, memory.translate(MemoryManager.RAM_ALIAS_BASE + 0x1000));
+        assertEquals(0xCAFEBABE, memory.readWord(MemoryManager.TEXT_START + 0x1000));
+    }
+
+    @Test
+    void testRemappedAndUnmappedPages() throws MemoryAccessException {
+        memory.mapRam(0x40000000, MemoryManager.DATA_START, 0x2000);
+        memory.writeHalfWord(0x40001002, (short) 0x1234);
+        assertEquals(0x1234, memory.readHalfWord(MemoryManager.DATA_START + 0x1002));
+
+        memory.unmap(0x40000000, 0x2000);
+        assertThrows(MemoryAccessException.class, () -> memory.readByte(0x40001002));
+        assertThrows(MemoryAccessException.class, () -> memory.writeWord(0, 1));
+        assertThrows(MemoryAccessException.class, () -> memory.fetchWord(MemoryManager.UART_BASE));
+    }
+
+    @Test
+    void testDeviceReceivesOffsetAndSize() throws MemoryAccessException {
+        int[] last = new int[3];
+        memory.addDevice(0x20000000, 0x2000, new Device() {
+            @Override
+            public int read(int offset, int size) {
+                return offset + size;
+            }
+
+            @Override
+            public void write(int offset, int size, int value) {
+                last[0] = offset;
+                last[1] = size;
+                last[2] = value;
+            }
+        });
+        assertEquals(0x1004 + 4, memory.readWord(0x20001004));
+        memory.writeHalfWord(0x20000010, (short) 7);
+        assertArrayEquals(new int[] { 0x10, 2, 7 }, last);
+        assertThrows(MemoryAccessException.class, () -> memory.fetchWord(0x20000000));
+    }
+
+    @Test
+    void testBulkCopyFillAndStringLength() throws MemoryAccessException {
+        int base = MemoryManager.DATA_START + 0xFF0; // crosses page boundaries
+        for (int i = 0; i < 64; i++) {
+            memory.writeByte(base + i, (byte) (i + 1));
+        }
+        memory.copy(base + 8, base, 32); // overlapping upwards
+        assertEquals(1, memory.readByte(base + 8));
+        assertEquals(32, memory.readByte(base + 39));
+        memory.copy(base, base + 8, 32); // and back down
+        assertEquals(1, memory.readByte(base));
+        assertEquals(32, memory.readByte(base + 31));
+
+        memory.fill(base + 100, 5000, (byte) 0x5A);
+        assertEquals(0x5A, memory.readByte(base + 5099));
+        assertEquals(0, memory.readByte(base + 5100));
+        assertEquals(5000, memory.stringLength(base + 100));
+
+        assertThrows(MemoryAccessException.class, () -> memory.fill(MemoryManager.UART_BASE - 4, 8, (byte) 0));
+        assertThrows(MemoryAccessException.class, () -> memory.copy(base, 0, 4));
+    }
+}
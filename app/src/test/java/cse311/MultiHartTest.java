@@ -0,0 +1,74 @@
+package cse311;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import static cse311.GuestPrograms.*;
+
+public class MultiHartTest {
+    private static final int HARTS = 4;
+    private static final int ITERATIONS = 2000;
+
+    private static int amo(int func5, int rd, int rs1, int rs2) {
+        return (func5 << 27) | (rs2 << 20) | (rs1 << 15) | (0b010 << 12) | (rd << 7) | 0b0101111;
+    }
+
+    // Every hart adds 1 to a shared counter ITERATIONS times with amoadd.w and
+    // then checks in; hart 0 waits for all check-ins and exits with the counter
+    private static final int[] COUNTER = {
+            iType(0b1110011, 1, 0b010, 0, RV32iCpu.CSR_MHARTID), // csrr x1, mhartid
+            0x02010000 | (5 << 7) | 0b0110111, // lui x5, 0x2010
+            iType(0b0010011, 6, 0, 0, 1), // addi x6, x0, 1
+            iType(0b0010011, 7, 0, 0, ITERATIONS), // addi x7, x0, ITERATIONS
+            amo(0b00000, 0, 5, 6), // loop: amoadd.w x0, x6, (x5)
+            iType(0b0010011, 7, 0, 7, -1), // addi x7, x7, -1
+            bType(0b001, 7, 0, -8), // bne x7, x0, loop
+            iType(0b0010011, 8, 0, 5, 4), // addi x8, x5, 4
+            amo(0b00000, 0, 8, 6), // amoadd.w x0, x6, (x8)
+            bType(0b001, 1, 0, 28), // bne x1, x0, park
+            iType(0b0010011, 11, 0, 0, HARTS), // addi x11, x0, HARTS
+            iType(0b0000011, 9, 0b010, 8, 0), // wait: lw x9, 0(x8)
+            bType(0b001, 9, 11, -4), // bne x9, x11, wait
+            iType(0b0000011, 10, 0b010, 5, 0), // lw x10, 0(x5)
+            iType(0b0010011, 17, 0, 0, 93), // addi x17, x0, 93
+            0b1110011, // ecall
+            0b1101111, // park: jal x0, park
+    };
+
+    @Test
+    void testAtomicCounterAcrossHarts() throws Exception {
+        for (ExecutionMode mode : ExecutionMode.values()) {
+            RV32iComputer computer = new RV32iComputer(128 * 1024 * 1024, HARTS);
+            write(computer.getMemoryManager(), COUNTER);
+            computer.setExecutionMode(mode);
+            computer.setProgramCounterEntryPoint(BASE);
+
+            RunResult[] results = computer.run(0, 10_000_000_000L);
+            assertEquals(RunResult.HaltReason.EXITED, results[0].getHaltReason(), mode + ": hart 0");
+            assertEquals(HARTS * ITERATIONS, results[0].getExitCode(), mode + ": lost updates");
+            for (int i = 1; i < HARTS; i++) {
+                assertEquals(RunResult.HaltReason.STOPPED, results[i].getHaltReason(), mode + ": hart " + i);
+            }
+        }
+    }
+
+    @Test
+    void testStoreConditionalNeedsReservation() throws Exception {
+        int[] program = {
+                0x02010000 | (5 << 7) | 0b0110111, // lui x5, 0x2010
+                iType(0b0010011, 6, 0, 0, 42), // addi x6, x0, 42
+                amo(0b00011, 1, 5, 6), // sc.w x1, x6, (x5): no reservation, fails
+                amo(0b00010, 2, 5, 0), // lr.w x2, (x5)
+                amo(0b00011, 3, 5, 6), // sc.w x3, x6, (x5): succeeds
+                amo(0b00011, 4, 5, 6), // sc.w x4, x6, (x5): reservation used up
+        };
+        RV32iCpu cpu = load(program, ExecutionMode.INTERPRETER);
+        for (int i = 0; i < program.length; i++) {
+            cpu.stepTest();
+        }
+        assertEquals(1, cpu.getRegister(1), "sc.w without lr.w");
+        assertEquals(0, cpu.getRegister(2), "lr.w value");
+        assertEquals(0, cpu.getRegister(3), "sc.w after lr.w");
+        assertEquals(1, cpu.getRegister(4), "second sc.w");
+        assertEquals(42, cpu.getMemoryManager().readWord(0x2010000));
+    }
+}
@@ -0,0 +1,56 @@
+package cse311;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PagedMemoryTest {
+    private PagedMemory memory;
+
+    @BeforeEach
+    void setUp() {
+        memory = new PagedMemory(128 * 1024 * 1024);
+    }
+
+    @Test
+    void testUntouchedMemoryReadsZeroWithoutAllocating() throws MemoryAccessException {
+        assertEquals(0, memory.readWord(0x2010000));
+        assertEquals(0, memory.readHalfWord(0x7C00000 - 2));
+        assertEquals(0, memory.readByte(12345));
+        assertEquals(0, memory.getAllocatedPages(), "reads must not allocate pages");
+    }
+
+    @Test
+    void testWritesAllocateOnlyTheTouchedPage() throws MemoryAccessException {
+        memory.writeWord(0x2010004, 0xCAFEBABE);
+        memory.writeHalfWord(0x2010008, (short) 0x1234);
+        memory.writeByte(0x2010FFF, (byte) 0x7F);
+
+        assertEquals(0xCAFEBABE, memory.readWord(0x2010004));
+        assertEquals((byte) 0xBE, memory.readByte(0x2010004), "little-endian byte order");
+        assertEquals((short) 0x1234, memory.readHalfWord(0x2010008));
+        assertEquals((byte) 0x7F, memory.readByte(0x2010FFF));
+        assertEquals(1, memory.getAllocatedPages());
+    }
+
+    @Test
+    void testInitializeMemoryAcrossPages() throws MemoryAccessException {
+        byte[] data = new byte[10000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        memory.initializeMemory(0x10FF0, data);
+
+        for (int i = 0; i < data.length; i += 997) {
+            assertEquals(data[i], memory.readByte(0x10FF0 + i));
+        }
+        assertEquals(4, memory.getAllocatedPages());
+    }
+
+    @Test
+    void testOutOfBoundsAndMisalignedAccess() {
+        assertThrows(MemoryAccessException.class, () -> memory.readWord(128 * 1024 * 1024));
+        assertThrows(MemoryAccessException.class, () -> memory.writeByte(-1, (byte) 0));
+        assertThrows(MemoryAccessException.class, () -> memory.readWord(0x10002));
+    }
+}
@@ -0,0 +1,62 @@
+package cse311;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PredecodedInstructionTest {
+
+    private static void assertDecodes(int word, int kind, int rd, int rs1, int rs2, int imm) {
+        PredecodedInstruction instruction = PredecodedInstruction.decode(word, 0x1000);
+        String name = Integer.toHexString(word);
+        assertEquals(kind, instruction.kind, name + " kind");
+        assertEquals(rd, instruction.rd, name + " rd");
+        assertEquals(rs1, instruction.rs1, name + " rs1");
+        assertEquals(rs2, instruction.rs2, name + " rs2");
+        assertEquals(imm, instruction.imm, name + " imm");
+    }
+
+    @Test
+    void testDecodesEachFormat() {
+        assertDecodes(0x40B50533, PredecodedInstruction.SUB, 10, 10, 11, 0); // sub a0, a0, a1
+        assertDecodes(0x02B54533, PredecodedInstruction.DIV, 10, 10, 11, 0); // div a0, a0, a1
+        assertDecodes(0xFFF00513, PredecodedInstruction.ADDI, 10, 0, 0, -1); // li a0, -1
+        assertDecodes(0x40355513, PredecodedInstruction.SRAI, 10, 10, 0, 3); // srai a0, a0, 3
+        assertDecodes(0x60051513, PredecodedInstruction.CLZ, 10, 10, 0, 0); // clz a0, a0
+        assertDecodes(0xFFC52583, PredecodedInstruction.LW, 11, 10, 0, -4); // lw a1, -4(a0)
+        assertDecodes(0xFEB52E23, PredecodedInstruction.SW, 0, 10, 11, -4); // sw a1, -4(a0)
+        assertDecodes(0xFEB50EE3, PredecodedInstruction.BEQ, 0, 10, 11, 0x1000 - 4); // beq a0, a1, -4
+        assertDecodes(0x008000EF, PredecodedInstruction.JAL, 1, 0, 0, 0x1008); // jal ra, 8
+        assertDecodes(0x12345537, PredecodedInstruction.LUI, 10, 0, 0, 0x12345000); // lui a0, 0x12345
+        assertDecodes(0x1CB5252F, PredecodedInstruction.SC_W, 10, 10, 11, 0); // sc.w.aq a0, a1, (a0)
+        assertDecodes(0xB0002573, PredecodedInstruction.CSRRS, 10, 0, 0, 0xB00); // csrr a0, mcycle
+        assertDecodes(0x30200073, PredecodedInstruction.MRET, 0, 0, 0, 0);
+    }
+
+    @Test
+    void testUnassignedEncodingsAreIllegal() {
+        assertDecodes(0x00000000, PredecodedInstruction.ILLEGAL, 0, 0, 0, 0);
+        assertDecodes(0x04B51533, PredecodedInstruction.ILLEGAL, 0, 0, 0, 0); // sll with func7 0b0000010
+        assertDecodes(0x00051567, PredecodedInstruction.ILLEGAL, 0, 0, 0, 0); // jalr with func3 0b001
+        assertDecodes(0x60351513, PredecodedInstruction.ILLEGAL, 0, 0, 0, 0); // clz group, rs2 = 3
+        assertDecodes(0x00B53003, PredecodedInstruction.ILLEGAL, 0, 0, 0, 0); // load with func3 0b011
+    }
+
+    @Test
+    void testInstructionDecodedRoundTrips() {
+        InstructionDecoded branch = new InstructionDecoded();
+        branch.setOpcode(0b1100011);
+        branch.setFunc3(0b001);
+        branch.setRs1(5);
+        branch.setRs2(6);
+        branch.setImm_b(-20);
+        assertEquals(0xFE6296E3, branch.toWord()); // bne t0, t1, -20
+
+        InstructionDecoded store = new InstructionDecoded();
+        store.setOpcode(0b0100011);
+        store.setFunc3(0b010);
+        store.setRs1(2);
+        store.setRs2(1);
+        store.setImm_s(12);
+        assertEquals(0x00112623, store.toWord()); // sw ra, 12(sp)
+    }
+}
@@ -0,0 +1,62 @@
+package cse311;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import static cse311.GuestPrograms.*;
+
+import java.io.StringWriter;
+
+public class ProfilerTest {
+    // Calls func 100 times, then exits
+    private static final int[] CALL_LOOP = {
+            iType(0b0010011, 5, 0, 0, 100), // start: addi x5, x0, 100
+            0x014000EF, // loop: jal ra, func
+            iType(0b0010011, 5, 0, 5, -1), // addi x5, x5, -1
+            bType(0b001, 5, 0, -8), // bne x5, x0, loop
+            iType(0b0010011, 17, 0, 0, 93), // addi a7, x0, 93
+            0x00000073, // ecall
+            iType(0b0010011, 6, 0, 6, 1), // func: addi x6, x6, 1
+            iType(0b1100111, 0, 0, 1, 0), // jalr x0, 0(ra)
+    };
+
+    private static final SymbolTable SYMBOLS = new SymbolTable(new int[] { BASE + 24, BASE },
+            new int[] { 8, 24 }, new String[] { "func", "start" });
+
+    private static Profiler profile(ExecutionMode mode) throws Exception {
+        RV32iCpu cpu = load(CALL_LOOP, mode);
+        Profiler profiler = new Profiler(1);
+        cpu.setProfiler(profiler);
+        assertEquals(RunResult.HaltReason.EXITED, cpu.run(0, 0).getHaltReason());
+        return profiler;
+    }
+
+    private static String collapsed(Profiler profiler) throws Exception {
+        StringWriter out = new StringWriter();
+        profiler.writeCollapsed(out, SYMBOLS, "");
+        return out.toString();
+    }
+
+    @Test
+    void testCountsAndStacksInEveryMode() throws Exception {
+        for (ExecutionMode mode : ExecutionMode.values()) {
+            Profiler profiler = profile(mode);
+            assertEquals(100, profiler.getCount(PredecodedInstruction.JAL), mode + ": calls");
+            assertEquals(100, profiler.getCount(PredecodedInstruction.JALR), mode + ": returns");
+            assertEquals(202, profiler.getCount(PredecodedInstruction.ADDI), mode + ": addi");
+            assertTrue(collapsed(profiler).contains("start;func "), mode + ": " + collapsed(profiler));
+        }
+        // The interpreter samples every instruction, so the stacks are exact
+        assertEquals("start 303\nstart;func 200\n", collapsed(profile(ExecutionMode.INTERPRETER)));
+    }
+
+    @Test
+    void testSymbolLookup() {
+        assertEquals("start", SYMBOLS.describe(BASE));
+        assertEquals("start+0x8", SYMBOLS.describe(BASE + 8));
+        assertEquals("func+0x4", SYMBOLS.describe(BASE + 28));
+        assertEquals("0x00010020", SYMBOLS.describe(BASE + 32));
+        assertEquals(BASE + 24, SYMBOLS.addressOf("func"));
+        assertEquals("alu", Profiler.classOf(PredecodedInstruction.ADDI));
+        assertEquals("fcvt.d.wu", PredecodedInstruction.nameOf(PredecodedInstruction.FCVT_D_WU));
+    }
+}
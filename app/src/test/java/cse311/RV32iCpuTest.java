@@ -10,8 +10,8 @@ public class RV32iCpuTest {
 
     @BeforeEach
     void setUp() {
-        SimpleMemory simpleMemory = new SimpleMemory(128 * 1024 * 1024);
-        memory = new MemoryManager(simpleMemory);
+        PagedMemory pagedMemory = new PagedMemory(128 * 1024 * 1024);
+        memory = new MemoryManager(pagedMemory);
         cpu = new RV32iCpu(memory);
     }
 
@@ -53,6 +53,78 @@ public class RV32iCpuTest {
         assertEquals(7, cpu.getRegister(1), "SUB failed");
     }
 
+    private int rv32m(int func3, int a, int b) {
+        InstructionDecoded inst = new InstructionDecoded();
+        inst.setOpcode(0b0110011);
+        inst.setRd(1);
+        inst.setFunc3(func3);
+        inst.setRs1(2);
+        inst.setRs2(3);
+        inst.setFunc7(0b0000001);
+        cpu.setRegister(2, a);
+        cpu.setRegister(3, b);
+        cpu.executeTest(inst);
+        return cpu.getRegister(1);
+    }
+
+    @Test
+    void testMultiply() {
+        assertEquals(-42, rv32m(0b000, 6, -7), "MUL failed");
+        assertEquals(-1, rv32m(0b001, 6, -7), "MULH failed");
+        assertEquals(0x40000000, rv32m(0b001, Integer.MIN_VALUE, Integer.MIN_VALUE), "MULH MIN*MIN failed");
+        assertEquals(-1, rv32m(0b010, -1, -1), "MULHSU failed");
+        assertEquals(0xFFFFFFFE, rv32m(0b011, -1, -1), "MULHU failed");
+    }
+
+    @Test
+    void testDivideEdgeCases() {
+        assertEquals(-3, rv32m(0b100, -7, 2), "DIV rounds toward zero");
+        assertEquals(-1, rv32m(0b100, 5, 0), "DIV by zero");
+        assertEquals(Integer.MIN_VALUE, rv32m(0b100, Integer.MIN_VALUE, -1), "DIV overflow");
+        assertEquals(0x7FFFFFFF, rv32m(0b101, -1, 2), "DIVU failed");
+        assertEquals(-1, rv32m(0b101, 5, 0), "DIVU by zero");
+        assertEquals(-1, rv32m(0b110, -7, 2), "REM takes the dividend's sign");
+        assertEquals(5, rv32m(0b110, 5, 0), "REM by zero");
+        assertEquals(0, rv32m(0b110, Integer.MIN_VALUE, -1), "REM overflow");
+        assertEquals(1, rv32m(0b111, -1, 2), "REMU failed");
+        assertEquals(-5, rv32m(0b111, -5, 0), "REMU by zero");
+    }
+
+    private int zbb(int opcode, int func7, int func3, int rs2OrImm, int a, int b) {
+        InstructionDecoded inst = new InstructionDecoded();
+        inst.setOpcode(opcode);
+        inst.setRd(1);
+        inst.setFunc3(func3);
+        inst.setRs1(2);
+        inst.setRs2(rs2OrImm & 0x1F);
+        inst.setFunc7(func7);
+        inst.setImm_i(rs2OrImm);
+        cpu.setRegister(2, a);
+        cpu.setRegister(3, b);
+        cpu.executeTest(inst);
+        return cpu.getRegister(1);
+    }
+
+    @Test
+    void testBitManipulation() {
+        int r = 0b0110011;
+        int i = 0b0010011;
+        assertEquals(0x0F00, zbb(r, 0b0100000, 0b111, 3, 0x0FF0, 0x00F0), "ANDN failed");
+        assertEquals(-1, zbb(r, 0b0100000, 0b100, 3, 0x1234, 0x1234), "XNOR failed");
+        assertEquals(-5, zbb(r, 0b0000101, 0b100, 3, -5, 3), "MIN failed");
+        assertEquals(3, zbb(r, 0b0000101, 0b101, 3, -5, 3), "MINU failed");
+        assertEquals(-5, zbb(r, 0b0000101, 0b111, 3, -5, 3), "MAXU failed");
+        assertEquals(0x00000003, zbb(r, 0b0110000, 0b001, 3, 0x80000001, 33), "ROL uses rs2 mod 32");
+        assertEquals(0x81234567, zbb(i, 0b0110000, 0b101, 0x604, 0x12345678, 0), "RORI failed");
+        assertEquals(32, zbb(i, 0b0110000, 0b001, 0x600, 0, 0), "CLZ of zero");
+        assertEquals(32, zbb(i, 0b0110000, 0b001, 0x601, 0, 0), "CTZ of zero");
+        assertEquals(5, zbb(i, 0b0110000, 0b001, 0x602, 0x1F000000, 0), "CPOP failed");
+        assertEquals(-128, zbb(i, 0b0110000, 0b001, 0x604, 0x1280, 0), "SEXT.B failed");
+        assertEquals(0x8001, zbb(r, 0b0000100, 0b100, 0, 0xFFFF8001, 0), "ZEXT.H failed");
+        assertEquals(0xFF00FFFF, zbb(i, 0b0010100, 0b101, 0x287, 0x80000102, 0), "ORC.B failed");
+        assertEquals(0x78563412, zbb(i, 0b0110100, 0b101, 0x698, 0x12345678, 0), "REV8 failed");
+    }
+
     // I-type instruction tests
     @Test
     void testAddi() {
@@ -0,0 +1,65 @@
+package cse311;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UartTest {
+    private static final int TX_DATA = 0x0;
+    private static final int RX_DATA = 0x4;
+    private static final int STATUS = 0x8;
+
+    @Test
+    void testReceiveIsFifo() throws InterruptedException {
+        Uart uart = new Uart(16);
+        assertEquals(0, uart.read(STATUS, 4) & 1, "RX ready while empty");
+        uart.receiveDatas("abc".getBytes());
+        assertEquals(1, uart.read(STATUS, 4) & 1, "RX ready not set");
+        assertEquals('a', uart.read(RX_DATA, 1));
+        assertEquals('b', uart.read(RX_DATA, 1));
+        assertEquals('c', uart.read(RX_DATA, 1));
+        assertEquals(0, uart.read(STATUS, 4) & 1, "RX ready after draining");
+    }
+
+    @Test
+    void testFullQueueBlocksProducerWithoutLosingData() throws Exception {
+        Uart uart = new Uart(4);
+        byte[] input = new byte[1000];
+        for (int i = 0; i < input.length; i++) {
+            input[i] = (byte) i;
+        }
+        Thread producer = new Thread(() -> {
+            try {
+                uart.receiveDatas(input);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        producer.start();
+
+        for (int i = 0; i < input.length; i++) {
+            while ((uart.read(STATUS, 4) & 1) == 0) {
+                Thread.onSpinWait();
+            }
+            assertEquals(input[i] & 0xFF, uart.read(RX_DATA, 1), "byte " + i);
+        }
+        producer.join(5000);
+        assertFalse(producer.isAlive());
+    }
+
+    @Test
+    void testTransmitIsBufferedUntilNewlineOrIdle() {
+        UartSink.CaptureSink sink = new UartSink.CaptureSink();
+        Uart uart = new Uart(16, sink);
+        for (char c : "hi\nprompt> ".toCharArray()) {
+            uart.write(TX_DATA, 1, c);
+        }
+        assertEquals("hi\n", sink.toString(), "flush on newline");
+
+        uart.read(STATUS, 4); // polling with nothing received counts as idle
+        assertEquals("hi\nprompt> ", sink.toString(), "flush on idle");
+
+        uart.write(TX_DATA, 1, '!');
+        uart.flush();
+        assertEquals("hi\nprompt> !", sink.toString(), "explicit flush");
+    }
+}
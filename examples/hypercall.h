@@ -0,0 +1,56 @@
+/*
+ * Host-accelerated memory helpers for the RV32I simulator.
+ *
+ * Each call is a single ECALL that the simulator carries out as one bulk
+ * operation on guest memory, instead of a byte-by-byte loop of guest
+ * instructions. a7 selects the hypercall, the arguments and the result
+ * follow the C library functions of the same name. hc_memcpy has memmove
+ * semantics, so overlapping ranges are fine. A range that leaves RAM stops
+ * the simulator with a memory access fault.
+ *
+ * Define HYPERCALL_PROVIDE_LIBC before including this header in exactly one
+ * file to also get memcpy, memmove, memset and strlen built on top of them,
+ * which is what GCC calls for struct copies and the like under -nostdlib.
+ */
+#ifndef HYPERCALL_H
+#define HYPERCALL_H
+
+#include <stddef.h>
+
+#define HC_MEMCPY 0x1000
+#define HC_MEMSET 0x1001
+#define HC_STRLEN 0x1002
+
+static inline long hypercall3(long number, long arg0, long arg1, long arg2)
+{
+    register long a0 asm("a0") = arg0;
+    register long a1 asm("a1") = arg1;
+    register long a2 asm("a2") = arg2;
+    register long a7 asm("a7") = number;
+    asm volatile("ecall" : "+r"(a0) : "r"(a1), "r"(a2), "r"(a7) : "memory");
+    return a0;
+}
+
+static inline void *hc_memcpy(void *dest, const void *src, size_t n)
+{
+    return (void *)hypercall3(HC_MEMCPY, (long)dest, (long)src, (long)n);
+}
+
+static inline void *hc_memset(void *dest, int c, size_t n)
+{
+    return (void *)hypercall3(HC_MEMSET, (long)dest, c, (long)n);
+}
+
+static inline size_t hc_strlen(const char *s)
+{
+    return (size_t)hypercall3(HC_STRLEN, (long)s, 0, 0);
+}
+
+#ifdef HYPERCALL_PROVIDE_LIBC
+void *memcpy(void *dest, const void *src, size_t n) { return hc_memcpy(dest, src, n); }
+void *memmove(void *dest, const void *src, size_t n) { return hc_memcpy(dest, src, n); }
+void *memset(void *dest, int c, size_t n) { return hc_memset(dest, c, n); }
+size_t strlen(const char *s) { return hc_strlen(s); }
+#endif
+
+#endif /* HYPERCALL_H */
@@ -0,0 +1,258 @@
+package cse311;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Just enough of an RV32IM assembler to write the benchmark kernels, with
+ * labels for branches, jumps and {@link #la}, and an ELF writer so that the
+ * kernels go through {@link ElfLoader} like any other guest program.
+ */
+final class Assembler {
+    static final int ZERO = 0, RA = 1, SP = 2;
+    static final int T0 = 5, T1 = 6, T2 = 7, T3 = 28, T4 = 29, T5 = 30, T6 = 31;
+    static final int S0 = 8, S1 = 9, S2 = 18, S3 = 19, S4 = 20, S5 = 21, S6 = 22, S7 = 23;
+    static final int A0 = 10, A1 = 11, A2 = 12, A3 = 13, A4 = 14, A5 = 15, A6 = 16, A7 = 17;
+
+    private static final int OP = 0b0110011;
+    private static final int OP_IMM = 0b0010011;
+    private static final int LOAD = 0b0000011;
+    private static final int STORE = 0b0100011;
+    private static final int BRANCH = 0b1100011;
+
+    private final int origin;
+    private final ByteArrayOutputStream code = new ByteArrayOutputStream();
+    private final Map<String, Integer> labels = new HashMap<>();
+    private final List<Fixup> fixups = new ArrayList<>();
+
+    // An instruction whose immediate waits for a label
+    private record Fixup(int position, String label, char type) {
+    }
+
+    Assembler(int origin) {
+        this.origin = origin;
+    }
+
+    int here() {
+        return origin + code.size();
+    }
+
+    Assembler label(String name) {
+        if (labels.putIfAbsent(name, here()) != null) {
+            throw new IllegalArgumentException("Duplicate label " + name);
+        }
+        return this;
+    }
+
+    private void emit(int word) {
+        for (int i = 0; i < 4; i++) {
+            code.write(word >>> (8 * i));
+        }
+    }
+
+    private void rType(int func7, int rs2, int rs1, int func3, int rd) {
+        emit(func7 << 25 | rs2 << 20 | rs1 << 15 | func3 << 12 | rd << 7 | OP);
+    }
+
+    private void iType(int opcode, int rd, int func3, int rs1, int imm) {
+        if (imm < -2048 || imm > 2047) {
+            throw new IllegalArgumentException("Immediate out of range: " + imm);
+        }
+        emit(imm << 20 | rs1 << 15 | func3 << 12 | rd << 7 | opcode);
+    }
+
+    private void sType(int func3, int rs1, int rs2, int imm) {
+        emit((imm >> 5) << 25 | rs2 << 20 | rs1 << 15 | func3 << 12 | (imm & 0x1F) << 7 | STORE);
+    }
+
+    // RV32I and RV32M register-register
+
+    Assembler add(int rd, int rs1, int rs2) { rType(0, rs2, rs1, 0b000, rd); return this; }
+    Assembler sub(int rd, int rs1, int rs2) { rType(0b0100000, rs2, rs1, 0b000, rd); return this; }
+    Assembler sll(int rd, int rs1, int rs2) { rType(0, rs2, rs1, 0b001, rd); return this; }
+    Assembler slt(int rd, int rs1, int rs2) { rType(0, rs2, rs1, 0b010, rd); return this; }
+    Assembler sltu(int rd, int rs1, int rs2) { rType(0, rs2, rs1, 0b011, rd); return this; }
+    Assembler xor(int rd, int rs1, int rs2) { rType(0, rs2, rs1, 0b100, rd); return this; }
+    Assembler srl(int rd, int rs1, int rs2) { rType(0, rs2, rs1, 0b101, rd); return this; }
+    Assembler or(int rd, int rs1, int rs2) { rType(0, rs2, rs1, 0b110, rd); return this; }
+    Assembler and(int rd, int rs1, int rs2) { rType(0, rs2, rs1, 0b111, rd); return this; }
+    Assembler mul(int rd, int rs1, int rs2) { rType(1, rs2, rs1, 0b000, rd); return this; }
+    Assembler div(int rd, int rs1, int rs2) { rType(1, rs2, rs1, 0b100, rd); return this; }
+    Assembler divu(int rd, int rs1, int rs2) { rType(1, rs2, rs1, 0b101, rd); return this; }
+    Assembler rem(int rd, int rs1, int rs2) { rType(1, rs2, rs1, 0b110, rd); return this; }
+
+    // Register-immediate
+
+    Assembler addi(int rd, int rs1, int imm) { iType(OP_IMM, rd, 0b000, rs1, imm); return this; }
+    Assembler slti(int rd, int rs1, int imm) { iType(OP_IMM, rd, 0b010, rs1, imm); return this; }
+    Assembler xori(int rd, int rs1, int imm) { iType(OP_IMM, rd, 0b100, rs1, imm); return this; }
+    Assembler ori(int rd, int rs1, int imm) { iType(OP_IMM, rd, 0b110, rs1, imm); return this; }
+    Assembler andi(int rd, int rs1, int imm) { iType(OP_IMM, rd, 0b111, rs1, imm); return this; }
+    Assembler slli(int rd, int rs1, int shamt) { iType(OP_IMM, rd, 0b001, rs1, shamt); return this; }
+    Assembler srli(int rd, int rs1, int shamt) { iType(OP_IMM, rd, 0b101, rs1, shamt); return this; }
+    Assembler srai(int rd, int rs1, int shamt) { iType(OP_IMM, rd, 0b101, rs1, 0x400 | shamt); return this; }
+    Assembler lui(int rd, int upper) { emit(upper << 12 | rd << 7 | 0b0110111); return this; }
+
+    Assembler mv(int rd, int rs) {
+        return addi(rd, rs, 0);
+    }
+
+    // lui + addi, or a single addi when the value fits
+    Assembler li(int rd, int value) {
+        int low = value << 20 >> 20;
+        if (value == low) {
+            return addi(rd, ZERO, low);
+        }
+        lui(rd, (value - low) >>> 12);
+        return low != 0 ? addi(rd, rd, low) : this;
+    }
+
+    // auipc + addi to a label, as GCC emits for the address of a local symbol
+    Assembler la(int rd, String label) {
+        fixups.add(new Fixup(code.size(), label, 'U'));
+        emit(rd << 7 | 0b0010111);
+        fixups.add(new Fixup(code.size(), label, 'I'));
+        emit(rd << 15 | rd << 7 | OP_IMM);
+        return this;
+    }
+
+    // Loads and stores
+
+    Assembler lb(int rd, int rs1, int imm) { iType(LOAD, rd, 0b000, rs1, imm); return this; }
+    Assembler lw(int rd, int rs1, int imm) { iType(LOAD, rd, 0b010, rs1, imm); return this; }
+    Assembler lbu(int rd, int rs1, int imm) { iType(LOAD, rd, 0b100, rs1, imm); return this; }
+    Assembler lhu(int rd, int rs1, int imm) { iType(LOAD, rd, 0b101, rs1, imm); return this; }
+    Assembler sb(int rs2, int rs1, int imm) { sType(0b000, rs1, rs2, imm); return this; }
+    Assembler sh(int rs2, int rs1, int imm) { sType(0b001, rs1, rs2, imm); return this; }
+    Assembler sw(int rs2, int rs1, int imm) { sType(0b010, rs1, rs2, imm); return this; }
+
+    // Control transfers
+
+    private Assembler branch(int func3, int rs1, int rs2, String label) {
+        fixups.add(new Fixup(code.size(), label, 'B'));
+        emit(rs2 << 20 | rs1 << 15 | func3 << 12 | BRANCH);
+        return this;
+    }
+
+    Assembler beq(int rs1, int rs2, String label) { return branch(0b000, rs1, rs2, label); }
+    Assembler bne(int rs1, int rs2, String label) { return branch(0b001, rs1, rs2, label); }
+    Assembler blt(int rs1, int rs2, String label) { return branch(0b100, rs1, rs2, label); }
+    Assembler bge(int rs1, int rs2, String label) { return branch(0b101, rs1, rs2, label); }
+    Assembler bltu(int rs1, int rs2, String label) { return branch(0b110, rs1, rs2, label); }
+    Assembler bgeu(int rs1, int rs2, String label) { return branch(0b111, rs1, rs2, label); }
+    Assembler beqz(int rs, String label) { return beq(rs, ZERO, label); }
+    Assembler bnez(int rs, String label) { return bne(rs, ZERO, label); }
+
+    Assembler jal(int rd, String label) {
+        fixups.add(new Fixup(code.size(), label, 'J'));
+        emit(rd << 7 | 0b1101111);
+        return this;
+    }
+
+    Assembler j(String label) {
+        return jal(ZERO, label);
+    }
+
+    Assembler call(String label) {
+        return jal(RA, label);
+    }
+
+    Assembler jalr(int rd, int rs1, int imm) { iType(0b1100111, rd, 0b000, rs1, imm); return this; }
+
+    Assembler ret() {
+        return jalr(ZERO, RA, 0);
+    }
+
+    // exit(a0) through the host's exit call
+    Assembler exit() {
+        li(A7, 93);
+        emit(0b1110011);
+        return this;
+    }
+
+    // Data
+
+    Assembler word(int value) {
+        emit(value);
+        return this;
+    }
+
+    Assembler string(String value) {
+        code.writeBytes(value.getBytes(StandardCharsets.US_ASCII));
+        code.write(0);
+        return this;
+    }
+
+    Assembler align(int alignment) {
+        while (code.size() % alignment != 0) {
+            code.write(0);
+        }
+        return this;
+    }
+
+    /**
+     * The program with every label resolved, to be loaded at the origin.
+     */
+    byte[] assemble() {
+        ByteBuffer image = ByteBuffer.wrap(code.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+        for (Fixup fixup : fixups) {
+            Integer target = labels.get(fixup.label());
+            if (target == null) {
+                throw new IllegalArgumentException("Undefined label " + fixup.label());
+            }
+            int word = image.getInt(fixup.position());
+            // la: the addi is relative to its auipc, one instruction earlier
+            int offset = target - (origin + fixup.position() - (fixup.type() == 'I' ? 4 : 0));
+            int low = offset << 20 >> 20;
+            switch (fixup.type()) {
+                case 'U':
+                    word |= (offset - low) & 0xFFFFF000;
+                    break;
+                case 'I':
+                    word |= low << 20;
+                    break;
+                case 'B':
+                    word |= ((offset >> 12) & 1) << 31 | ((offset >> 5) & 0x3F) << 25 | ((offset >> 1) & 0xF) << 8
+                            | ((offset >> 11) & 1) << 7;
+                    break;
+                default: // 'J'
+                    word |= ((offset >> 20) & 1) << 31 | ((offset >> 1) & 0x3FF) << 21 | ((offset >> 11) & 1) << 20
+                            | ((offset >> 12) & 0xFF) << 12;
+                    break;
+            }
+            image.putInt(fixup.position(), word);
+        }
+        return image.array();
+    }
+
+    /**
+     * A static executable with the program as its only, RWX, segment and the
+     * origin as entry point.
+     */
+    byte[] toElf() {
+        byte[] program = assemble();
+        int headers = 52 + 32;
+        ByteBuffer elf = ByteBuffer.allocate(headers + program.length).order(ByteOrder.LITTLE_ENDIAN);
+        elf.put(new byte[] { 0x7f, 'E', 'L', 'F', 1, 1, 1, 0 }).put(new byte[8]);
+        elf.putShort((short) 2); // ET_EXEC
+        elf.putShort((short) 243); // EM_RISCV
+        elf.putInt(1);
+        elf.putInt(origin); // entry
+        elf.putInt(52); // program headers
+        elf.putInt(0); // no section headers
+        elf.putInt(0); // flags
+        elf.putShort((short) 52).putShort((short) 32).putShort((short) 1);
+        elf.putShort((short) 40).putShort((short) 0).putShort((short) 0);
+        // PT_LOAD
+        elf.putInt(1).putInt(headers).putInt(origin).putInt(origin);
+        elf.putInt(program.length).putInt(program.length).putInt(7).putInt(4);
+        elf.put(program);
+        return elf.array();
+    }
+}
@@ -0,0 +1,71 @@
+package cse311;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Decoding cost per instruction, for the instruction mix of the kernels and
+ * for RV32C expansion. This is what a decode cache miss costs on top of the
+ * memory fetch.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DecodeBenchmark {
+    private static final int COUNT = 1024;
+
+    private final int[] words = new int[COUNT];
+    // c.addi, c.li, c.lw, c.sw, c.mv, c.add, c.j, c.bnez, c.jr, c.swsp, c.lwsp, c.slli
+    private static final int[] COMPRESSED = { 0x0505, 0x4505, 0x414C, 0xC14C, 0x852E, 0x952E, 0xA001, 0xFC65,
+            0x8082, 0xC606, 0x4532, 0x050A };
+
+    @Setup
+    public void setup() {
+        int count = 0;
+        Assembler[] kernels = { Kernels.dhrystone(), Kernels.coremark(), Kernels.memcpy(), Kernels.sort() };
+        while (count < COUNT) {
+            for (Assembler kernel : kernels) {
+                ByteBuffer code = ByteBuffer.wrap(kernel.assemble()).order(ByteOrder.LITTLE_ENDIAN);
+                // Only the 32-bit instructions, not the dhrystone strings
+                while (code.remaining() >= 4 && count < COUNT) {
+                    int word = code.getInt();
+                    if ((word & 0b11) == 0b11 && PredecodedInstruction.decode(word, 0).kind != 0) {
+                        words[count++] = word;
+                    }
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public void decode(Blackhole blackhole) {
+        int address = MemoryManager.TEXT_START;
+        for (int word : words) {
+            blackhole.consume(PredecodedInstruction.decode(word, address));
+            address += 4;
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public void decodeCompressed(Blackhole blackhole) {
+        int address = MemoryManager.TEXT_START;
+        for (int i = 0; i < COUNT; i++) {
+            int expanded = CompressedInstruction.expand(COMPRESSED[i % COMPRESSED.length]);
+            blackhole.consume(PredecodedInstruction.decode(expanded, address).compressed());
+            address += 2;
+        }
+    }
+}
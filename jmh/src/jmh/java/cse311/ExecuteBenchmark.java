@@ -0,0 +1,80 @@
+package cse311;
+
+import static cse311.Assembler.*;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Execution cost per instruction for one instruction class at a time, in
+ * each execution mode. The guest is an endless loop of 32 groups of four
+ * instructions of the class, and every invocation retires about
+ * {@link #INSTRUCTIONS} of them.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ExecuteBenchmark {
+    private static final int INSTRUCTIONS = 100_000;
+
+    @Param({ "alu", "muldiv", "load", "store", "branch" })
+    public String instructionClass;
+
+    @Param({ "INTERPRETER", "BASIC_BLOCK", "JIT" })
+    public ExecutionMode mode;
+
+    private RV32iCpu cpu;
+
+    @Setup
+    public void setup() throws MemoryAccessException {
+        Assembler a = new Assembler(MemoryManager.TEXT_START);
+        a.li(S0, MemoryManager.DATA_START).li(T0, 12345).li(T1, 678).li(T2, 0);
+        a.label("top");
+        for (int i = 0; i < 32; i++) {
+            switch (instructionClass) {
+                case "alu":
+                    a.add(A0, T0, T1).xor(A1, A0, T0).slli(A2, A1, 3).sltu(A3, A2, T1);
+                    break;
+                case "muldiv":
+                    a.mul(A0, T0, T1).divu(A1, T0, T1).rem(A2, T0, T1).mul(A3, A0, A1);
+                    break;
+                case "load":
+                    a.lw(A0, S0, 0).lw(A1, S0, 4).lbu(A2, S0, 8).lhu(A3, S0, 12);
+                    break;
+                case "store":
+                    a.sw(T0, S0, 0).sw(T1, S0, 4).sb(T0, S0, 8).sh(T1, S0, 12);
+                    break;
+                default: // two taken, two not taken
+                    a.beq(ZERO, ZERO, "a" + i).label("a" + i).bne(T2, ZERO, "top");
+                    a.blt(T2, T0, "b" + i).label("b" + i).bge(T2, T0, "top");
+                    break;
+            }
+        }
+        a.j("top");
+        MemoryManager memory = new MemoryManager(new PagedMemory(128 * 1024 * 1024));
+        ByteBuffer program = ByteBuffer.wrap(a.assemble()).order(ByteOrder.LITTLE_ENDIAN);
+        for (int address = MemoryManager.TEXT_START; program.hasRemaining(); address += 4) {
+            memory.writeWord(address, program.getInt());
+        }
+        cpu = new RV32iCpu(memory);
+        cpu.setExecutionMode(mode);
+        cpu.setProgramCounterEntryPoint(MemoryManager.TEXT_START);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(INSTRUCTIONS)
+    public long execute() {
+        return cpu.run(INSTRUCTIONS, 0).getInstructionsRetired();
+    }
+}
@@ -0,0 +1,75 @@
+package cse311;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Whole programs from ELF load to exit. The primary score is complete runs
+ * per second; the "instructions" counter is the guest's instructions per
+ * second, so divide by a million for MIPS. Every invocation starts from a
+ * fresh machine, so the code caches are cold, as for a real run.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class KernelBenchmark {
+    // A built-in kernel name from Kernels, or the path of any ELF that exits through ecall 93
+    @Param({ "dhrystone", "coremark", "memcpy", "sort" })
+    public String kernel;
+
+    @Param({ "INTERPRETER", "BASIC_BLOCK", "JIT" })
+    public ExecutionMode mode;
+
+    private Path elf;
+    private RV32iCpu cpu;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        public long instructions;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            instructions = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void writeKernel() throws IOException {
+        elf = Kernels.file(kernel);
+    }
+
+    @Setup(Level.Invocation)
+    public void load() throws Exception {
+        MemoryManager memory = new MemoryManager(new PagedMemory(128 * 1024 * 1024),
+                new Uart(Uart.DEFAULT_RX_CAPACITY, (data, length) -> {
+                }));
+        ElfLoader loader = new ElfLoader(memory);
+        loader.loadElf(elf.toString());
+        cpu = new RV32iCpu(memory);
+        cpu.setExecutionMode(mode);
+        cpu.setProgramCounterEntryPoint(loader.getEntryPoint());
+    }
+
+    @Benchmark
+    public RunResult run(Counters counters) {
+        RunResult result = cpu.run(0, 0);
+        if (result.getHaltReason() != RunResult.HaltReason.EXITED || result.getExitCode() != 0) {
+            throw new IllegalStateException(kernel + " did not pass: " + result);
+        }
+        counters.instructions += result.getInstructionsRetired();
+        return result;
+    }
+}
@@ -0,0 +1,241 @@
+package cse311;
+
+import static cse311.Assembler.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * RV32IM guest programs for the whole-program benchmarks. Each one runs a
+ * few million instructions shaped like a well-known workload and exits with
+ * 0 when its self-check passes. They are assembled here rather than checked
+ * in as binaries, so building them needs no RISC-V toolchain.
+ */
+final class Kernels {
+    static final String[] NAMES = { "dhrystone", "coremark", "memcpy", "sort" };
+
+    private static final int DATA = MemoryManager.DATA_START;
+
+    private Kernels() {
+    }
+
+    /**
+     * The named kernel written to a temporary ELF file, or the given path if
+     * the name is not a built-in kernel, so other programs can be measured
+     * with {@code -p kernel=/path/to/program.elf}.
+     */
+    static Path file(String name) throws IOException {
+        byte[] elf;
+        switch (name) {
+            case "dhrystone":
+                elf = dhrystone().toElf();
+                break;
+            case "coremark":
+                elf = coremark().toElf();
+                break;
+            case "memcpy":
+                elf = memcpy().toElf();
+                break;
+            case "sort":
+                elf = sort().toElf();
+                break;
+            default:
+                return Path.of(name);
+        }
+        Path file = Files.createTempFile(name, ".elf");
+        file.toFile().deleteOnExit();
+        return Files.write(file, elf);
+    }
+
+    /**
+     * Calls, string compares, record copies, array updates and division, in
+     * the proportions of Dhrystone's main loop.
+     */
+    static Assembler dhrystone() {
+        Assembler a = new Assembler(MemoryManager.TEXT_START);
+        a.li(S0, 20000); // iterations
+        a.li(S1, DATA); // record A, 8 words
+        a.addi(S2, S1, 64); // record B
+        a.addi(S3, S1, 128); // 64-word array
+        a.li(S4, 0); // checksum
+        a.li(S5, 0); // i
+        a.label("loop");
+        // Proc_1: an arithmetic leaf call
+        a.mv(A0, S5).li(A1, 7).call("proc");
+        a.add(S4, S4, A0);
+        // Str_Comp: compare two strings that only differ near the end
+        a.la(A0, "string1").la(A1, "string2").call("strcmp");
+        a.add(S4, S4, A0);
+        // Record assignment, then update the copy
+        a.li(T0, 0);
+        a.label("copy");
+        a.slli(T1, T0, 2).add(T2, S1, T1).lw(T3, T2, 0);
+        a.add(T2, S2, T1).sw(T3, T2, 0);
+        a.addi(T0, T0, 1).slti(T1, T0, 8).bnez(T1, "copy");
+        a.lw(T0, S2, 4).add(T0, T0, S5).sw(T0, S1, 4);
+        // Array element update
+        a.andi(T0, S5, 63).slli(T0, T0, 2).add(T0, S3, T0);
+        a.lw(T1, T0, 0).add(T1, T1, S5).sw(T1, T0, 0);
+        // Integer division and a compare-and-branch
+        a.li(T2, 7).div(T3, S5, T2).rem(T4, S5, T2);
+        a.slt(T5, T3, T4).beqz(T5, "skip");
+        a.add(S4, S4, T4);
+        a.label("skip");
+        a.addi(S5, S5, 1).blt(S5, S0, "loop");
+        // Self-check: record A's second word picked up the loop counter
+        a.lw(T0, S1, 4).beqz(T0, "fail");
+        a.li(A0, 0).exit();
+        a.label("fail").li(A0, 1).exit();
+
+        // a0 = (a0 * 3 + a1) / 2, with a local branch
+        a.label("proc");
+        a.slli(T0, A0, 1).add(A0, A0, T0).add(A0, A0, A1);
+        a.andi(T0, A0, 1).beqz(T0, "even").addi(A0, A0, 1);
+        a.label("even").srai(A0, A0, 1).ret();
+
+        // a0 = difference of the first mismatching bytes, 0 if equal
+        a.label("strcmp");
+        a.lbu(T0, A0, 0).lbu(T1, A1, 0);
+        a.bne(T0, T1, "differ").beqz(T0, "differ");
+        a.addi(A0, A0, 1).addi(A1, A1, 1).j("strcmp");
+        a.label("differ").sub(A0, T0, T1).ret();
+
+        a.label("string1").string("DHRYSTONE PROGRAM, 1'ST STRING");
+        a.label("string2").string("DHRYSTONE PROGRAM, 2'ND STRING");
+        return a;
+    }
+
+    /**
+     * Linked-list reversal and search, a 12x12 matrix multiply and a bitwise
+     * CRC-16, the three parts of CoreMark.
+     */
+    static Assembler coremark() {
+        final int list = DATA; // 256 nodes of { value, next }
+        final int matrices = DATA + 0x1000; // A, B and C, 144 words each
+        final int size = 12;
+        Assembler a = new Assembler(MemoryManager.TEXT_START);
+        // Build the list in order, values from an LCG
+        a.li(S0, list).li(T0, 0).li(T1, 12345).li(T2, 1103515245);
+        a.label("build");
+        a.mul(T1, T1, T2).addi(T1, T1, 1013);
+        a.slli(T3, T0, 3).add(T3, S0, T3);
+        a.srli(T4, T1, 16).sw(T4, T3, 0);
+        a.addi(T5, T3, 8).sw(T5, T3, 4);
+        a.addi(T0, T0, 1).slti(T6, T0, 256).bnez(T6, "build");
+        a.sw(ZERO, T3, 4); // last node
+        // Fill A and B
+        a.li(S1, matrices).li(T0, 0);
+        a.label("fill");
+        a.slli(T3, T0, 2).add(T3, S1, T3);
+        a.andi(T4, T0, 15).sw(T4, T3, 0);
+        a.addi(T0, T0, 1).slti(T6, T0, 2 * size * size).bnez(T6, "fill");
+
+        a.li(S2, 48); // iterations
+        a.li(S3, 0); // crc
+        a.mv(S4, S0); // list head
+        a.label("iteration");
+        // Reverse the list
+        a.li(T0, 0).mv(T1, S4);
+        a.label("reverse");
+        a.lw(T2, T1, 4).sw(T0, T1, 4).mv(T0, T1).mv(T1, T2).bnez(T1, "reverse");
+        a.mv(S4, T0);
+        // Find the largest value
+        a.li(A0, 0).mv(T1, S4);
+        a.label("search");
+        a.lw(T2, T1, 0).sltu(T3, A0, T2).beqz(T3, "smaller").mv(A0, T2);
+        a.label("smaller").lw(T1, T1, 4).bnez(T1, "search");
+        a.xor(S3, S3, A0);
+        // C = A * B
+        a.li(T0, 0); // row
+        a.label("row").li(T1, 0); // column
+        a.label("column").li(T2, 0).li(T3, 0); // k, sum
+        a.label("dot");
+        a.li(T6, size).mul(T4, T0, T6).add(T4, T4, T2).slli(T4, T4, 2).add(T4, S1, T4).lw(T4, T4, 0);
+        a.mul(T5, T2, T6).add(T5, T5, T1).slli(T5, T5, 2).add(T5, S1, T5).lw(T5, T5, size * size * 4);
+        a.mul(T4, T4, T5).add(T3, T3, T4);
+        a.addi(T2, T2, 1).slti(T4, T2, size).bnez(T4, "dot");
+        a.mul(T4, T0, T6).add(T4, T4, T1).slli(T4, T4, 2).add(T4, S1, T4).sw(T3, T4, 2 * size * size * 4);
+        a.addi(T1, T1, 1).slti(T4, T1, size).bnez(T4, "column");
+        a.addi(T0, T0, 1).slti(T4, T0, size).bnez(T4, "row");
+        // CRC-16 over the low bytes of C
+        a.li(T0, 0);
+        a.label("crc");
+        a.slli(T1, T0, 2).add(T1, S1, T1).lbu(T1, T1, 2 * size * size * 4);
+        a.xor(S3, S3, T1).li(T2, 8);
+        a.label("bit");
+        a.andi(T3, S3, 1).srli(S3, S3, 1).beqz(T3, "nopoly");
+        a.li(T4, 0xA001).xor(S3, S3, T4);
+        a.label("nopoly").addi(T2, T2, -1).bnez(T2, "bit");
+        a.addi(T0, T0, 1).slti(T4, T0, size * size).bnez(T4, "crc");
+        a.addi(S2, S2, -1).bnez(S2, "iteration");
+        // Self-check: C[0][0] = sum of (k & 15) * ((144 + k * 12) & 15)
+        a.lw(T0, S1, 2 * size * size * 4).beqz(T0, "fail");
+        a.li(A0, 0).exit();
+        a.label("fail").li(A0, 1).exit();
+        return a;
+    }
+
+    /**
+     * Copies 64 KB word by word, unrolled four times, then 4 KB byte by
+     * byte, 48 times over.
+     */
+    static Assembler memcpy() {
+        final int length = 64 * 1024;
+        Assembler a = new Assembler(MemoryManager.TEXT_START);
+        a.li(S0, DATA).li(S1, DATA + length).li(S2, DATA + length);
+        a.mv(T0, S0).li(T1, 0);
+        a.label("fill").sw(T1, T0, 0).addi(T1, T1, 1).addi(T0, T0, 4).bltu(T0, S2, "fill");
+        a.li(S3, 48);
+        a.label("repeat");
+        a.mv(T0, S0).mv(T1, S1);
+        a.label("words");
+        a.lw(A0, T0, 0).lw(A1, T0, 4).lw(A2, T0, 8).lw(A3, T0, 12);
+        a.sw(A0, T1, 0).sw(A1, T1, 4).sw(A2, T1, 8).sw(A3, T1, 12);
+        a.addi(T0, T0, 16).addi(T1, T1, 16).bltu(T0, S2, "words");
+        a.mv(T0, S0).mv(T1, S1).li(T2, 4096).add(T2, T0, T2);
+        a.label("bytes");
+        a.lbu(A0, T0, 0).sb(A0, T1, 0).addi(T0, T0, 1).addi(T1, T1, 1).bltu(T0, T2, "bytes");
+        a.addi(S3, S3, -1).bnez(S3, "repeat");
+        // Self-check: the last word of the copy
+        a.li(T0, length - 4).add(T0, S1, T0).lw(T0, T0, 0);
+        a.li(T1, length / 4 - 1).sub(A0, T0, T1).exit();
+        return a;
+    }
+
+    /**
+     * Insertion sort of 512 pseudo-random words, refilled and sorted 8
+     * times, checking the order after each pass.
+     */
+    static Assembler sort() {
+        final int count = 512;
+        Assembler a = new Assembler(MemoryManager.TEXT_START);
+        a.li(S0, DATA).li(S1, count).li(S2, 1).li(S3, 1103515245).li(S4, 12345);
+        a.li(S5, 8); // rounds
+        a.label("round");
+        a.li(T0, 0);
+        a.label("fill");
+        a.mul(S2, S2, S3).add(S2, S2, S4);
+        a.srli(T1, S2, 8);
+        a.slli(T2, T0, 2).add(T2, S0, T2).sw(T1, T2, 0);
+        a.addi(T0, T0, 1).blt(T0, S1, "fill");
+        a.li(T0, 1);
+        a.label("outer");
+        a.slli(T1, T0, 2).add(T1, S0, T1).lw(T2, T1, 0).addi(T3, T1, -4);
+        a.label("inner");
+        a.bltu(T3, S0, "place");
+        a.lw(T4, T3, 0).bge(T2, T4, "place");
+        a.sw(T4, T3, 4).addi(T3, T3, -4).j("inner");
+        a.label("place").sw(T2, T3, 4);
+        a.addi(T0, T0, 1).blt(T0, S1, "outer");
+        // Self-check: ascending order
+        a.li(T0, 1);
+        a.label("check");
+        a.slli(T1, T0, 2).add(T1, S0, T1).lw(T2, T1, -4).lw(T3, T1, 0).blt(T3, T2, "fail");
+        a.addi(T0, T0, 1).blt(T0, S1, "check");
+        a.addi(S5, S5, -1).bnez(S5, "round");
+        a.li(A0, 0).exit();
+        a.label("fail").li(A0, 1).exit();
+        return a;
+    }
+}
@@ -0,0 +1,62 @@
+package cse311;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The {@link MemoryManager} paths guest loads and stores go through, over
+ * 64 KB of RAM so that several pages are touched.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MemoryBenchmark {
+    private static final int WORDS = 16 * 1024;
+    private static final int BASE = MemoryManager.DATA_START;
+
+    private MemoryManager memory;
+
+    @Setup
+    public void setup() throws MemoryAccessException {
+        memory = new MemoryManager(new PagedMemory(128 * 1024 * 1024));
+        for (int i = 0; i < WORDS; i++) {
+            memory.writeWord(BASE + i * 4, i);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(WORDS)
+    public int readWord() throws MemoryAccessException {
+        int sum = 0;
+        for (int i = 0; i < WORDS; i++) {
+            sum += memory.readWord(BASE + i * 4);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(WORDS)
+    public void writeWord() throws MemoryAccessException {
+        for (int i = 0; i < WORDS; i++) {
+            memory.writeWord(BASE + i * 4, i);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(WORDS)
+    public int readByte() throws MemoryAccessException {
+        int sum = 0;
+        for (int i = 0; i < WORDS; i++) {
+            sum += memory.readByte(BASE + i * 4 + (i & 3));
+        }
+        return sum;
+    }
+}
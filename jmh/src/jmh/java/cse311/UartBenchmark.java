@@ -0,0 +1,42 @@
+package cse311;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * UART transmit throughput in bytes per second: stores to UART_TX_DATA
+ * through the MemoryManager, flushed line by line to a sink that drops the
+ * output, so the device path is measured and not the console.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class UartBenchmark {
+    private static final byte[] LINE = "The quick brown fox jumps over the lazy dogs, 0123456789 times.\n"
+            .getBytes(java.nio.charset.StandardCharsets.US_ASCII);
+
+    private MemoryManager memory;
+
+    @Setup
+    public void setup() {
+        memory = new MemoryManager(new PagedMemory(128 * 1024 * 1024),
+                new Uart(Uart.DEFAULT_RX_CAPACITY, (data, length) -> {
+                }));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(64)
+    public void transmitLine() throws MemoryAccessException {
+        for (int i = 0; i < 64; i++) {
+            memory.writeByte(MemoryManager.UART_TX_DATA, LINE[i]);
+        }
+    }
+}